@@ -1,25 +1,44 @@
 package egi.eu;
 
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import io.smallrye.mutiny.tuples.Tuple2;
-import org.eclipse.microprofile.rest.client.RestClientBuilder;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.mutiny.core.http.HttpClient;
 import org.eclipse.microprofile.rest.client.RestClientDefinitionException;
 import org.jboss.logging.Logger;
 import org.jboss.resteasy.reactive.RestHeader;
 
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.time.Duration;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.annotation.PostConstruct;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
 import static javax.ws.rs.core.HttpHeaders.*;
 
+import eosc.eu.ActionError;
+import eosc.eu.Coalescer;
+import eosc.eu.ConcurrencyLimiter;
+import eosc.eu.ConcurrencyLimiter.Priority;
+import eosc.eu.Deadline;
+import eosc.eu.HttpClients;
+import eosc.eu.JsonArrayStream;
+import eosc.eu.LoadBalancer;
+import eosc.eu.OperationGuard;
+import eosc.eu.TransfersConfig.AdaptiveTimeoutConfig;
+import eosc.eu.TransfersConfig.CircuitBreakerConfig;
+import eosc.eu.TransfersConfig.LoadBalancingConfig;
+import eosc.eu.TransfersConfig.OperationTimeoutsConfig;
 import eosc.eu.TransfersConfig.TransferServiceConfig;
 import eosc.eu.TransferService;
 import eosc.eu.TransferServiceException;
@@ -36,10 +55,36 @@ public class EgiDataTransfer implements TransferService {
     private static final Logger LOG = Logger.getLogger(EgiDataTransfer.class);
     private static Set<String> infoFieldsAsIs;
     private static Map<String, String> infoFieldsRenamed;
+    private static final Pattern httpStatusPattern = Pattern.compile("^(\\d{3})\\b.*$");
 
     private String name;
-    private static FileTransferService fts;
+    private LoadBalancer<Endpoint> endpoints; // Replicas of the transfer service
     private int timeout;
+    private OperationTimeoutsConfig timeouts;
+    private AdaptiveTimeoutConfig adaptiveTimeout;
+    private CircuitBreakerConfig circuitBreaker;
+    private LoadBalancingConfig loadBalancing;
+    private final Map<String, OperationGuard> guards = new ConcurrentHashMap<>(); // Indexed by operation
+    private ConcurrencyLimiter limiter; // Calls in progress to the transfer service
+    private int statusBatchSize;
+    private int statusConcurrency;
+    private Coalescer coalescer; // Identical calls in progress
+
+
+    /***
+     * A replica of File Transfer Service, with the clients to call it
+     */
+    private static class Endpoint {
+        final URL url;
+        final FileTransferService api;
+        final HttpClient streamingClient; // For responses that are parsed while they are received
+
+        Endpoint(URL url, FileTransferService api, HttpClient streamingClient) {
+            this.url = url;
+            this.api = api;
+            this.streamingClient = streamingClient;
+        }
+    }
 
 
     /***
@@ -56,34 +101,46 @@ public class EgiDataTransfer implements TransferService {
 
         this.name = serviceConfig.name();
         this.timeout = serviceConfig.timeout();
+        this.timeouts = serviceConfig.timeouts();
+        this.adaptiveTimeout = serviceConfig.adaptiveTimeout();
+        this.circuitBreaker = serviceConfig.circuitBreaker();
+        this.statusBatchSize = Math.max(1, serviceConfig.statusBatchSize());
+        this.statusConcurrency = Math.max(1, serviceConfig.statusConcurrency());
+
+        this.limiter = new ConcurrencyLimiter(this.name, serviceConfig.concurrencyLimit());
+        this.coalescer = new Coalescer(this.name);
+        this.loadBalancing = serviceConfig.loadBalancing();
+        var endpoints = new LoadBalancer<Endpoint>(this.name, this.loadBalancing);
+        for(var url : serviceConfig.url()) {
+            // Check if transfer service base URL is valid
+            URL urlTransferService;
+            try {
+                urlTransferService = new URL(url);
+            } catch (MalformedURLException e) {
+                LOG.error(e.getMessage());
+                continue;
+            }
 
-        if (null != this.fts)
-            return true;
+            LOG.debugf("Obtaining REST client for File Transfer Service at %s", url);
 
-        LOG.debug("Obtaining REST client for File Transfer Service");
+            try {
+                // Create the REST client for this replica of the transfer service
+                var api = HttpClients.restClientBuilder(urlTransferService, serviceConfig.http())
+                            .build(FileTransferService.class);
 
-        // Check if transfer service base URL is valid
-        URL urlTransferService;
-        try {
-            urlTransferService = new URL(serviceConfig.url());
-        } catch (MalformedURLException e) {
-            LOG.error(e.getMessage());
-            return false;
+                var streamingClient = HttpClients.createStreamingClient(urlTransferService, serviceConfig.http(), this.name);
+                endpoints.add(url, new Endpoint(urlTransferService, api, streamingClient));
+            }
+            catch (RestClientDefinitionException e) {
+                LOG.error(e.getMessage());
+            }
         }
 
-        try {
-            // Create the REST client for the transfer service
-            this.fts = RestClientBuilder.newBuilder()
-                        .baseUrl(urlTransferService)
-                        .build(FileTransferService.class);
-
-            return true;
-        }
-        catch (RestClientDefinitionException e) {
-            LOG.error(e.getMessage());
-        }
+        if(0 == endpoints.size())
+            return false;
 
-        return false;
+        this.endpoints = endpoints;
+        return true;
     }
 
     /***
@@ -153,17 +210,14 @@ public class EgiDataTransfer implements TransferService {
      * @return User information.
      */
     public Uni<eosc.eu.model.UserInfo> getUserInfo(String auth) {
-        if(null == this.fts)
+        if(null == this.endpoints)
             return Uni.createFrom().failure(new TransferServiceException("invalidConfig"));
 
         Uni<eosc.eu.model.UserInfo> result = Uni.createFrom().nullItem()
 
-            .ifNoItem()
-                .after(Duration.ofMillis(this.timeout))
-                .failWith(new TransferServiceException("getUserInfoTimeout"))
             .chain(unused -> {
                 // Get user info
-                return this.fts.getUserInfoAsync(auth);
+                return guarded("getUserInfo", fts -> fts.api.getUserInfoAsync(auth), this.timeout);
             })
             .chain(userInfo -> {
                 // Got user info
@@ -173,7 +227,7 @@ public class EgiDataTransfer implements TransferService {
                 LOG.error(e);
             });
 
-        return result;
+        return this.coalescer.coalesce("getUserInfo", auth, "", result);
     }
 
     /**
@@ -183,17 +237,14 @@ public class EgiDataTransfer implements TransferService {
      * @return Identification for the new transfer.
      */
     public Uni<TransferInfo> startTransfer(String auth, Transfer transfer) {
-        if(null == this.fts)
+        if(null == this.endpoints)
             return Uni.createFrom().failure(new TransferServiceException("invalidConfig"));
 
         Uni<TransferInfo> result = Uni.createFrom().nullItem()
 
-            .ifNoItem()
-                .after(Duration.ofMillis(this.timeout))
-                .failWith(new TransferServiceException("startTransferTimeout"))
             .chain(unused -> {
                 // Start new transfer
-                return this.fts.startTransferAsync(auth, new Job(transfer));
+                return guarded("startTransfer", fts -> fts.api.startTransferAsync(auth, new Job(transfer)), this.timeouts.submit());
             })
             .chain(jobInfo -> {
                 // Transfer started
@@ -203,7 +254,7 @@ public class EgiDataTransfer implements TransferService {
                 LOG.error(e);
             });
 
-        return result;
+        return Deadline.bound(result);
     }
 
     /***
@@ -225,38 +276,28 @@ public class EgiDataTransfer implements TransferService {
                                            String timeWindow, @DefaultValue("ACTIVE") String stateIn,
                                            String srcStorageElement, String dstStorageElement,
                                            String delegationId, String voName, String userDN) {
-        if(null == this.fts)
+        if(null == this.endpoints)
             return Uni.createFrom().failure(new TransferServiceException("invalidConfig"));
 
         // Translate field names
-        String jobFields = null;
-        if(null != fields && !fields.isEmpty()) {
-            jobFields = "";
-            String[] transferFields = fields.split(",");
-            for (String tf : transferFields) {
-                if(!jobFields.isEmpty())
-                    jobFields += ",";
-
-                String jf = this.translateTransferInfoFieldName(tf);
-                if(null == jf)
-                    // Found unsupported field
-                    return Uni.createFrom().failure(new TransferServiceException("fieldNotSupported", Tuple2.of("fieldName", tf)));
-
-                jobFields += jf;
-            }
+        String jobFields;
+        try {
+            jobFields = translateFieldNames(fields);
+        }
+        catch(TransferServiceException e) {
+            // Found unsupported field
+            return Uni.createFrom().failure(e);
         }
 
         AtomicReference<String> searchFields = new AtomicReference<>(jobFields);
         Uni<TransferList> result = Uni.createFrom().nullItem()
 
-            .ifNoItem()
-                .after(Duration.ofMillis(this.timeout))
-                .failWith(new TransferServiceException("findTransfersTimeout"))
             .chain(unused -> {
                 // List matching transfers
-                return this.fts.findTransfersAsync(auth, searchFields.get(), limit, timeWindow, stateIn,
-                                                   srcStorageElement, dstStorageElement,
-                                                   delegationId, voName, userDN);
+                return hedged("findTransfers", fts -> fts.api.findTransfersAsync(auth, searchFields.get(), limit, timeWindow, stateIn,
+                                                                                 srcStorageElement, dstStorageElement,
+                                                                                 delegationId, voName, userDN),
+                              this.timeouts.find());
             })
             .chain(jobs -> {
                 // Got matching transfers
@@ -266,6 +307,80 @@ public class EgiDataTransfer implements TransferService {
                 LOG.error(e);
             });
 
+        final String args = String.join("|", fields, String.valueOf(limit), timeWindow, stateIn,
+                                             srcStorageElement, dstStorageElement, delegationId, voName, userDN);
+
+        return this.coalescer.coalesce("findTransfers", auth, args, result);
+    }
+
+    /***
+     * Find transfers matching criteria, streaming each matching transfer as soon as it is parsed
+     * from the response of FTS, translated to the generic field names.
+     * @param auth The access token that authorizes calling the service.
+     * @param fields Comma separated list of fields to return for each transfer
+     * @param limit Maximum number of transfers to return
+     * @param timeWindow For terminal states, limit results to 'hours[:minutes]' into the past
+     * @param stateIn Comma separated list of job states to match, by default returns 'ACTIVE' only
+     * @param srcStorageElement Source storage element
+     * @param dstStorageElement Destination storage element
+     * @param delegationId Filter by delegation ID of user who started the transfer
+     * @param voName Filter by VO of user who started the transfer
+     * @param userDN Filter by user who started the transfer
+     * @return Matching transfers.
+     */
+    public Multi<TransferInfoExtended> streamTransfers(String auth,
+                                                       String fields, int limit,
+                                                       String timeWindow, String stateIn,
+                                                       String srcStorageElement, String dstStorageElement,
+                                                       String delegationId, String voName, String userDN) {
+        if(null == this.endpoints)
+            return Multi.createFrom().failure(new TransferServiceException("invalidConfig"));
+
+        // Translate field names
+        String jobFields;
+        try {
+            jobFields = translateFieldNames(fields);
+        }
+        catch(TransferServiceException e) {
+            // Found unsupported field
+            return Multi.createFrom().failure(e);
+        }
+
+        // Build the same request the REST client would send to FTS
+        var query = new StringBuilder(String.format("limit=%d", limit));
+        appendQueryParam(query, "fields", jobFields);
+        appendQueryParam(query, "time_window", timeWindow);
+        appendQueryParam(query, "state_in", stateIn);
+        appendQueryParam(query, "source_se", srcStorageElement);
+        appendQueryParam(query, "dest_se", dstStorageElement);
+        appendQueryParam(query, "dlg_id", delegationId);
+        appendQueryParam(query, "vo_name", voName);
+        appendQueryParam(query, "user_dn", userDN);
+
+        // Pick the replica only once the concurrency limit lets the stream through
+        Multi<TransferInfoExtended> result = Deadline.bound(this.limiter.stream(Priority.STATUS, this.endpoints.stream(replica -> {
+                // Stream from the selected replica of the transfer service
+                var fts = replica.client;
+                var options = new RequestOptions()
+                                    .setHost(fts.url.getHost())
+                                    .setPort(fts.url.getPort() > 0 ? fts.url.getPort() : fts.url.getDefaultPort())
+                                    .setSsl("https".equalsIgnoreCase(fts.url.getProtocol()))
+                                    .setURI(fts.url.getPath().replaceAll("/+$", "") + "/jobs?" + query)
+                                    .putHeader(ACCEPT, MediaType.APPLICATION_JSON);
+
+                if(null != auth && !auth.isEmpty())
+                    options.putHeader(AUTHORIZATION, auth);
+
+                return JsonArrayStream.get(fts.streamingClient, options, JobInfoExtended.class);
+            }, this.timeouts.find(), "findTransfersTimeout")))
+            .map(jobInfoExt -> {
+                // Got matching transfer
+                return new TransferInfoExtended(jobInfoExt);
+            })
+            .onFailure().invoke(e -> {
+                LOG.error(e);
+            });
+
         return result;
     }
 
@@ -276,17 +391,14 @@ public class EgiDataTransfer implements TransferService {
      * @return Details of the transfer.
      */
     public Uni<TransferInfoExtended> getTransferInfo(String auth, String jobId) {
-        if(null == this.fts)
+        if(null == this.endpoints)
             return Uni.createFrom().failure(new TransferServiceException("invalidConfig"));
 
         Uni<TransferInfoExtended> result = Uni.createFrom().nullItem()
 
-            .ifNoItem()
-                .after(Duration.ofMillis(this.timeout))
-                .failWith(new TransferServiceException("getTransferInfoTimeout"))
             .chain(unused -> {
                 // Get transfer info
-                return this.fts.getTransferInfoAsync(auth, jobId);
+                return hedged("getTransferInfo", fts -> fts.api.getTransferInfoAsync(auth, jobId), this.timeout);
             })
             .chain(jobInfoExt -> {
                 // Got transfer info
@@ -296,9 +408,113 @@ public class EgiDataTransfer implements TransferService {
                 LOG.error(e);
             });
 
+        return this.coalescer.coalesce("getTransferInfo", auth, jobId, result);
+    }
+
+    /**
+     * Request information about multiple transfers.
+     * The transfers are queried in batches, each batch with a single call to FTS,
+     * with at most "status-concurrency" calls in progress at any time.
+     * @param auth The access token that authorizes calling the service.
+     * @param jobIds The IDs of the transfers to request info about.
+     * @return Details of the transfers, and an error for each transfer that could not be retrieved.
+     */
+    public Uni<TransferStatusList> getTransfersInfo(String auth, List<String> jobIds) {
+        if(null == this.endpoints)
+            return Uni.createFrom().failure(new TransferServiceException("invalidConfig"));
+
+        // Split the (distinct) transfer IDs into batches
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(jobIds));
+        List<List<String>> batches = new ArrayList<>();
+        for(int i = 0; i < ids.size(); i += this.statusBatchSize)
+            batches.add(ids.subList(i, Math.min(i + this.statusBatchSize, ids.size())));
+
+        LOG.debugf("Querying %d transfers in %d batches", ids.size(), batches.size());
+
+        Uni<TransferStatusList> result = Multi.createFrom().iterable(batches)
+            .onItem().transformToUni(batch -> getTransfersInfoBatch(auth, batch))
+            .merge(this.statusConcurrency)
+            .collect().in(TransferStatusList::new, TransferStatusList::addAll);
+
+        return Deadline.bound(result);
+    }
+
+    /**
+     * Request information about a batch of transfers, with a single call to FTS.
+     * Never fails, errors are reported per transfer.
+     * @param auth The access token that authorizes calling the service.
+     * @param jobIds The IDs of the transfers to request info about.
+     * @return Details of the transfers, and an error for each transfer that could not be retrieved.
+     */
+    private Uni<TransferStatusList> getTransfersInfoBatch(String auth, List<String> jobIds) {
+
+        Uni<TransferStatusList> result = Uni.createFrom().nullItem()
+
+            .chain(unused -> {
+                // Get transfer infos, FTS only returns a list when asked about multiple transfers
+                if(1 == jobIds.size())
+                    return guarded("getTransfersInfo", fts -> fts.api.getTransferInfoAsync(auth, jobIds.get(0)).map(List::of), this.timeout);
+
+                return guarded("getTransfersInfo", fts -> fts.api.getTransfersInfoAsync(auth, String.join(",", jobIds)), this.timeout);
+            })
+            .chain(jobInfos -> {
+                // Got transfer infos
+                var transfers = new TransferStatusList();
+                Set<String> missing = new HashSet<>(jobIds);
+                for(var jobInfoExt : jobInfos) {
+                    missing.remove(jobInfoExt.job_id);
+
+                    if(null == jobInfoExt.http_status || jobInfoExt.http_status.startsWith("200"))
+                        transfers.add(new TransferInfoExtended(jobInfoExt));
+                    else
+                        // FTS reports the transfers it could not retrieve with an error status
+                        transfers.addError(jobInfoExt.job_id, jobError(jobInfoExt.job_id, jobInfoExt.http_status));
+                }
+
+                for(var jobId : missing)
+                    transfers.addError(jobId, jobError(jobId, "404 Not Found"));
+
+                return Uni.createFrom().item(transfers);
+            })
+            .onFailure().recoverWithItem(e -> {
+                // The whole batch failed, report it for each transfer
+                LOG.error(e);
+                var transfers = new TransferStatusList();
+                for(var jobId : jobIds)
+                    transfers.addError(jobId, new ActionError(e, Tuple2.of("jobId", jobId)));
+
+                return transfers;
+            });
+
         return result;
     }
 
+    /**
+     * Build error for a transfer that could not be retrieved.
+     * @param jobId The ID of the transfer.
+     * @param httpStatus The status reported by FTS for the transfer (e.g. "404 Not Found").
+     * @return Error for the transfer.
+     */
+    private static ActionError jobError(String jobId, String httpStatus) {
+
+        Status status = null;
+        Matcher m = httpStatusPattern.matcher(httpStatus);
+        if(m.matches())
+            status = Status.fromStatusCode(Integer.parseInt(m.group(1)));
+        if(null == status)
+            status = ActionError.defaultStatus();
+
+        String id;
+        switch(status) {
+            case UNAUTHORIZED: id = "notAuthenticated"; break;
+            case FORBIDDEN: id = "noAccess"; break;
+            case NOT_FOUND: id = "transferNotFound"; break;
+            default: id = "transferError"; break;
+        }
+
+        return new ActionError(id, Tuple2.of("jobId", jobId)).setStatus(status);
+    }
+
     /**
      * Request specific field from information about a transfer.
      * @param auth The access token that authorizes calling the service.
@@ -307,7 +523,7 @@ public class EgiDataTransfer implements TransferService {
      * @return The value of the requested field from a transfer's information.
      */
     public Uni<Response> getTransferInfoField(String auth, String jobId, String fieldName) {
-        if(null == this.fts)
+        if(null == this.endpoints)
             return Uni.createFrom().failure(new TransferServiceException("invalidConfig"));
 
         String jobFieldName = translateTransferInfoFieldName(fieldName);
@@ -316,12 +532,9 @@ public class EgiDataTransfer implements TransferService {
 
         Uni<Response> result = Uni.createFrom().nullItem()
 
-            .ifNoItem()
-                .after(Duration.ofMillis(this.timeout))
-                .failWith(new TransferServiceException("getTransferInfoFieldTimeout"))
             .chain(unused -> {
                 // Get field value
-                return this.fts.getTransferFieldAsync(auth, jobId, jobFieldName);
+                return guarded("getTransferInfoField", fts -> fts.api.getTransferFieldAsync(auth, jobId, jobFieldName), this.timeout);
             })
             .chain(jobField -> {
                 // Got field value
@@ -343,7 +556,7 @@ public class EgiDataTransfer implements TransferService {
                 LOG.error(e);
             });
 
-        return result;
+        return this.coalescer.coalesce("getTransferInfoField", auth, jobId + "|" + fieldName, result);
     }
 
     /**
@@ -353,17 +566,14 @@ public class EgiDataTransfer implements TransferService {
      * @return Details of the cancelled transfer.
      */
     public Uni<TransferInfoExtended> cancelTransfer(String auth, String jobId) {
-        if(null == this.fts)
+        if(null == this.endpoints)
             return Uni.createFrom().failure(new TransferServiceException("invalidConfig"));
 
         Uni<TransferInfoExtended> result = Uni.createFrom().nullItem()
 
-            .ifNoItem()
-                .after(Duration.ofMillis(this.timeout))
-                .failWith(new TransferServiceException("cancelTransferTimeout"))
             .chain(unused -> {
                 // Cancel transfer
-                return this.fts.cancelTransferAsync(auth, jobId);
+                return guarded("cancelTransfer", fts -> fts.api.cancelTransferAsync(auth, jobId), this.timeout);
             })
             .chain(jobInfoExt -> {
                 // Transfer canceled, got updated transfer info
@@ -373,7 +583,7 @@ public class EgiDataTransfer implements TransferService {
                 LOG.error(e);
             });
 
-        return result;
+        return Deadline.bound(result);
     }
 
     /**
@@ -383,17 +593,14 @@ public class EgiDataTransfer implements TransferService {
      * @return List of folder content.
      */
     public Uni<StorageContent> listFolderContent(String auth, String folderUrl) {
-        if(null == this.fts)
+        if(null == this.endpoints)
             return Uni.createFrom().failure(new TransferServiceException("invalidConfig"));
 
         Uni<StorageContent> result = Uni.createFrom().nullItem()
 
-            .ifNoItem()
-                .after(Duration.ofMillis(this.timeout))
-                .failWith(new TransferServiceException("listFolderContentTimeout"))
             .chain(unused -> {
                 // List folder content
-                return this.fts.listFolderContentAsync(auth, folderUrl);
+                return hedged("listFolderContent", fts -> fts.api.listFolderContentAsync(auth, folderUrl), this.timeouts.list());
             })
             .chain(contentList -> {
                 // Got folder listing
@@ -403,7 +610,7 @@ public class EgiDataTransfer implements TransferService {
                 LOG.error(e);
             });
 
-        return result;
+        return this.coalescer.coalesce("listFolderContent", auth, folderUrl, result);
     }
 
     /**
@@ -413,17 +620,14 @@ public class EgiDataTransfer implements TransferService {
      * @return Details about the storage element.
      */
     public Uni<StorageElement> getStorageElementInfo(@RestHeader("Authorization") String auth, String seUrl) {
-        if(null == this.fts)
+        if(null == this.endpoints)
             return Uni.createFrom().failure(new TransferServiceException("invalidConfig"));
 
         Uni<StorageElement> result = Uni.createFrom().nullItem()
 
-            .ifNoItem()
-                .after(Duration.ofMillis(this.timeout))
-                .failWith(new TransferServiceException("getStorageElementInfoTimeout"))
             .chain(unused -> {
                 // Get object info
-                return this.fts.getObjectInfoAsync(auth, seUrl);
+                return hedged("getStorageElementInfo", fts -> fts.api.getObjectInfoAsync(auth, seUrl), this.timeouts.stat());
             })
             .chain(objInfo -> {
                 // Got object info
@@ -434,7 +638,7 @@ public class EgiDataTransfer implements TransferService {
                 LOG.error(e);
             });
 
-        return result;
+        return this.coalescer.coalesce("getStorageElementInfo", auth, seUrl, result);
     }
 
     /**
@@ -444,18 +648,15 @@ public class EgiDataTransfer implements TransferService {
      * @return Confirmation message.
      */
     public Uni<String> createFolder(String auth, String folderUrl) {
-        if(null == this.fts)
+        if(null == this.endpoints)
             return Uni.createFrom().failure(new TransferServiceException("invalidConfig"));
 
         Uni<String> result = Uni.createFrom().nullItem()
 
-            .ifNoItem()
-                .after(Duration.ofMillis(this.timeout))
-                .failWith(new TransferServiceException("createFolderTimeout"))
             .chain(unused -> {
                 // Create folder
                 var operation = new ObjectOperation(folderUrl);
-                return this.fts.createFolderAsync(auth, operation);
+                return guarded("createFolder", fts -> fts.api.createFolderAsync(auth, operation), this.timeout);
             })
             .chain(code -> {
                 // Got success code
@@ -465,7 +666,7 @@ public class EgiDataTransfer implements TransferService {
                 LOG.error(e);
             });
 
-        return result;
+        return Deadline.bound(result);
     }
 
     /**
@@ -475,18 +676,15 @@ public class EgiDataTransfer implements TransferService {
      * @return Confirmation message.
      */
     public Uni<String> deleteFolder(String auth, String folderUrl) {
-        if(null == this.fts)
+        if(null == this.endpoints)
             return Uni.createFrom().failure(new TransferServiceException("invalidConfig"));
 
         Uni<String> result = Uni.createFrom().nullItem()
 
-            .ifNoItem()
-                .after(Duration.ofMillis(this.timeout))
-                .failWith(new TransferServiceException("deleteFolderTimeout"))
             .chain(unused -> {
                 // Delete folder
                 var operation = new ObjectOperation(folderUrl);
-                return this.fts.deleteFolderAsync(auth, operation);
+                return guarded("deleteFolder", fts -> fts.api.deleteFolderAsync(auth, operation), this.timeout);
             })
             .chain(code -> {
                 // Got success code
@@ -496,7 +694,7 @@ public class EgiDataTransfer implements TransferService {
                 LOG.error(e);
             });
 
-        return result;
+        return Deadline.bound(result);
     }
 
     /**
@@ -506,18 +704,15 @@ public class EgiDataTransfer implements TransferService {
      * @return Confirmation message.
      */
     public Uni<String> deleteFile(String auth, String fileUrl) {
-        if(null == this.fts)
+        if(null == this.endpoints)
             return Uni.createFrom().failure(new TransferServiceException("invalidConfig"));
 
         Uni<String> result = Uni.createFrom().nullItem()
 
-            .ifNoItem()
-                .after(Duration.ofMillis(this.timeout))
-                .failWith(new TransferServiceException("deleteFileTimeout"))
             .chain(unused -> {
                 // Delete file
                 var operation = new ObjectOperation(fileUrl);
-                return this.fts.deleteFileAsync(auth, operation);
+                return guarded("deleteFile", fts -> fts.api.deleteFileAsync(auth, operation), this.timeout);
             })
             .chain(code -> {
                 // Got success code
@@ -527,7 +722,7 @@ public class EgiDataTransfer implements TransferService {
                 LOG.error(e);
             });
 
-        return result;
+        return Deadline.bound(result);
     }
 
     /**
@@ -538,18 +733,15 @@ public class EgiDataTransfer implements TransferService {
      * @return Confirmation message.
      */
     public Uni<String> renameStorageElement(String auth, String seOld, String seNew) {
-        if(null == this.fts)
+        if(null == this.endpoints)
             throw new TransferServiceException("invalidConfig");
 
         Uni<String> result = Uni.createFrom().nullItem()
 
-            .ifNoItem()
-                .after(Duration.ofMillis(this.timeout))
-                .failWith(new TransferServiceException("renameStorageElementTimeout"))
             .chain(unused -> {
                 // Rename storage element
                 var operation = new ObjectOperation(seOld, seNew);
-                return this.fts.renameObjectAsync(auth, operation);
+                return guarded("renameStorageElement", fts -> fts.api.renameObjectAsync(auth, operation), this.timeout);
             })
             .chain(code -> {
                 // Got success code
@@ -559,6 +751,104 @@ public class EgiDataTransfer implements TransferService {
                 LOG.error(e);
             });
 
-        return result;
+        return Deadline.bound(result);
+    }
+
+    /**
+     * Call an operation of File Transfer Service through its guard, see {@link OperationGuard},
+     * once the concurrency limit allows it, see {@link ConcurrencyLimiter}.
+     * @param operation The name of the operation, also the prefix of the timeout error id.
+     * @param call The call to File Transfer Service, made on the replica selected by the load balancer.
+     * @param budget The maximum duration of the call (milliseconds).
+     * @return The call, bounded by the adaptive timeout, fails fast while the circuit breaker is open
+     *         or when the call is shed. Not bound by the deadline of the API request, as the call may
+     *         be shared by several requests, callers must bound it (directly or through the Coalescer).
+     */
+    private <T> Uni<T> guarded(String operation, Function<Endpoint, Uni<T>> call, long budget) {
+        return this.limiter.call(priorityOf(operation),
+                    guardOf(operation).call(timeout -> this.endpoints.call(call, timeout, operation + "Timeout"), budget));
+    }
+
+    /**
+     * Call an idempotent operation of File Transfer Service through its guard, hedging the call
+     * (if enabled) on another replica when the first one is slower than the p95 latency of the operation.
+     * @param operation The name of the operation, also the prefix of the timeout error id.
+     * @param call The call to File Transfer Service, must be safe to repeat.
+     * @param budget The maximum duration of the call (milliseconds).
+     * @return The call, bounded by the adaptive timeout, fails fast while the circuit breaker is open.
+     */
+    private <T> Uni<T> hedged(String operation, Function<Endpoint, Uni<T>> call, long budget) {
+        if(!this.loadBalancing.hedge())
+            return guarded(operation, call, budget);
+
+        return Uni.createFrom().deferred(() -> {
+            var guard = guardOf(operation);
+            long delay = (long)Math.ceil(guard.percentile(0.95));
+            return this.limiter.call(priorityOf(operation),
+                        guard.call(timeout -> this.endpoints.hedged(call, delay, timeout, operation + "Timeout"), budget));
+        });
+    }
+
+    /**
+     * Get the priority class of an operation, cheap status reads go ahead of
+     * storage operations, which go ahead of submissions.
+     */
+    private static Priority priorityOf(String operation) {
+        switch(operation) {
+            case "startTransfer":
+                return Priority.SUBMISSION;
+            case "listFolderContent":
+            case "createFolder":
+            case "deleteFolder":
+            case "deleteFile":
+            case "renameStorageElement":
+                return Priority.STORAGE;
+            default:
+                return Priority.STATUS;
+        }
+    }
+
+    /**
+     * Get the guard of an operation, see {@link OperationGuard}.
+     */
+    private OperationGuard guardOf(String operation) {
+        return this.guards.computeIfAbsent(operation,
+                    op -> new OperationGuard(this.name, op, this.adaptiveTimeout, this.circuitBreaker));
+    }
+
+    /**
+     * Translate comma separated list of generic field names to the names used by FTS.
+     * @param fields Comma separated list of TransferInfoExtended fields.
+     * @return Comma separated list of FTS job fields, null if no fields specified.
+     * @throws TransferServiceException if any of the fields is not supported.
+     */
+    private String translateFieldNames(String fields) throws TransferServiceException {
+
+        if(null == fields || fields.isEmpty())
+            return null;
+
+        String jobFields = "";
+        String[] transferFields = fields.split(",");
+        for (String tf : transferFields) {
+            if(!jobFields.isEmpty())
+                jobFields += ",";
+
+            String jf = this.translateTransferInfoFieldName(tf);
+            if(null == jf)
+                // Found unsupported field
+                throw new TransferServiceException("fieldNotSupported", Tuple2.of("fieldName", tf));
+
+            jobFields += jf;
+        }
+
+        return jobFields;
+    }
+
+    /**
+     * Append URL encoded query parameter, if it has a value.
+     */
+    private static void appendQueryParam(StringBuilder query, String name, String value) {
+        if(null != value && !value.isEmpty())
+            query.append('&').append(name).append('=').append(URLEncoder.encode(value, StandardCharsets.UTF_8));
     }
 }
@@ -45,6 +45,10 @@ public interface FileTransferService {
     @Path("/jobs/{jobId}")
     Uni<JobInfoExtended> getTransferInfoAsync(@RestHeader("Authorization") String auth, String jobId);
 
+    @GET
+    @Path("/jobs/{jobIds}")
+    Uni<List<JobInfoExtended>> getTransfersInfoAsync(@RestHeader("Authorization") String auth, String jobIds); // Comma separated, at least 2
+
     @GET
     @Path("/jobs/{jobId}/{fieldName}")
     Uni<Object> getTransferFieldAsync(@RestHeader("Authorization") String auth, String jobId, String fieldName);
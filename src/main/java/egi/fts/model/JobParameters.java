@@ -6,6 +6,9 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
 
+import java.util.HashMap;
+import java.util.Map;
+
 
 /**
  * Parameters of a transfer job
@@ -30,6 +33,9 @@ public class JobParameters {
     @Schema(title="Force IPv6 if the underlying protocol supports it")
     public boolean ipv6 = false;
 
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    public Map<String, String> job_metadata;
+
 
     /**
      * Constructor
@@ -47,5 +53,7 @@ public class JobParameters {
         this.strict_copy = params.strictCopy;
         this.ipv4 = params.ipv4;
         this.ipv6 = params.ipv6;
+        if(null != params.jobMetadata)
+            this.job_metadata = new HashMap<>(params.jobMetadata);
     }
 }
@@ -12,6 +12,7 @@ import org.jboss.resteasy.reactive.common.jaxrs.ResponseImpl;
 //import org.jboss.resteasy.specimpl.AbstractBuiltResponse;
 import javax.ws.rs.ProcessingException;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
@@ -195,8 +196,16 @@ public class ActionError {
         if (type.equals(TransferServiceException.class)) {
             TransferServiceException tse = (TransferServiceException)t;
             this.id = tse.getId();
-            if(this.id.equals("fieldNotSupported"))
+            if(this.id.equals("fieldNotSupported") || this.id.equals("invalidJobId") ||
+               this.id.equals("noFilesToTransfer") || this.id.equals("tooManyFiles") ||
+               this.id.equals("invalidFileName"))
                 this.status = Status.BAD_REQUEST;
+            else if(this.id.endsWith("Timeout") || this.id.equals("deadlineExceeded"))
+                this.status = Status.GATEWAY_TIMEOUT;
+            else if(this.id.equals("serviceUnavailable"))
+                this.status = Status.SERVICE_UNAVAILABLE;
+            else if(this.id.equals("tooManyWatches"))
+                this.status = Status.TOO_MANY_REQUESTS;
 
             // Collect the details from the exception (if any)
             var tseDetails = tse.getDetails();
@@ -298,13 +307,20 @@ public class ActionError {
      * Convert to Response that can be returned by a REST endpoint
      */
     public Response toResponse() {
-        return Response.ok(this).status(this.status).build();
+        return toResponse(this.status);
     }
 
     /**
      * Convert to Response with new status that can be returned by a REST endpoint
      */
     public Response toResponse(Status status) {
-        return Response.ok(this).status(status).build();
+        var response = Response.ok(this).status(status);
+
+        // Tell client when to retry (in seconds)
+        var retryAfter = this.details.map(d -> d.get("retryAfter"));
+        if(retryAfter.isPresent())
+            response.header(HttpHeaders.RETRY_AFTER, retryAfter.get());
+
+        return response.build();
     }
 }
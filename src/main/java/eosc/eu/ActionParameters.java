@@ -15,9 +15,11 @@ import io.smallrye.mutiny.Multi;
 public class ActionParameters {
 
     public ParserService parser;
+    public ParseContext parseContext;
     public TransferService ts;
     public String source;       // Parser key
     public String destination;  // Destination key
+    public String seUrl;        // Storage element the action is about, can route to a destination
     public Response response;
 
 
@@ -36,14 +38,24 @@ public class ActionParameters {
         this.response = Response.ok().build();
     }
 
+    /**
+     * Construct with destination and the storage element the action is about
+     */
+    public ActionParameters(String destination, String seUrl) {
+        this(destination);
+        this.seUrl = seUrl;
+    }
+
     /**
      * Copy constructor
      */
     public ActionParameters(ActionParameters ap) {
         this.parser = ap.parser;
+        this.parseContext = ap.parseContext;
         this.ts = ap.ts;
         this.source = ap.source;
         this.destination = ap.destination;
+        this.seUrl = ap.seUrl;
         this.response = ap.response;
     }
 
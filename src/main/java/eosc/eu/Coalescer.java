@@ -0,0 +1,181 @@
+package eosc.eu;
+
+import io.micrometer.core.instrument.Metrics;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.Cancellable;
+import io.smallrye.mutiny.subscription.UniEmitter;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/***
+ * Shares one upstream call between concurrent identical calls to a service (single-flight).
+ * The result of the upstream call is only shared with the calls that arrive
+ * while it is in progress, it is not cached after it completes.
+ * Each caller is bound by the deadline of its own API request, and the upstream call
+ * is only canceled once all callers waiting for it have gone.
+ */
+public class Coalescer {
+
+    private static final Logger LOG = Logger.getLogger(Coalescer.class);
+
+    private final String service;
+    private final Map<String, SharedCall<?>> inFlight = new ConcurrentHashMap<>(); // Identical calls in progress
+
+
+    /***
+     * An upstream call and the callers waiting for its result
+     */
+    private class SharedCall<T> {
+        private final String key;
+        private final List<UniEmitter<? super T>> waiters = new ArrayList<>(); // Guarded by this
+        private Cancellable upstream;       // Guarded by this
+        private boolean completed = false;  // Guarded by this
+        private boolean abandoned = false;  // Guarded by this
+
+        SharedCall(String key) { this.key = key; }
+
+        /**
+         * Add a caller.
+         * @return false if the call was abandoned by all its callers, a new one must be started.
+         */
+        synchronized boolean join(UniEmitter<? super T> waiter) {
+            if(this.abandoned)
+                return false;
+
+            this.waiters.add(waiter);
+            return true;
+        }
+
+        /**
+         * Remove a caller, cancels the upstream call when it was the last one.
+         */
+        void leave(UniEmitter<? super T> waiter) {
+            Cancellable cancellable;
+            synchronized(this) {
+                if(!this.waiters.remove(waiter) || !this.waiters.isEmpty() || this.completed)
+                    return;
+
+                this.abandoned = true;
+                cancellable = this.upstream;
+            }
+
+            inFlight.remove(this.key, this);
+            if(null != cancellable)
+                cancellable.cancel();
+        }
+
+        /**
+         * Subscribe to the upstream call.
+         */
+        void start(Uni<T> call) {
+            var cancellable = call.subscribe().with(this::complete, this::fail);
+
+            boolean abandoned;
+            synchronized(this) {
+                this.upstream = cancellable;
+                abandoned = this.abandoned;
+            }
+
+            if(abandoned)
+                // All callers left while subscribing
+                cancellable.cancel();
+        }
+
+        private void complete(T item) {
+            for(var waiter : done())
+                waiter.complete(item);
+        }
+
+        private void fail(Throwable e) {
+            for(var waiter : done())
+                waiter.fail(e);
+        }
+
+        /**
+         * Mark the upstream call as completed.
+         * @return The callers to pass the outcome to.
+         */
+        private List<UniEmitter<? super T>> done() {
+            List<UniEmitter<? super T>> waiting;
+            synchronized(this) {
+                if(this.completed || this.abandoned)
+                    return List.of();
+
+                this.completed = true;
+                waiting = new ArrayList<>(this.waiters);
+                this.waiters.clear();
+            }
+
+            inFlight.remove(this.key, this);
+            return waiting;
+        }
+    }
+
+
+    /***
+     * Constructor
+     * @param service The name of the service, used as tag of the coalesced calls counter.
+     */
+    public Coalescer(String service) {
+        this.service = service;
+    }
+
+    /**
+     * Share one upstream call between concurrent identical calls.
+     * The upstream call must only be bound by the budget of its operation, the wait of each caller
+     * is bound by the deadline of its API request (see {@link Deadline#bound(Uni)}).
+     * @param operation The name of the operation.
+     * @param auth The access token of the caller, calls are only shared between identical callers.
+     * @param args The arguments of the operation.
+     * @param upstream The upstream call to share.
+     * @return Uni that emits the result of the shared upstream call.
+     */
+    public <T> Uni<T> coalesce(String operation, String auth, String args, Uni<T> upstream) {
+
+        final String key = operation + "|" + TokenHash.of(auth) + "|" + args;
+
+        Uni<T> shared = Uni.createFrom().emitter(emitter -> {
+            final AtomicReference<SharedCall<T>> joined = new AtomicReference<>();
+            emitter.onTermination(() -> {
+                // Also when canceled, e.g. when the deadline of the caller passed
+                var call = joined.get();
+                if(null != call)
+                    call.leave(emitter);
+            });
+
+            boolean first = false;
+            while(null == joined.get()) {
+                var created = new SharedCall<T>(key);
+                @SuppressWarnings("unchecked")
+                var call = (SharedCall<T>)this.inFlight.computeIfAbsent(key, k -> created);
+                if(call.join(emitter)) {
+                    joined.set(call);
+                    first = (call == created);
+                }
+                else
+                    // Abandoned by all its callers, start another one
+                    this.inFlight.remove(key, call);
+            }
+
+            if(emitter.isCancelled())
+                // Canceled while joining
+                joined.get().leave(emitter);
+
+            if(first)
+                joined.get().start(upstream);
+            else {
+                // Joined a call already in progress
+                LOG.debugf("Coalesced %s call", operation);
+                Metrics.counter("proxy.transfer.coalesced", "service", this.service, "operation", operation).increment();
+            }
+        });
+
+        return Deadline.bound(shared);
+    }
+}
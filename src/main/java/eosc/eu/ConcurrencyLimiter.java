@@ -0,0 +1,346 @@
+package eosc.eu;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.tuples.Tuple2;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.WebApplicationException;
+
+import eosc.eu.TransfersConfig.ConcurrencyLimitConfig;
+
+
+/***
+ * Limits the calls in progress to a service, adapting the limit to how the service copes (AIMD).
+ * The limit grows by one for every limit calls that complete quickly, and shrinks by the backoff
+ * ratio when a call fails because of the service or takes longer than the latency threshold.
+ * Calls over the limit wait in a bounded queue, cheap calls ahead of expensive ones.
+ * When the queue is full, or a call waited too long, the call is shed (fails with
+ * TransferServiceException "serviceUnavailable", and a hint when to retry).
+ */
+public class ConcurrencyLimiter {
+
+    private static final Logger LOG = Logger.getLogger(ConcurrencyLimiter.class);
+    private static final double LATENCY_WEIGHT = 0.2; // Weight of the latest latency in the average
+
+    /***
+     * The priority classes of the calls, in the order they are let through
+     */
+    public enum Priority { STATUS, STORAGE, SUBMISSION }
+
+    private final String service;
+    private final ConcurrencyLimitConfig config;
+    private final Map<Priority, ArrayDeque<Waiter>> queues;  // Guarded by this
+    private final Map<Priority, Counter> rejected;
+
+    private volatile double limit;
+    private volatile int inFlight = 0;                      // Changed under this
+    private volatile int queued = 0;                        // Changed under this
+    private volatile double latency = 0;                    // milliseconds, average of recent calls
+
+
+    /***
+     * A call waiting for (or holding) a slot
+     */
+    private static class Waiter {
+        static final int QUEUED = 0, GRANTED = 1, RELEASED = 2, ABANDONED = 3;
+
+        final Priority priority;
+        final CompletableFuture<Void> admitted = new CompletableFuture<>();
+        final AtomicInteger state = new AtomicInteger(QUEUED);
+
+        Waiter(Priority priority) { this.priority = priority; }
+    }
+
+
+    /***
+     * Constructor, registers the limit, the calls in progress, the queued calls,
+     * and the shed calls as metrics
+     * @param service The name of the service, used as tag.
+     * @param config The configuration of the concurrency limit.
+     */
+    public ConcurrencyLimiter(String service, ConcurrencyLimitConfig config) {
+        this.service = service;
+        this.config = config;
+        this.limit = Math.max(minLimit(), Math.min(maxLimit(), config.initialLimit()));
+        this.queues = new EnumMap<>(Priority.class);
+        this.rejected = new EnumMap<>(Priority.class);
+
+        Gauge.builder("transfer.service.concurrency.limit", this, limiter -> Math.floor(limiter.limit))
+             .tag("service", service)
+             .description("Maximum number of calls in progress to the service")
+             .register(Metrics.globalRegistry);
+
+        Gauge.builder("transfer.service.concurrency.inflight", this, limiter -> limiter.inFlight)
+             .tag("service", service)
+             .description("Calls in progress to the service")
+             .register(Metrics.globalRegistry);
+
+        for(var priority : Priority.values()) {
+            final var queue = new ArrayDeque<Waiter>();
+            this.queues.put(priority, queue);
+
+            final String tag = priority.name().toLowerCase();
+            Gauge.builder("transfer.service.concurrency.queue", this, limiter -> limiter.queueSize(queue))
+                 .tag("service", service)
+                 .tag("priority", tag)
+                 .description("Calls waiting to be sent to the service")
+                 .register(Metrics.globalRegistry);
+
+            this.rejected.put(priority, Counter.builder("transfer.service.concurrency.rejected")
+                                               .tag("service", service)
+                                               .tag("priority", tag)
+                                               .description("Calls shed because the service was saturated")
+                                               .register(Metrics.globalRegistry));
+        }
+    }
+
+    /***
+     * Get the current limit of calls in progress.
+     */
+    public int getLimit() { return (int)this.limit; }
+
+    /***
+     * Call the service as soon as the limit allows it.
+     * @param priority The priority class of the call.
+     * @param call The call to the service.
+     * @return Result of the call, fails with TransferServiceException "serviceUnavailable" if the call was shed.
+     */
+    public <T> Uni<T> call(Priority priority, Uni<T> call) {
+        if(!this.config.enabled())
+            return call;
+
+        return Uni.createFrom().deferred(() -> {
+            final var waiter = enqueue(priority);
+            return admitted(waiter)
+                .chain(unused -> {
+                    final long start = System.nanoTime();
+                    return call
+                        .onItemOrFailure().invoke((item, e) -> release(waiter, System.nanoTime() - start, e));
+                })
+                .onTermination().invoke(() -> abandon(waiter));
+        });
+    }
+
+    /***
+     * Stream from the service as soon as the limit allows it.
+     * The stream holds its slot until it ends, but does not adapt the limit (as its duration
+     * depends on how much is streamed, not on how the service copes).
+     * @param priority The priority class of the stream.
+     * @param stream The stream from the service.
+     * @return The stream, fails with TransferServiceException "serviceUnavailable" if the stream was shed.
+     */
+    public <T> Multi<T> stream(Priority priority, Multi<T> stream) {
+        if(!this.config.enabled())
+            return stream;
+
+        return Multi.createFrom().deferred(() -> {
+            final var waiter = enqueue(priority);
+            return admitted(waiter)
+                .onItem().transformToMulti(unused -> stream)
+                .onTermination().invoke(() -> abandon(waiter));
+        });
+    }
+
+    /***
+     * Wait until a call is let through.
+     * @return Uni that completes when the call may proceed, or fails if it was shed.
+     */
+    private Uni<Void> admitted(Waiter waiter) {
+        return Uni.createFrom().completionStage(waiter.admitted)
+            .ifNoItem().after(Duration.ofMillis(Math.max(1, this.config.maxQueueWait())))
+                .failWith(() -> {
+                    LOG.debugf("Shedding %s call to %s, waited too long", waiter.priority, this.service);
+                    this.rejected.get(waiter.priority).increment();
+                    return shed();
+                });
+    }
+
+    /***
+     * Let a call through if the limit allows it, otherwise queue it.
+     * When the queue is full, the most recent call of the lowest priority class
+     * is shed to make room, or this call if there is none with lower priority.
+     * @return The waiter of the call, already admitted if the limit allowed it.
+     */
+    private Waiter enqueue(Priority priority) {
+        final var waiter = new Waiter(priority);
+        Waiter evicted = null;
+
+        synchronized(this) {
+            if(0 == this.queued && this.inFlight < (int)this.limit) {
+                // Proceed right away
+                waiter.state.set(Waiter.GRANTED);
+                this.inFlight++;
+            }
+            else {
+                if(this.queued >= Math.max(0, this.config.maxQueueSize())) {
+                    // Queue is full, make room if there is a call of lower priority
+                    for(int p = Priority.values().length - 1; p > priority.ordinal() && null == evicted; p--) {
+                        var queue = this.queues.get(Priority.values()[p]);
+                        while(!queue.isEmpty() && null == evicted) {
+                            var candidate = queue.pollLast();
+                            this.queued--;
+                            if(candidate.state.compareAndSet(Waiter.QUEUED, Waiter.ABANDONED))
+                                evicted = candidate;
+                        }
+                    }
+
+                    if(null == evicted) {
+                        // Shed this call
+                        waiter.state.set(Waiter.ABANDONED);
+                        evicted = waiter;
+                    }
+                }
+
+                if(evicted != waiter) {
+                    this.queues.get(priority).addLast(waiter);
+                    this.queued++;
+                }
+            }
+        }
+
+        if(Waiter.GRANTED == waiter.state.get())
+            waiter.admitted.complete(null);
+
+        if(null != evicted) {
+            LOG.debugf("Shedding %s call to %s, queue is full", evicted.priority, this.service);
+            this.rejected.get(evicted.priority).increment();
+            evicted.admitted.completeExceptionally(shed());
+        }
+
+        return waiter;
+    }
+
+    /***
+     * Give back the slot of a call that completed, adapting the limit to its outcome.
+     * @param nanos The duration of the call, negative if unknown.
+     * @param error The failure of the call, null on success.
+     */
+    private void release(Waiter waiter, long nanos, Throwable error) {
+        if(!waiter.state.compareAndSet(Waiter.GRANTED, Waiter.RELEASED))
+            return;
+
+        List<Waiter> admitted;
+        synchronized(this) {
+            this.inFlight--;
+            if(nanos >= 0 && !isIgnored(error))
+                adapt(TimeUnit.NANOSECONDS.toMillis(nanos), error);
+
+            admitted = drain();
+        }
+
+        for(var next : admitted)
+            next.admitted.complete(null);
+    }
+
+    /***
+     * Forget a call that ended without completing, e.g. it was canceled or shed.
+     * Gives back its slot if it had one, without adapting the limit.
+     */
+    private void abandon(Waiter waiter) {
+        if(waiter.state.compareAndSet(Waiter.QUEUED, Waiter.ABANDONED)) {
+            synchronized(this) {
+                if(this.queues.get(waiter.priority).remove(waiter))
+                    this.queued--;
+            }
+        }
+        else
+            release(waiter, -1, null);
+    }
+
+    /***
+     * Adapt the limit to the outcome of a call (additive increase, multiplicative decrease).
+     * Must be called under this.
+     */
+    private void adapt(long millis, Throwable error) {
+        this.latency = (this.latency <= 0) ? millis : LATENCY_WEIGHT * millis + (1 - LATENCY_WEIGHT) * this.latency;
+
+        if(isOverload(error) || millis > this.config.latencyThreshold()) {
+            double decreased = Math.max(minLimit(), this.limit * this.config.backoffRatio());
+            if((int)decreased < (int)this.limit)
+                LOG.debugf("Decreased concurrency limit of %s to %d", this.service, (int)decreased);
+
+            this.limit = decreased;
+        }
+        else if(2 * this.inFlight >= (int)this.limit) {
+            // Only grow the limit while it is being used
+            this.limit = Math.min(maxLimit(), this.limit + 1.0 / this.limit);
+        }
+    }
+
+    /***
+     * Let through as many queued calls as the limit allows, highest priority first.
+     * Must be called under this.
+     * @return The calls to resume (outside of the lock).
+     */
+    private List<Waiter> drain() {
+        var admitted = new ArrayList<Waiter>();
+        for(var priority : Priority.values()) {
+            var queue = this.queues.get(priority);
+            while(!queue.isEmpty() && this.inFlight < (int)this.limit) {
+                var next = queue.pollFirst();
+                this.queued--;
+                if(next.state.compareAndSet(Waiter.QUEUED, Waiter.GRANTED)) {
+                    this.inFlight++;
+                    admitted.add(next);
+                }
+            }
+        }
+
+        return admitted;
+    }
+
+    /***
+     * Get the number of calls waiting in a queue.
+     */
+    private synchronized int queueSize(ArrayDeque<Waiter> queue) { return queue.size(); }
+
+    /***
+     * Build the error for shed calls, with an estimate of when the queue will have room again.
+     */
+    private TransferServiceException shed() {
+        final double latency = Math.max(1, this.latency);
+        final long waitMillis = (long)Math.ceil(latency * (this.queued + 1) / Math.max(1, (int)this.limit));
+        return new TransferServiceException("serviceUnavailable", Tuple2.of("retryAfter",
+                                            String.valueOf(Math.max(1, TimeUnit.MILLISECONDS.toSeconds(waitMillis + 999)))));
+    }
+
+    private int minLimit() { return Math.max(1, this.config.minLimit()); }
+    private int maxLimit() { return Math.max(minLimit(), this.config.maxLimit()); }
+
+    /***
+     * Check if the service signaled it is overloaded.
+     * @param e The failure of a call, null on success.
+     * @return true if the call failed because of the service, or was throttled by it.
+     */
+    private static boolean isOverload(Throwable e) {
+        if(e instanceof WebApplicationException && 429 == ((WebApplicationException)e).getResponse().getStatus())
+            return true;
+
+        return OperationGuard.isFailure(e);
+    }
+
+    /***
+     * Check if the outcome of a call says nothing about the load of the service,
+     * e.g. the call failed fast because the circuit breaker is open, or was cut short by the client.
+     */
+    private static boolean isIgnored(Throwable e) {
+        if(!(e instanceof TransferServiceException))
+            return false;
+
+        var id = ((TransferServiceException)e).getId();
+        return "serviceUnavailable".equals(id) || "clientDisconnected".equals(id) || Deadline.DEADLINE_EXCEEDED.equals(id);
+    }
+}
@@ -1,5 +1,6 @@
 package eosc.eu;
 
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import io.smallrye.mutiny.tuples.Tuple2;
 import org.eclipse.microprofile.openapi.annotations.Operation;
@@ -14,21 +15,27 @@ import org.eclipse.microprofile.openapi.annotations.security.SecurityScheme;
 import org.eclipse.microprofile.openapi.annotations.security.SecuritySchemes;
 import org.jboss.logging.Logger;
 import org.jboss.resteasy.reactive.RestHeader;
+import org.jboss.resteasy.reactive.RestMediaType;
+import org.jboss.resteasy.reactive.RestStreamElementType;
 
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.inject.Inject;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
+import eosc.eu.FolderListingSnapshots.ListingOptions;
 import eosc.eu.model.*;
 import org.jboss.resteasy.reactive.RestQuery;
 
 
 /***
  * Class for operations and queries about files and folders.
- * Dynamically selects the appropriate data transfer service, depending on the desired destination.
+ * Selects the appropriate data transfer service, depending on the desired destination.
  */
 @Path("/")
 @SecuritySchemes(value = {
@@ -42,6 +49,18 @@ public class DataStorage extends DataTransferBase {
     @Inject
     TransfersConfig config;
 
+    @Inject
+    StorageTreeWalker treeWalker;
+
+    @Inject
+    FolderListingSnapshots listingSnapshots;
+
+    @Inject
+    StorageCache storageCache;
+
+    @Inject
+    StorageBulkOperations bulkOperations;
+
     private static final Logger LOG = Logger.getLogger(DataStorage.class);
 
 
@@ -84,10 +103,10 @@ public class DataStorage extends DataTransferBase {
         Uni<Response> result = Uni.createFrom().nullItem()
 
             .chain(unused -> {
-                // Pick transfer service and create REST client for it
+                // Pick transfer service
                 var params = new ActionParameters(destination);
                 if (!getTransferService(params)) {
-                    // Could not get REST client
+                    // No transfer service for this destination
                     return Uni.createFrom().failure(new TransferServiceException("invalidServiceConfig"));
                 }
 
@@ -118,7 +137,9 @@ public class DataStorage extends DataTransferBase {
     @GET
     @Path("/storage/folder/list")
     @SecurityRequirement(name = "bearer")
-    @Operation(operationId = "listFolderContent",  summary = "List the content of a folder from a storage system")
+    @Operation(operationId = "listFolderContent",  summary = "List the content of a folder from a storage system",
+               description = "When paginating, sorting, or filtering, the first call takes a short-lived snapshot of the folder content. " +
+                             "The next pages are read from this snapshot, by passing the _nextCursor_ of the previous page.")
     @APIResponses(value = {
             @APIResponse(responseCode = "200", description = "Success",
                     content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = StorageContent.class))),
@@ -130,6 +151,8 @@ public class DataStorage extends DataTransferBase {
                     content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class))),
             @APIResponse(responseCode = "404", description="Storage element not found",
                     content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "410", description="Paginated listing expired",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class))),
             @APIResponse(responseCode = "419", description="Re-delegate credentials",
                     content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class))),
             @APIResponse(responseCode = "503", description="Try again later",
@@ -138,32 +161,83 @@ public class DataStorage extends DataTransferBase {
     public Uni<Response> listFolderContent(@RestHeader("Authorization") String auth,
                             @RestQuery("folderUrl") @Parameter(required = true, description = "URL to the storage element (folder) to list content of")
                             String folderUrl,
+                            @RestQuery("pageSize") @DefaultValue("0") @Parameter(description = "Maximum number of elements to return, 0 returns all")
+                            int pageSize,
+                            @RestQuery("cursor") @Parameter(description = "Cursor to the next page, from the previous page. When used, the sorting and filters of the first page apply")
+                            String cursor,
+                            @RestQuery("sort") @Parameter(description = "Sort by 'name', 'size' or 'modified', prefix with '-' for descending order")
+                            String sort,
+                            @RestQuery("prefix") @Parameter(description = "Only return elements with names starting with this prefix")
+                            String prefix,
+                            @RestQuery("minSize") @Parameter(description = "Only return elements of at least this size")
+                            Long minSize,
+                            @RestQuery("maxSize") @Parameter(description = "Only return elements of at most this size")
+                            Long maxSize,
+                            @RestQuery("modifiedAfter") @Parameter(description = "Only return elements modified after this time (ISO 8601)")
+                            String modifiedAfter,
+                            @RestQuery("modifiedBefore") @Parameter(description = "Only return elements modified before this time (ISO 8601)")
+                            String modifiedBefore,
                             @RestQuery("dest") @DefaultValue(defaultDestination)
                             @Parameter(schema = @Schema(implementation = Destination.class), description = "The destination storage")
                             String destination) {
 
+        // Collect filters and sorting
+        var options = new ListingOptions();
+        options.sort = (null != sort && !sort.isEmpty()) ? sort : null;
+        options.prefix = (null != prefix && !prefix.isEmpty()) ? prefix : null;
+        options.minSize = minSize;
+        options.maxSize = maxSize;
+        try {
+            options.modifiedAfter = (null != modifiedAfter && !modifiedAfter.isEmpty()) ? Instant.parse(modifiedAfter).toEpochMilli() : null;
+            options.modifiedBefore = (null != modifiedBefore && !modifiedBefore.isEmpty()) ? Instant.parse(modifiedBefore).toEpochMilli() : null;
+        }
+        catch(DateTimeParseException e) {
+            return Uni.createFrom().item(new ActionError("invalidListingParameters", "Times must be in ISO 8601 format",
+                                               Tuple2.of("destination", destination) )
+                                                    .setStatus(Status.BAD_REQUEST)
+                                                    .toResponse());
+        }
+
+        if(pageSize < 0 || !FolderListingSnapshots.isValidSort(options.sort))
+            return Uni.createFrom().item(new ActionError("invalidListingParameters",
+                                               Tuple2.of("destination", destination) )
+                                                    .setStatus(Status.BAD_REQUEST)
+                                                    .toResponse());
+
+        if(null != cursor && !cursor.isEmpty())
+            // Continue paginated listing
+            return listFolderContentPage(auth, folderUrl, cursor, pageSize, destination);
+
+        final boolean paginated = pageSize > 0 || !options.isEmpty();
+
         LOG.infof("List content of folder %s", folderUrl);
 
         Uni<Response> result = Uni.createFrom().nullItem()
 
             .chain(unused -> {
-                // Pick transfer service and create REST client for it
-                var params = new ActionParameters(destination);
+                // Pick transfer service
+                var params = new ActionParameters(destination, folderUrl);
                 if (!getTransferService(params)) {
-                    // Could not get REST client
+                    // No transfer service for this destination
                     return Uni.createFrom().failure(new TransferServiceException("invalidServiceConfig"));
                 }
 
                 return Uni.createFrom().item(params);
             })
             .chain(params -> {
-                // List folder content
-                return params.ts.listFolderContent(auth, folderUrl);
+                // List folder content (cached)
+                return storageCache.listFolderContent(params.destination, params.ts, auth, folderUrl);
             })
             .chain(content -> {
                 // Got folder content
                 LOG.infof("Found %d element(s) in folder %s", content.count, folderUrl);
 
+                if(paginated) {
+                    // Keep snapshot of the (filtered and sorted) content, return first page
+                    var snapshot = listingSnapshots.create(auth, destination, folderUrl, content, options);
+                    content = listingSnapshots.page(snapshot, 0, pageSize);
+                }
+
                 // Success
                 return Uni.createFrom().item(Response.ok(content).build());
             })
@@ -177,6 +251,194 @@ public class DataStorage extends DataTransferBase {
         return result;
     }
 
+    /**
+     * Get the next page of a paginated folder listing.
+     * Served from the snapshot of the folder taken when the first page was requested.
+     * @param auth The access token needed to call the service, must be the one used for the first page.
+     * @param folderUrl The link to the folder to list content of.
+     * @param cursor The cursor returned with the previous page.
+     * @param pageSize Maximum number of elements to return, 0 returns all remaining elements.
+     * @return API Response, wraps an ActionSuccess(StorageContent) or an ActionError entity
+     */
+    private Uni<Response> listFolderContentPage(String auth, String folderUrl, String cursor, int pageSize, String destination) {
+
+        var position = FolderListingSnapshots.decodeCursor(cursor);
+        if(null == position)
+            return Uni.createFrom().item(new ActionError("invalidCursor", Arrays.asList(
+                                               Tuple2.of("folderUrl", folderUrl),
+                                               Tuple2.of("destination", destination)) )
+                                                    .setStatus(Status.BAD_REQUEST)
+                                                    .toResponse());
+
+        var snapshot = listingSnapshots.get(auth, position.snapshotId);
+        if(null == snapshot) {
+            LOG.infof("Listing of folder %s expired", folderUrl);
+            return Uni.createFrom().item(new ActionError("cursorExpired", "Listing expired, request the first page again",
+                                               Arrays.asList(
+                                                   Tuple2.of("folderUrl", folderUrl),
+                                                   Tuple2.of("destination", destination)) )
+                                                    .setStatus(Status.GONE)
+                                                    .toResponse());
+        }
+
+        if(!snapshot.isOf(destination, folderUrl)) {
+            // Cursor was issued for another listing
+            LOG.infof("Cursor is not for folder %s", folderUrl);
+            return Uni.createFrom().item(new ActionError("invalidCursor", "Cursor was issued for another folder or destination",
+                                               Arrays.asList(
+                                                   Tuple2.of("folderUrl", folderUrl),
+                                                   Tuple2.of("destination", destination)) )
+                                                    .setStatus(Status.BAD_REQUEST)
+                                                    .toResponse());
+        }
+
+        var content = listingSnapshots.page(snapshot, position.offset, pageSize);
+
+        LOG.infof("Returning %d element(s) from offset %d in listing of folder %s", content.count, position.offset, folderUrl);
+
+        return Uni.createFrom().item(Response.ok(content).build());
+    }
+
+    /**
+     * List the content of a folder and of its sub-folders.
+     * @param auth The access token needed to call the service.
+     * @param folderUrl The link to the folder to list content of.
+     * @param depth How many levels of sub-folders to list.
+     * @return API Response, wraps an ActionSuccess(StorageContent) or an ActionError entity
+     */
+    @GET
+    @Path("/storage/folder/tree")
+    @SecurityRequirement(name = "bearer")
+    @Operation(operationId = "listFolderTree",  summary = "List the content of a folder and of its sub-folders from a storage system",
+               description = "Sub-folders are listed in parallel. The number of returned elements is limited, if the tree " +
+                             "has more elements the error _tooManyEntries_ is returned.")
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "Success",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = StorageContent.class))),
+            @APIResponse(responseCode = "400", description="Invalid parameters/configuration or the storage element is not a folder",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "401", description="Not authorized",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "403", description="Permission denied",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "404", description="Storage element not found",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "419", description="Re-delegate credentials",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "503", description="Try again later",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class)))
+    })
+    public Uni<Response> listFolderTree(@RestHeader("Authorization") String auth,
+                            @RestQuery("folderUrl") @Parameter(required = true, description = "URL to the storage element (folder) to list content of")
+                            String folderUrl,
+                            @RestQuery("depth") @DefaultValue("2") @Parameter(description = "How many levels to list, 1 only lists the folder itself")
+                            int depth,
+                            @RestQuery("dest") @DefaultValue(defaultDestination)
+                            @Parameter(schema = @Schema(implementation = Destination.class), description = "The destination storage")
+                            String destination) {
+
+        LOG.infof("List content of folder tree %s (depth = %d)", folderUrl, depth);
+
+        Uni<Response> result = Uni.createFrom().nullItem()
+
+            .chain(unused -> {
+                // Pick transfer service
+                var params = new ActionParameters(destination, folderUrl);
+                if (!getTransferService(params)) {
+                    // No transfer service for this destination
+                    return Uni.createFrom().failure(new TransferServiceException("invalidServiceConfig"));
+                }
+
+                return Uni.createFrom().item(params);
+            })
+            .chain(params -> {
+                // Walk folder tree
+                return treeWalker.walk(params.ts, auth, folderUrl, depth)
+                    .collect().in(StorageContent::new, (content, se) -> {
+                        content.elements.add(se);
+                        content.count++;
+                    });
+            })
+            .chain(content -> {
+                // Got folder tree content
+                LOG.infof("Found %d element(s) in folder tree %s", content.count, folderUrl);
+
+                // Success
+                return Uni.createFrom().item(Response.ok(content).build());
+            })
+            .onFailure().recoverWithItem(e -> {
+                LOG.errorf("Failed to list content of folder tree %s", folderUrl);
+                return new ActionError(e, Arrays.asList(
+                             Tuple2.of("folderUrl", folderUrl),
+                             Tuple2.of("destination", destination)) ).toResponse();
+            });
+
+        return result;
+    }
+
+    /**
+     * List the content of a folder and of its sub-folders, streaming the elements as newline delimited JSON.
+     * Selected by requesting content type "application/x-ndjson", takes the same parameters as listFolderTree().
+     * @return Stream of StorageElement entities, one per line. On failure, the last line is an ActionError entity.
+     */
+    @GET
+    @Path("/storage/folder/tree")
+    @SecurityRequirement(name = "bearer")
+    @Operation(operationId = "streamFolderTree",  summary = "List the content of a folder and of its sub-folders, as a stream",
+               description = "Each element is returned as a separate line, as soon as the folder it is in has been listed.\n" +
+                             "If listing any of the folders fails, the last line is the error.")
+    @Produces(RestMediaType.APPLICATION_NDJSON)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "Success",
+                    content = @Content(mediaType = RestMediaType.APPLICATION_NDJSON, schema = @Schema(implementation = StorageElement.class)))
+    })
+    public Multi<Object> streamFolderTree(@RestHeader("Authorization") String auth,
+                            @RestQuery("folderUrl") @Parameter(required = true, description = "URL to the storage element (folder) to list content of")
+                            String folderUrl,
+                            @RestQuery("depth") @DefaultValue("2") @Parameter(description = "How many levels to list, 1 only lists the folder itself")
+                            int depth,
+                            @RestQuery("dest") @DefaultValue(defaultDestination)
+                            @Parameter(schema = @Schema(implementation = Destination.class), description = "The destination storage")
+                            String destination) {
+
+        LOG.infof("Stream content of folder tree %s (depth = %d)", folderUrl, depth);
+
+        AtomicInteger count = new AtomicInteger(0);
+        Multi<Object> result = Uni.createFrom().nullItem()
+
+            .chain(unused -> {
+                // Pick transfer service
+                var params = new ActionParameters(destination, folderUrl);
+                if (!getTransferService(params)) {
+                    // No transfer service for this destination
+                    return Uni.createFrom().failure(new TransferServiceException("invalidServiceConfig"));
+                }
+
+                return Uni.createFrom().item(params);
+            })
+            .onItem().transformToMulti(params -> {
+                // Walk folder tree
+                return treeWalker.walk(params.ts, auth, folderUrl, depth);
+            })
+            .onItem().transform(se -> {
+                // Found storage element
+                count.incrementAndGet();
+                return (Object)se;
+            })
+            .onCompletion().invoke(() -> {
+                LOG.infof("Found %d element(s) in folder tree %s", count.get(), folderUrl);
+            })
+            .onFailure().recoverWithItem(e -> {
+                LOG.errorf("Failed to list content of folder tree %s, after streaming %d element(s)", folderUrl, count.get());
+                return new ActionError(e, Arrays.asList(
+                             Tuple2.of("folderUrl", folderUrl),
+                             Tuple2.of("destination", destination)) );
+            });
+
+        return result;
+    }
+
     /**
      * Get the details of a file.
      * @param auth The access token needed to call the service.
@@ -215,18 +477,18 @@ public class DataStorage extends DataTransferBase {
         Uni<Response> result = Uni.createFrom().nullItem()
 
             .chain(unused -> {
-                // Pick transfer service and create REST client for it
-                var params = new ActionParameters(destination);
+                // Pick transfer service
+                var params = new ActionParameters(destination, seUrl);
                 if (!getTransferService(params)) {
-                    // Could not get REST client
+                    // No transfer service for this destination
                     return Uni.createFrom().failure(new TransferServiceException("invalidServiceConfig"));
                 }
 
                 return Uni.createFrom().item(params);
             })
             .chain(params -> {
-                // Get storage element info
-                return params.ts.getStorageElementInfo(auth, seUrl);
+                // Get storage element info (cached)
+                return storageCache.getStorageElementInfo(params.destination, params.ts, auth, seUrl);
             })
             .chain(seinfo -> {
                 // Got storage element info
@@ -316,10 +578,10 @@ public class DataStorage extends DataTransferBase {
         Uni<Response> result = Uni.createFrom().nullItem()
 
             .chain(unused -> {
-                // Pick transfer service and create REST client for it
-                var params = new ActionParameters(destination);
+                // Pick transfer service
+                var params = new ActionParameters(destination, seUrl);
                 if (!getTransferService(params)) {
-                    // Could not get REST client
+                    // No transfer service for this destination
                     return Uni.createFrom().failure(new TransferServiceException("invalidServiceConfig"));
                 }
 
@@ -327,7 +589,7 @@ public class DataStorage extends DataTransferBase {
             })
             .chain(params -> {
                 // Create folder
-                return params.ts.createFolder(auth, seUrl);
+                return storageCache.createFolder(params.destination, params.ts, auth, seUrl);
             })
             .chain(created -> {
                 // Folder got created
@@ -348,16 +610,24 @@ public class DataStorage extends DataTransferBase {
 
     /**
      * Delete existing folder.
+     * When deleting recursively, the folder tree is listed first, then all files are deleted
+     * in parallel, then all folders bottom-up. A dry run only reports what would be deleted.
      * @param auth The access token needed to call the service.
      * @param seUrl The link to the folder to delete.
-     * @return API Response, wraps an ActionError entity in case of error
+     * @param recursive Whether to also delete all the content of the folder.
+     * @param dryRun Only report what a recursive delete would delete, without deleting anything.
+     * @return API Response, wraps a StorageDeleteReport entity (when recursive or dry run) or an ActionError entity in case of error
      */
     @DELETE
     @Path("/storage/folder")
     @SecurityRequirement(name = "bearer")
-    @Operation(operationId = "deleteFolder",  summary = "Delete existing folder from a storage system")
+    @Operation(operationId = "deleteFolder",  summary = "Delete existing folder from a storage system",
+               description = "Without _recursive_ the folder must be empty. With _recursive_ all its content is deleted too, " +
+                             "and a report with the outcome is returned. Failing to delete some of the content is not an error, " +
+                             "the report lists the storage elements that could not be deleted.")
     @APIResponses(value = {
-            @APIResponse(responseCode = "200", description = "Success"),
+            @APIResponse(responseCode = "200", description = "Success",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = StorageDeleteReport.class))),
             @APIResponse(responseCode = "400", description="Invalid parameters/configuration or storage element is not a folder",
                     content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class))),
             @APIResponse(responseCode = "401", description="Not authorized",
@@ -374,19 +644,26 @@ public class DataStorage extends DataTransferBase {
     public Uni<Response> deleteFolder(@RestHeader("Authorization") String auth,
                              @RestQuery("seUrl") @Parameter(required = true, description = "URL to the storage element (folder) to delete")
                              String seUrl,
+                             @RestQuery("recursive") @DefaultValue("false") @Parameter(description = "Also delete all files and sub-folders")
+                             boolean recursive,
+                             @RestQuery("dryRun") @DefaultValue("false") @Parameter(description = "Only report what a recursive delete would delete")
+                             boolean dryRun,
                              @RestQuery("dest") @DefaultValue(defaultDestination)
                              @Parameter(schema = @Schema(implementation = Destination.class), description = "The destination storage")
                              String destination) {
 
+        if(recursive || dryRun)
+            return deleteFolderTree(auth, seUrl, dryRun, destination);
+
         LOG.infof("Delete folder %s", seUrl);
 
         Uni<Response> result = Uni.createFrom().nullItem()
 
             .chain(unused -> {
-                // Pick transfer service and create REST client for it
-                var params = new ActionParameters(destination);
+                // Pick transfer service
+                var params = new ActionParameters(destination, seUrl);
                 if (!getTransferService(params)) {
-                    // Could not get REST client
+                    // No transfer service for this destination
                     return Uni.createFrom().failure(new TransferServiceException("invalidServiceConfig"));
                 }
 
@@ -394,7 +671,7 @@ public class DataStorage extends DataTransferBase {
             })
             .chain(params -> {
                 // Delete folder
-                return params.ts.deleteFolder(auth, seUrl);
+                return storageCache.deleteFolder(params.destination, params.ts, auth, seUrl);
             })
             .chain(deleted -> {
                 // Folder got deleted
@@ -413,6 +690,128 @@ public class DataStorage extends DataTransferBase {
         return result;
     }
 
+    /**
+     * Delete existing folder with all its content, or only report what would be deleted.
+     * @return API Response, wraps a StorageDeleteReport or an ActionError entity
+     */
+    private Uni<Response> deleteFolderTree(String auth, String seUrl, boolean dryRun, String destination) {
+
+        LOG.infof(dryRun ? "Plan deleting folder tree %s" : "Delete folder tree %s", seUrl);
+
+        Uni<Response> result = Uni.createFrom().nullItem()
+
+            .chain(unused -> {
+                // Pick transfer service
+                var params = new ActionParameters(destination, seUrl);
+                if (!getTransferService(params)) {
+                    // No transfer service for this destination
+                    return Uni.createFrom().failure(new TransferServiceException("invalidServiceConfig"));
+                }
+
+                return Uni.createFrom().item(params);
+            })
+            .chain(params -> {
+                // List folder tree
+                return bulkOperations.planDeleteTree(params.ts, auth, seUrl, dryRun)
+                    .chain(plan -> {
+                        // Got everything to delete
+                        LOG.infof("Folder tree %s has %d files (%d bytes) and %d folders", seUrl, plan.files, plan.bytes, plan.folders);
+                        if(dryRun)
+                            return Uni.createFrom().item(plan);
+
+                        return bulkOperations.deleteTree(params.destination, params.ts, auth, plan)
+                            .collect().last()
+                            .replaceWith(plan);
+                    });
+            })
+            .chain(report -> {
+                // Folder tree got deleted
+                if(!dryRun)
+                    LOG.infof("Deleted %d files and %d folders of folder tree %s, %d failed",
+                              report.deletedFiles, report.deletedFolders, seUrl, report.failed);
+
+                // Success
+                return Uni.createFrom().item(Response.ok(report).build());
+            })
+            .onFailure().recoverWithItem(e -> {
+                LOG.errorf("Failed to delete folder tree %s", seUrl);
+                return new ActionError(e, Arrays.asList(
+                             Tuple2.of("seUrl", seUrl),
+                             Tuple2.of("destination", destination)) ).toResponse();
+            });
+
+        return result;
+    }
+
+    /**
+     * Delete existing folder, streaming the progress as newline delimited JSON.
+     * Selected by requesting content type "application/x-ndjson", takes the same parameters as deleteFolder().
+     * @return Stream of StorageOperationResult entities, one per deleted storage element, followed by
+     *         a StorageDeleteReport entity. On failure, the last line is an ActionError entity.
+     */
+    @DELETE
+    @Path("/storage/folder")
+    @SecurityRequirement(name = "bearer")
+    @Operation(operationId = "streamDeleteFolder",  summary = "Delete existing folder from a storage system, as a stream",
+               description = "The outcome of each deletion is returned as a separate line, as soon as it is done. " +
+                             "The last line is a report with the totals.")
+    @Produces(RestMediaType.APPLICATION_NDJSON)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "Success",
+                    content = @Content(mediaType = RestMediaType.APPLICATION_NDJSON, schema = @Schema(implementation = StorageOperationResult.class)))
+    })
+    public Multi<Object> streamDeleteFolder(@RestHeader("Authorization") String auth,
+                             @RestQuery("seUrl") @Parameter(required = true, description = "URL to the storage element (folder) to delete")
+                             String seUrl,
+                             @RestQuery("recursive") @DefaultValue("false") @Parameter(description = "Also delete all files and sub-folders")
+                             boolean recursive,
+                             @RestQuery("dryRun") @DefaultValue("false") @Parameter(description = "Only report what a recursive delete would delete")
+                             boolean dryRun,
+                             @RestQuery("dest") @DefaultValue(defaultDestination)
+                             @Parameter(schema = @Schema(implementation = Destination.class), description = "The destination storage")
+                             String destination) {
+
+        LOG.infof("Delete folder %s, streaming progress", seUrl);
+
+        Multi<Object> result = Uni.createFrom().nullItem()
+
+            .chain(unused -> {
+                // Pick transfer service
+                var params = new ActionParameters(destination, seUrl);
+                if (!getTransferService(params)) {
+                    // No transfer service for this destination
+                    return Uni.createFrom().failure(new TransferServiceException("invalidServiceConfig"));
+                }
+
+                return Uni.createFrom().item(params);
+            })
+            .onItem().transformToMulti(params -> {
+                // When not recursive, only the folder itself gets deleted
+                var plan = (recursive || dryRun) ?
+                                bulkOperations.planDeleteTree(params.ts, auth, seUrl, dryRun) :
+                                Uni.createFrom().item(new StorageDeleteReport(seUrl, false));
+
+                return plan.onItem().transformToMulti(report -> {
+                    // Got everything to delete
+                    if(dryRun)
+                        return Multi.createFrom().<Object>item(report);
+
+                    return Multi.createBy().concatenating().streams(
+                        bulkOperations.deleteTree(params.destination, params.ts, auth, report).onItem().castTo(Object.class),
+                        Multi.createFrom().deferred(() -> Multi.createFrom().<Object>item(report)) );
+                });
+            })
+            .onFailure().recoverWithItem(e -> {
+                LOG.errorf("Failed to delete folder %s", seUrl);
+                return new ActionError(e, Arrays.asList(
+                             Tuple2.of("seUrl", seUrl),
+                             Tuple2.of("destination", destination)) );
+            });
+
+        return result;
+    }
+
     /**
      * Delete existing file.
      * @param auth The access token needed to call the service.
@@ -450,10 +849,10 @@ public class DataStorage extends DataTransferBase {
         Uni<Response> result = Uni.createFrom().nullItem()
 
             .chain(unused -> {
-                // Pick transfer service and create REST client for it
-                var params = new ActionParameters(destination);
+                // Pick transfer service
+                var params = new ActionParameters(destination, seUrl);
                 if (!getTransferService(params)) {
-                    // Could not get REST client
+                    // No transfer service for this destination
                     return Uni.createFrom().failure(new TransferServiceException("invalidServiceConfig"));
                 }
 
@@ -461,7 +860,7 @@ public class DataStorage extends DataTransferBase {
             })
             .chain(params -> {
                 // Delete file
-                return params.ts.deleteFile(auth, seUrl);
+                return storageCache.deleteFile(params.destination, params.ts, auth, seUrl);
             })
             .chain(deleted -> {
                 // File got deleted
@@ -522,10 +921,10 @@ public class DataStorage extends DataTransferBase {
         Uni<Response> result = Uni.createFrom().nullItem()
 
             .chain(unused -> {
-                // Pick transfer service and create REST client for it
-                var params = new ActionParameters(destination);
+                // Pick transfer service
+                var params = new ActionParameters(destination, operation.seUrlOld);
                 if (!getTransferService(params)) {
-                    // Could not get REST client
+                    // No transfer service for this destination
                     return Uni.createFrom().failure(new TransferServiceException("invalidServiceConfig"));
                 }
 
@@ -533,7 +932,7 @@ public class DataStorage extends DataTransferBase {
             })
             .chain(params -> {
                 // Rename storage element
-                return params.ts.renameStorageElement(auth, operation.seUrlOld, operation.seUrlNew);
+                return storageCache.renameStorageElement(params.destination, params.ts, auth, operation.seUrlOld, operation.seUrlNew);
             })
             .chain(renamed -> {
                 // Storage element got renamed
@@ -588,4 +987,164 @@ public class DataStorage extends DataTransferBase {
         return renameFile(auth, operation, destination);
     }
 
+    /**
+     * Perform multiple file and folder operations.
+     * @param auth The access token needed to call the service.
+     * @param operations The operations to perform.
+     * @return API Response, wraps an ActionSuccess(StorageBulkResult) or an ActionError entity
+     */
+    @POST
+    @Path("/storage/bulk")
+    @SecurityRequirement(name = "bearer")
+    @Operation(operationId = "bulkOperation",  summary = "Perform multiple file and folder operations in a storage system",
+               description = "Operations run in parallel, in this order: create folders, rename, delete files, delete folders.\n" +
+                             "The outcome of each operation is returned separately.")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "Success",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = StorageBulkResult.class))),
+            @APIResponse(responseCode = "400", description="Invalid parameters or configuration",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class)))
+    })
+    public Uni<Response> bulkOperation(@RestHeader("Authorization") String auth, StorageBulkOperation operations,
+                            @RestQuery("dest") @DefaultValue(defaultDestination)
+                            @Parameter(schema = @Schema(implementation = Destination.class), description = "The destination storage")
+                            String destination) {
+
+        var error = checkBulkOperation(operations, destination);
+        if(null != error)
+            return Uni.createFrom().item(error.toResponse());
+
+        LOG.infof("Perform %d storage operations", operations.count());
+
+        Uni<Response> result = Uni.createFrom().nullItem()
+
+            .chain(unused -> {
+                // Pick transfer service, all storage elements route to the same destination
+                var urls = operations.storageElements();
+                var params = new ActionParameters(destination, urls.isEmpty() ? null : urls.get(0));
+                if (!getTransferService(params)) {
+                    // No transfer service for this destination
+                    return Uni.createFrom().failure(new TransferServiceException("invalidServiceConfig"));
+                }
+
+                return Uni.createFrom().item(params);
+            })
+            .chain(params -> {
+                // Perform operations
+                return bulkOperations.execute(params.destination, params.ts, auth, operations)
+                    .collect().in(StorageBulkResult::new, StorageBulkResult::add);
+            })
+            .chain(bulkResult -> {
+                // Operations done
+                LOG.infof("Performed %d storage operations, %d failed", bulkResult.count, bulkResult.failed);
+
+                // Success
+                return Uni.createFrom().item(Response.ok(bulkResult).build());
+            })
+            .onFailure().recoverWithItem(e -> {
+                LOG.error("Failed to perform storage operations");
+                return new ActionError(e, Tuple2.of("destination", destination)).toResponse();
+            });
+
+        return result;
+    }
+
+    /**
+     * Perform multiple file and folder operations, streaming the outcomes as newline delimited JSON.
+     * Selected by requesting content type "application/x-ndjson", takes the same parameters as bulkOperation().
+     * @return Stream of StorageOperationResult entities, one per line. On failure, the last line is an ActionError entity.
+     */
+    @POST
+    @Path("/storage/bulk")
+    @SecurityRequirement(name = "bearer")
+    @Operation(operationId = "streamBulkOperation",  summary = "Perform multiple file and folder operations in a storage system, as a stream",
+               description = "The outcome of each operation is returned as a separate line, as soon as it is done.")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(RestMediaType.APPLICATION_NDJSON)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "Success",
+                    content = @Content(mediaType = RestMediaType.APPLICATION_NDJSON, schema = @Schema(implementation = StorageOperationResult.class)))
+    })
+    public Multi<Object> streamBulkOperation(@RestHeader("Authorization") String auth, StorageBulkOperation operations,
+                            @RestQuery("dest") @DefaultValue(defaultDestination)
+                            @Parameter(schema = @Schema(implementation = Destination.class), description = "The destination storage")
+                            String destination) {
+
+        var error = checkBulkOperation(operations, destination);
+        if(null != error)
+            return Multi.createFrom().<Object>item(error);
+
+        LOG.infof("Perform %d storage operations, streaming outcomes", operations.count());
+
+        AtomicInteger failed = new AtomicInteger(0);
+        Multi<Object> result = Uni.createFrom().nullItem()
+
+            .chain(unused -> {
+                // Pick transfer service, all storage elements route to the same destination
+                var urls = operations.storageElements();
+                var params = new ActionParameters(destination, urls.isEmpty() ? null : urls.get(0));
+                if (!getTransferService(params)) {
+                    // No transfer service for this destination
+                    return Uni.createFrom().failure(new TransferServiceException("invalidServiceConfig"));
+                }
+
+                return Uni.createFrom().item(params);
+            })
+            .onItem().transformToMulti(params -> {
+                // Perform operations
+                return bulkOperations.execute(params.destination, params.ts, auth, operations);
+            })
+            .onItem().transform(opResult -> {
+                // Operation done
+                if(!opResult.success)
+                    failed.incrementAndGet();
+
+                return (Object)opResult;
+            })
+            .onCompletion().invoke(() -> {
+                LOG.infof("Performed %d storage operations, %d failed", operations.count(), failed.get());
+            })
+            .onFailure().recoverWithItem(e -> {
+                LOG.error("Failed to perform storage operations");
+                return new ActionError(e, Tuple2.of("destination", destination));
+            });
+
+        return result;
+    }
+
+    /**
+     * Validate bulk request.
+     * @return Error to return, null if the request is valid.
+     */
+    private ActionError checkBulkOperation(StorageBulkOperation operations, String destination) {
+
+        if(null == operations || 0 == operations.count())
+            return new ActionError("missingOperationParameters", Tuple2.of("destination", destination))
+                            .setStatus(Status.BAD_REQUEST);
+
+        final int maxOperations = config.storage().bulk().maxOperations();
+        if(operations.count() > maxOperations)
+            return new ActionError("tooManyOperations", Arrays.asList(
+                                      Tuple2.of("maxOperations", String.valueOf(maxOperations)),
+                                      Tuple2.of("destination", destination)) )
+                            .setStatus(Status.BAD_REQUEST);
+
+        // Operations are performed by a single transfer service, which must own all storage elements
+        String routed = null;
+        for(var url : operations.storageElements()) {
+            var route = transferServices.route(url);
+            var urlDestination = (null != route) ? route.getItem1() : destination;
+            if(null == routed)
+                routed = urlDestination;
+            else if(!routed.equals(urlDestination))
+                return new ActionError("multipleDestinations", Arrays.asList(
+                                          Tuple2.of("seUrl", url),
+                                          Tuple2.of("destination", destination)) )
+                                .setStatus(Status.BAD_REQUEST);
+        }
+
+        return null;
+    }
 }
@@ -1,5 +1,6 @@
 package eosc.eu;
 
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import io.smallrye.mutiny.tuples.Tuple2;
 import org.eclipse.microprofile.openapi.annotations.Operation;
@@ -14,22 +15,32 @@ import org.eclipse.microprofile.openapi.annotations.security.SecurityScheme;
 import org.eclipse.microprofile.openapi.annotations.security.SecuritySchemes;
 import org.jboss.logging.Logger;
 import org.jboss.resteasy.reactive.RestHeader;
+import org.jboss.resteasy.reactive.RestMediaType;
 import org.jboss.resteasy.reactive.RestQuery;
+import org.jboss.resteasy.reactive.RestStreamElementType;
 
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.inject.Inject;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
 
 import eosc.eu.model.*;
 
 
 /***
  * Class for data transfer operations and queries.
- * Dynamically selects the appropriate data transfer service, depending on the desired destination.
+ * Selects the appropriate data transfer service, depending on the desired destination.
  */
 @Path("/")
 @SecuritySchemes(value = {
@@ -43,6 +54,18 @@ public class DataTransfer extends DataTransferBase {
     @Inject
     TransfersConfig config;
 
+    @Inject
+    TransferInfoCache transferInfoCache;
+
+    @Inject
+    TransferProgressPoller progressPoller;
+
+    @Inject
+    ParserRegistry parsers;
+
+    @Inject
+    DoiCache doiCache;
+
     private static final Logger LOG = Logger.getLogger(DataTransfer.class);
 
 
@@ -86,10 +109,10 @@ public class DataTransfer extends DataTransferBase {
         Uni<Response> result = Uni.createFrom().nullItem()
 
             .chain(unused -> {
-                // Pick transfer service and create REST client for it
-                var params = new ActionParameters(destination);
+                // Pick transfer service
+                var params = new ActionParameters(destination, null != transfer ? transfer.firstDestination() : null);
                 if (!getTransferService(params)) {
-                    // Could not get REST client
+                    // No transfer service for this destination
                     return Uni.createFrom().failure(new TransferServiceException("invalidServiceConfig"));
                 }
 
@@ -97,7 +120,8 @@ public class DataTransfer extends DataTransferBase {
             })
             .chain(params -> {
                 // Start transfer
-                return params.ts.startTransfer(auth, transfer);
+                return params.ts.startTransfer(auth, transfer)
+                    .map(transferInfo -> routed(destination, params, transferInfo));
             })
             .chain(transferInfo -> {
                 // Transfer started
@@ -114,6 +138,118 @@ public class DataTransfer extends DataTransferBase {
         return result;
     }
 
+    /**
+     * Initiate new transfer of all files in a data set, identified by its DOI.
+     * The files are determined by the parser that supports the DOI, and jobs are submitted
+     * while the DOI is still being parsed, see {@link TransferPlanner}.
+     * @param auth The access token needed to call the service.
+     * @param doiTransfer The DOI, the destination folder, and the parameters of the transfer.
+     * @return API Response, wraps an ActionSuccess(TransferInfo) or an ActionError entity
+     */
+    @POST
+    @Path("/transfers/doi")
+    @SecurityRequirement(name = "bearer")
+    @Operation(operationId = "startDoiTransfer",  summary = "Initiate new transfer of all files in a data set",
+               description = "Each file is transferred into the destination folder, under its name in the data set.")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @APIResponses(value = {
+            @APIResponse(responseCode = "202", description = "Accepted",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = TransferInfo.class))),
+            @APIResponse(responseCode = "400", description="Invalid parameters or configuration",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "401", description="Not authorized",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "403", description="Permission denied",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "404", description="Source not found",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "419", description="Re-delegate credentials",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class)))
+    })
+    public Uni<Response> startDoiTransfer(@RestHeader("Authorization") String auth, DoiTransfer doiTransfer,
+                                          @RestQuery("dest") @DefaultValue(defaultDestination)
+                                          @Parameter(schema = @Schema(implementation = Destination.class), description = "The destination storage")
+                                          String destination) {
+
+        if(null == doiTransfer || null == doiTransfer.doi || doiTransfer.doi.isBlank() ||
+           null == doiTransfer.destinationFolder || doiTransfer.destinationFolder.isBlank())
+            return Uni.createFrom().item(new ActionError("missingTransferParameters", Tuple2.of("destination", destination))
+                                            .setStatus(Status.BAD_REQUEST)
+                                            .toResponse());
+
+        LOG.infof("Start new data transfer of DOI %s", doiTransfer.doi);
+
+        final String folderUrl = doiTransfer.destinationFolder.endsWith("/") ?
+                                    doiTransfer.destinationFolder : doiTransfer.destinationFolder + "/";
+
+        Uni<Response> result = Uni.createFrom().nullItem()
+
+            .chain(unused -> {
+                // Pick transfer service
+                var params = new ActionParameters(destination, folderUrl);
+                if (!getTransferService(params)) {
+                    // No transfer service for this destination
+                    return Uni.createFrom().failure(new TransferServiceException("invalidServiceConfig"));
+                }
+
+                // Pick parser service that recognizes this DOI
+                var route = parsers.route(doiTransfer.doi);
+                if(null == route) {
+                    // Could not find suitable parser
+                    LOG.errorf("No parser supports DOI %s", doiTransfer.doi);
+                    return Uni.createFrom().failure(new TransferServiceException("invalidParserConfig"));
+                }
+
+                params.source = route.getItem1();
+                params.parser = route.getItem2();
+                params.parseContext = route.getItem3();
+                return Uni.createFrom().item(params);
+            })
+            .chain(params -> {
+                // Start transfer while parsing the DOI (or from its cached content)
+                var files = doiCache.stream(params.source, params.parser, auth, params.parseContext)
+                    .filter(file -> !file.isFolder && null != file.accessUrl && !file.accessUrl.isEmpty())
+                    .map(file -> {
+                        var payload = new TransferPayload();
+                        payload.sources.add(file.accessUrl);
+                        payload.destinations.add(folderUrl + pathSegment(file.name));
+                        return payload;
+                    });
+
+                return params.ts.startTransfer(auth, files, doiTransfer.params)
+                    .map(transferInfo -> routed(destination, params, transferInfo));
+            })
+            .chain(transferInfo -> {
+                // Transfer started
+                LOG.infof("Started new transfer %s of DOI %s", transferInfo.jobId, doiTransfer.doi);
+
+                // Success
+                return Uni.createFrom().item(Response.accepted(transferInfo).build());
+            })
+            .onFailure().recoverWithItem(e -> {
+                LOG.errorf("Failed to start new transfer of DOI %s", doiTransfer.doi);
+                return new ActionError(e, Arrays.asList(
+                             Tuple2.of("doi", doiTransfer.doi),
+                             Tuple2.of("destination", destination)) ).toResponse();
+            });
+
+        return result;
+    }
+
+    /**
+     * Percent-encode a file name, so that it can be used as a single segment of a path.
+     * @return Encoded file name, fails with TransferServiceException "invalidFileName"
+     *         if the name would not denote a file in the destination folder.
+     */
+    private static String pathSegment(String name) {
+        if(null == name || name.isEmpty() || name.equals(".") || name.equals("..") ||
+           name.contains("/") || name.contains("\\"))
+            throw new TransferServiceException("invalidFileName", Tuple2.of("name", String.valueOf(name)));
+
+        // URLEncoder encodes for forms, spaces must be %20 in paths
+        return URLEncoder.encode(name, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
     /***
      * Find transfers matching criteria.
      * @param auth The access token needed to call the service.
@@ -196,10 +332,10 @@ public class DataTransfer extends DataTransferBase {
         Uni<Response> result = Uni.createFrom().nullItem()
 
             .chain(unused -> {
-                // Pick transfer service and create REST client for it
+                // Pick transfer service
                 var params = new ActionParameters(destination);
                 if (!getTransferService(params)) {
-                    // Could not get REST client
+                    // No transfer service for this destination
                     return Uni.createFrom().failure(new TransferServiceException("invalidServiceConfig"));
                 }
 
@@ -247,6 +383,355 @@ public class DataTransfer extends DataTransferBase {
         return result;
     }
 
+    /***
+     * Find transfers matching criteria, streaming the matching transfers as newline delimited JSON.
+     * Selected by requesting content type "application/x-ndjson", takes the same parameters as findTransfers().
+     * @return Stream of TransferInfoExtended entities, one per line. On failure, the last line is an ActionError entity.
+     */
+    @GET
+    @Path("/transfers")
+    @SecurityRequirement(name = "bearer")
+    @Operation(operationId = "streamTransfers",  summary = "Find transfers matching search criteria, as a stream",
+               description = "Each matching transfer is returned as a separate line, as soon as it is available.\n" +
+                             "If the search fails, the last line is the error.")
+    @Produces(RestMediaType.APPLICATION_NDJSON)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "OK",
+                    content = @Content(mediaType = RestMediaType.APPLICATION_NDJSON, schema = @Schema(implementation = TransferInfoExtended.class)))
+    })
+    public Multi<Object> streamTransfers(@RestHeader("Authorization") String auth,
+                                         @RestQuery("fields") @Parameter(description = "Comma separated list of fields to return for each transfer")
+                                         String fields,
+                                         @RestQuery("limit") @DefaultValue("100") @Parameter(description = "Maximum number of transfers to return")
+                                         int limit,
+                                         @RestQuery("time_window") @Parameter(description = "For terminal states, limit results to 'hours[:minutes]' into the past")
+                                         String timeWindow,
+                                         @RestQuery("state_in") @Parameter(description = "Comma separated list of job states to match, by default only finds active transfers")
+                                         String stateIn,
+                                         @RestQuery("source_se") @Parameter(description = "Source storage element")
+                                         String srcStorageElement,
+                                         @RestQuery("dest_se") @Parameter(description = "Destination storage element")
+                                         String dstStorageElement,
+                                         @RestQuery("dlg_id") @Parameter(description = "Filter by delegation ID of user who started the transfer")
+                                         String delegationId,
+                                         @RestQuery("vo_name") @Parameter(description = "Filter by virtual organization of user who started the transfer")
+                                         String voName,
+                                         @RestQuery("user_dn") @Parameter(description = "Filter by user who started the transfer")
+                                         String userDN,
+                                         @RestQuery("dest") @DefaultValue(defaultDestination)
+                                         @Parameter(schema = @Schema(implementation = Destination.class), description = "The destination storage")
+                                         String destination) {
+
+        LOG.infof("Stream data transfers matching criteria (limit = %d)", limit);
+
+        AtomicInteger count = new AtomicInteger(0);
+        Multi<Object> result = Uni.createFrom().nullItem()
+
+            .chain(unused -> {
+                // Pick transfer service
+                var params = new ActionParameters(destination);
+                if (!getTransferService(params)) {
+                    // No transfer service for this destination
+                    return Uni.createFrom().failure(new TransferServiceException("invalidServiceConfig"));
+                }
+
+                return Uni.createFrom().item(params);
+            })
+            .onItem().transformToMulti(params -> {
+                // Find transfers
+                return params.ts.streamTransfers(auth, fields, limit, timeWindow, stateIn,
+                        srcStorageElement, dstStorageElement,
+                        delegationId, voName, userDN);
+            })
+            .onItem().transform(transferInfo -> {
+                // Found transfer
+                count.incrementAndGet();
+                return (Object)transferInfo;
+            })
+            .onCompletion().invoke(() -> {
+                LOG.infof("Found %d matching transfers", count.get());
+            })
+            .onFailure().recoverWithItem(e -> {
+                LOG.errorf("Failed to find matching transfers, after streaming %d", count.get());
+                return new ActionError(e, Arrays.asList(
+                             Tuple2.of("destination", destination),
+                             Tuple2.of("limit", String.format("%d", limit))) );
+            });
+
+        return result;
+    }
+
+    /**
+     * Request information about multiple transfers.
+     * @param auth The access token needed to call the service.
+     * @param jobIds The IDs of the transfers to request info about.
+     * @return API Response, wraps an ActionSuccess(TransferStatusList) or an ActionError entity
+     */
+    @POST
+    @Path("/transfers/status")
+    @SecurityRequirement(name = "bearer")
+    @Operation(operationId = "getTransfersInfo",  summary = "Retrieve information about multiple transfers",
+               description = "Transfers that could not be retrieved are reported in the _errors_ field, indexed by job ID.")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "OK",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = TransferStatusList.class))),
+            @APIResponse(responseCode = "400", description="Invalid parameters or configuration",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "401", description="Not authorized",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "403", description="Permission denied",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "419", description="Re-delegate credentials",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class)))
+    })
+    public Uni<Response> getTransfersInfo(@RestHeader("Authorization") String auth,
+                                          @Parameter(description = "The IDs of the transfers")
+                                          List<String> jobIds,
+                                          @RestQuery("dest") @DefaultValue(defaultDestination)
+                                          @Parameter(schema = @Schema(implementation = Destination.class), description = "The destination storage")
+                                          String destination) {
+
+        if(null != jobIds && !jobIds.isEmpty())
+            LOG.infof("Retrieve details of %d transfers", jobIds.size());
+        else
+            return Uni.createFrom().item(new ActionError("missingJobIds",
+                                               Tuple2.of("destination", destination) )
+                                                    .setStatus(Status.BAD_REQUEST)
+                                                    .toResponse());
+
+        Uni<Response> result = Uni.createFrom().nullItem()
+
+            .chain(unused -> {
+                // Pick transfer service
+                var params = new ActionParameters(destination);
+                if (!getTransferService(params)) {
+                    // No transfer service for this destination
+                    return Uni.createFrom().failure(new TransferServiceException("invalidServiceConfig"));
+                }
+
+                return Uni.createFrom().item(params);
+            })
+            .chain(params -> {
+                // Get details of the transfers (cached)
+                return transferInfoCache.getTransfersInfo(destination, params.ts, auth, jobIds);
+            })
+            .chain(transfers -> {
+                // Got transfer details
+                LOG.infof("Got details of %d transfers, %d failed", transfers.count, transfers.errors.size());
+
+                // Success
+                return Uni.createFrom().item(Response.ok(transfers).build());
+            })
+            .onFailure().recoverWithItem(e -> {
+                LOG.error("Failed to get details of transfers");
+                return new ActionError(e, Tuple2.of("destination", destination)).toResponse();
+            });
+
+        return result;
+    }
+
+    /**
+     * Watch the progress of one or more transfers.
+     * @param auth The access token needed to call the service.
+     * @param jobIds Comma separated list of the IDs of the transfers to watch.
+     * @return Stream of server-sent events, each wraps a TransferInfoExtended or an ActionError entity
+     */
+    @GET
+    @Path("/transfers/progress")
+    @SecurityRequirement(name = "bearer")
+    @Operation(operationId = "watchTransfers",  summary = "Watch the progress of transfers",
+               description = "Sends the details of each transfer when subscribing, then each time its state changes.\n" +
+                             "The stream ends after all transfers reach a terminal state. Transfers that cannot be " +
+                             "watched (e.g. not found) are reported as an error event.")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "OK",
+                    content = @Content(mediaType = MediaType.SERVER_SENT_EVENTS, schema = @Schema(implementation = TransferInfoExtended.class)))
+    })
+    public Multi<Object> watchTransfers(@RestHeader("Authorization") String auth,
+                                        @RestQuery("jobIds") @Parameter(description = "Comma separated list of the IDs of the transfers")
+                                        String jobIds,
+                                        @RestQuery("dest") @DefaultValue(defaultDestination)
+                                        @Parameter(schema = @Schema(implementation = Destination.class), description = "The destination storage")
+                                        String destination) {
+
+        List<String> ids = splitJobIds(jobIds);
+        if(!ids.isEmpty())
+            LOG.infof("Watch progress of %d transfers", ids.size());
+        else
+            return Multi.createFrom().<Object>item(new ActionError("missingJobIds",
+                                                        Tuple2.of("destination", destination) )
+                                                             .setStatus(Status.BAD_REQUEST));
+
+        Multi<Object> result = Uni.createFrom().nullItem()
+
+            .chain(unused -> {
+                // Pick transfer service
+                var params = new ActionParameters(destination);
+                if (!getTransferService(params)) {
+                    // No transfer service for this destination
+                    return Uni.createFrom().failure(new TransferServiceException("invalidServiceConfig"));
+                }
+
+                return Uni.createFrom().item(params);
+            })
+            .onItem().transformToMulti(params -> {
+                // Watch all transfers, report errors per transfer (reaching a watch limit ends the stream)
+                List<Multi<Object>> watches = new ArrayList<>();
+                for(var jobId : ids) {
+                    watches.add(progressPoller.watch(destination, params.ts, auth, jobId)
+                        .onItem().transform(transferInfo -> (Object)transferInfo)
+                        .onFailure(e -> !TransferProgressPoller.isOverLimit(e)).recoverWithItem(e -> {
+                            LOG.errorf("Failed to watch transfer %s", jobId);
+                            return new ActionError(e, Arrays.asList(
+                                         Tuple2.of("jobId", jobId),
+                                         Tuple2.of("destination", destination)) );
+                        }));
+                }
+
+                return Multi.createBy().merging().streams(watches);
+            })
+            .onCompletion().invoke(() -> {
+                LOG.infof("Finished watching %d transfers", ids.size());
+            })
+            .onFailure().recoverWithItem(e -> {
+                LOG.error("Failed to watch transfers");
+                return new ActionError(e, Tuple2.of("destination", destination));
+            });
+
+        return result;
+    }
+
+    /**
+     * Wait for the state of any of the specified transfers to change (long-polling).
+     * For clients that cannot use server-sent events.
+     * @param auth The access token needed to call the service.
+     * @param jobIds Comma separated list of the IDs of the transfers to watch.
+     * @param states Comma separated list of the states of the transfers known by the client, in the same order.
+     * @param wait Maximum time to wait for a change, in milliseconds.
+     * @return API Response, wraps an ActionSuccess(TransferStatusList) or an ActionError entity
+     */
+    @GET
+    @Path("/transfers/progress/next")
+    @SecurityRequirement(name = "bearer")
+    @Operation(operationId = "waitTransfers",  summary = "Wait for the state of transfers to change",
+               description = "Returns as soon as at least one of the transfers is in a state that differs from " +
+                             "the one known by the client, with the details of all such transfers.\n" +
+                             "Returns an empty list if nothing changes before the wait time elapses.")
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "OK",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = TransferStatusList.class))),
+            @APIResponse(responseCode = "400", description="Invalid parameters or configuration",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "401", description="Not authorized",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "403", description="Permission denied",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "404", description="Transfer not found",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "419", description="Re-delegate credentials",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "429", description="Watching too many transfers",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "503", description="Try again later",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class)))
+    })
+    public Uni<Response> waitTransfers(@RestHeader("Authorization") String auth,
+                                       @RestQuery("jobIds") @Parameter(description = "Comma separated list of the IDs of the transfers")
+                                       String jobIds,
+                                       @RestQuery("states") @Parameter(description = "Comma separated list of the states of the transfers known by the client")
+                                       String states,
+                                       @RestQuery("wait") @DefaultValue("25000") @Parameter(description = "Maximum time to wait for a change, in milliseconds")
+                                       long wait,
+                                       @RestQuery("dest") @DefaultValue(defaultDestination)
+                                       @Parameter(schema = @Schema(implementation = Destination.class), description = "The destination storage")
+                                       String destination) {
+
+        List<String> ids = splitJobIds(jobIds);
+        if(!ids.isEmpty())
+            LOG.infof("Wait for progress of %d transfers", ids.size());
+        else
+            return Uni.createFrom().item(new ActionError("missingJobIds",
+                                               Tuple2.of("destination", destination) )
+                                                    .setStatus(Status.BAD_REQUEST)
+                                                    .toResponse());
+
+        // The states known by the client, by transfer
+        Map<String, String> knownStates = new HashMap<>();
+        List<String> knownStateList = splitJobIds(states);
+        for(int i = 0; i < ids.size() && i < knownStateList.size(); i++)
+            knownStates.put(ids.get(i), knownStateList.get(i));
+
+        final long maxWait = Math.max(0, Math.min(wait, config.progress().maxWait()));
+        Uni<Response> result = Uni.createFrom().nullItem()
+
+            .chain(unused -> {
+                // Pick transfer service
+                var params = new ActionParameters(destination);
+                if (!getTransferService(params)) {
+                    // No transfer service for this destination
+                    return Uni.createFrom().failure(new TransferServiceException("invalidServiceConfig"));
+                }
+
+                return Uni.createFrom().item(params);
+            })
+            .chain(params -> {
+                // Wait for the first transfer that is not in the state known by the client
+                List<Multi<TransferInfoExtended>> watches = new ArrayList<>();
+                for(var jobId : ids)
+                    watches.add(progressPoller.watch(destination, params.ts, auth, jobId));
+
+                return Multi.createBy().merging().streams(watches)
+                    .filter(transferInfo -> !Objects.equals(transferInfo.jobState, knownStates.get(transferInfo.jobId)))
+                    .map(changed -> {
+                        // Collect all transfers that changed, while still watching them
+                        var transfers = new TransferStatusList();
+                        transfers.add(changed);
+                        for(var jobId : ids) {
+                            var transferInfo = progressPoller.current(destination, auth, jobId);
+                            if(null != transferInfo && !jobId.equals(changed.jobId) &&
+                               !Objects.equals(transferInfo.jobState, knownStates.get(jobId)))
+                                transfers.add(transferInfo);
+                        }
+
+                        return transfers;
+                    })
+                    .toUni()
+                    .ifNoItem()
+                        .after(Duration.ofMillis(maxWait))
+                        .recoverWithItem(TransferStatusList::new);
+            })
+            .chain(transfers -> {
+                LOG.infof("State of %d transfers changed", transfers.count);
+
+                // Success
+                return Uni.createFrom().item(Response.ok(transfers).build());
+            })
+            .onFailure().recoverWithItem(e -> {
+                LOG.error("Failed to wait for progress of transfers");
+                return new ActionError(e, Tuple2.of("destination", destination)).toResponse();
+            });
+
+        return result;
+    }
+
+    /**
+     * Split comma separated list of transfer IDs (or states).
+     * @return List of non-empty values, empty list if none.
+     */
+    private static List<String> splitJobIds(String jobIds) {
+        List<String> ids = new ArrayList<>();
+        if(null != jobIds)
+            for(var id : jobIds.split(","))
+                if(!id.isBlank())
+                    ids.add(id.trim());
+
+        return ids;
+    }
+
     /**
      * Request information about a transfer.
      * @param auth The access token needed to call the service.
@@ -283,18 +768,18 @@ public class DataTransfer extends DataTransferBase {
         Uni<Response> result = Uni.createFrom().nullItem()
 
             .chain(unused -> {
-                // Pick transfer service and create REST client for it
+                // Pick transfer service
                 var params = new ActionParameters(destination);
                 if (!getTransferService(params)) {
-                    // Could not get REST client
+                    // No transfer service for this destination
                     return Uni.createFrom().failure(new TransferServiceException("invalidServiceConfig"));
                 }
 
                 return Uni.createFrom().item(params);
             })
             .chain(params -> {
-                // Get transfer details
-                return params.ts.getTransferInfo(auth, jobId);
+                // Get transfer details (cached)
+                return transferInfoCache.getTransferInfo(destination, params.ts, auth, jobId);
             })
             .chain(transferInfo -> {
                 // Got transfer details
@@ -349,18 +834,18 @@ public class DataTransfer extends DataTransferBase {
         Uni<Response> result = Uni.createFrom().nullItem()
 
             .chain(unused -> {
-                // Pick transfer service and create REST client for it
+                // Pick transfer service
                 var params = new ActionParameters(destination);
                 if (!getTransferService(params)) {
-                    // Could not get REST client
+                    // No transfer service for this destination
                     return Uni.createFrom().failure(new TransferServiceException("invalidServiceConfig"));
                 }
 
                 return Uni.createFrom().item(params);
             })
             .chain(params -> {
-                // Get transfer info field
-                return params.ts.getTransferInfoField(auth, jobId, fieldName);
+                // Get transfer info field (from cached transfer details, if available)
+                return transferInfoCache.getTransferInfoField(destination, params.ts, auth, jobId, fieldName);
             })
             .chain(fieldValue -> {
                 // Found transfer and field
@@ -419,10 +904,10 @@ public class DataTransfer extends DataTransferBase {
         Uni<Response> result = Uni.createFrom().nullItem()
 
             .chain(unused -> {
-                // Pick transfer service and create REST client for it
+                // Pick transfer service
                 var params = new ActionParameters(destination);
                 if (!getTransferService(params)) {
-                    // Could not get REST client
+                    // No transfer service for this destination
                     return Uni.createFrom().failure(new TransferServiceException("invalidServiceConfig"));
                 }
 
@@ -435,6 +920,7 @@ public class DataTransfer extends DataTransferBase {
             .chain(transferInfo -> {
                 // Canceled transfer
                 LOG.infof("Transfer %s is %s", transferInfo.jobId, transferInfo.jobState);
+                transferInfoCache.put(destination, auth, transferInfo);
 
                 // Success
                 return Uni.createFrom().item(Response.ok(transferInfo).build());
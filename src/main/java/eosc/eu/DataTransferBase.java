@@ -1,14 +1,15 @@
 package eosc.eu;
 
 import org.jboss.logging.Logger;
-import java.lang.reflect.InvocationTargetException;
-import javax.annotation.PostConstruct;
+import java.util.Objects;
 import javax.inject.Inject;
 
+import eosc.eu.model.TransferInfo;
+
 
 /***
  * Base class for data transfer related resources.
- * Dynamically selects the appropriate data transfer service, depending on the desired destination.
+ * Selects the appropriate data transfer service, depending on the desired destination.
  */
 public class DataTransferBase {
 
@@ -29,7 +30,7 @@ public class DataTransferBase {
     static public final String defaultDestination = "dcache";
 
     @Inject
-    protected TransfersConfig config;
+    protected TransferServiceRegistry transferServices;
 
     protected static Logger LOG;
 
@@ -42,12 +43,12 @@ public class DataTransferBase {
     }
 
     /**
-     * Prepare REST client for the appropriate data transfer service, based on the destination
-     * configured in "proxy.transfer.destination".
+     * Select the appropriate data transfer service, based on the storage element URL routes
+     * configured in "proxy.transfer.routes", or else on the destination configured in "proxy.transfer.destination".
+     * The transfer services are created and initialized once at startup, see {@link TransferServiceRegistry}.
      * @param params dictates which transfer service we pick, mapping is in the configuration file
-     * @return true on success, updates fields "destination" and "ts"
+     * @return true on success, updates field "ts" (and "destination" when routed by storage element URL)
      */
-    @PostConstruct
     protected boolean getTransferService(ActionParameters params) {
 
         LOG.debug("Selecting transfer service...");
@@ -55,6 +56,16 @@ public class DataTransferBase {
         if (null != params.ts)
             return true;
 
+        var route = transferServices.route(params.seUrl);
+        if (null != route) {
+            // Storage element is served by a dedicated destination
+            params.destination = route.getItem1();
+            params.ts = route.getItem2();
+            LOG.infof("Routed %s to destination <%s>, selected transfer service <%s>",
+                      params.seUrl, params.destination, params.ts.getServiceName());
+            return true;
+        }
+
         if(null == params.destination || params.destination.isEmpty()) {
             LOG.error("No destination specified");
             return false;
@@ -62,49 +73,34 @@ public class DataTransferBase {
 
         LOG.infof("Destination is <%s>", params.destination);
 
-        String serviceId = config.destinations().get(params.destination);
-        if (null == serviceId) {
-            // Unsupported destination
-            LOG.errorf("No transfer service configured for destination <%s>", params.destination);
+        params.ts = transferServices.getService(params.destination);
+        if (null == params.ts) {
+            // Unsupported destination or transfer service failed to initialize
+            LOG.errorf("No transfer service available for destination <%s>", params.destination);
             return false;
         }
 
-        TransfersConfig.TransferServiceConfig serviceConfig = config.services().get(serviceId);
-        if (null == serviceConfig) {
-            // Unsupported transfer service
-            LOG.errorf("No configuration found for transfer service <%s>", serviceId);
-            return false;
-        }
+        LOG.infof("Selected transfer service <%s>", params.ts.getServiceName());
+        return true;
+    }
 
-        // Get the class of the transfer service we should use
-        try {
-            var classType = Class.forName(serviceConfig.className());
-            params.ts = (TransferService)classType.getDeclaredConstructor().newInstance();
-            if(params.ts.initService(serviceConfig)) {
-                LOG.infof("Selected transfer service <%s>", params.ts.getServiceName());
-                return true;
-            }
-        }
-        catch (ClassNotFoundException e) {
-            LOG.error(e.getMessage());
-        }
-        catch (NoSuchMethodException e) {
-            LOG.error(e.getMessage());
-        }
-        catch (InstantiationException e) {
-            LOG.error(e.getMessage());
-        }
-        catch (InvocationTargetException e) {
-            LOG.error(e.getMessage());
-        }
-        catch (IllegalAccessException e) {
-            LOG.error(e.getMessage());
-        }
-        catch (IllegalArgumentException e) {
-            LOG.error(e.getMessage());
-        }
+    /**
+     * Identify a transfer started on the transfer service selected by {@link #getTransferService(ActionParameters)}.
+     * When the transfer was routed to another destination than requested, it gets a routed ID that
+     * encodes the destination (see {@link TransferRouter}), so that later calls reach the same transfer
+     * service whatever "dest" query parameter they use, and the destination is reported in the response.
+     * @param requested The destination requested by the client.
+     * @param params The selected destination and transfer service.
+     * @param transferInfo The started transfer, as returned by the transfer service.
+     * @return The transfer to return to the client.
+     */
+    protected static TransferInfo routed(String requested, ActionParameters params, TransferInfo transferInfo) {
+        if(Objects.equals(requested, params.destination))
+            return transferInfo;
 
-        return false;
+        transferInfo.jobId = TransferRouter.routedId(params.destination, transferInfo.jobId);
+        transferInfo.destination = params.destination;
+        return transferInfo;
     }
 
 }
@@ -26,7 +26,7 @@ import org.jboss.resteasy.reactive.RestQuery;
 
 /***
  * Class for user queries.
- * Dynamically selects the appropriate data transfer service, depending on the desired destination.
+ * Selects the appropriate data transfer service, depending on the desired destination.
  */
 @Path("/")
 @SecuritySchemes(value = {
@@ -40,6 +40,9 @@ public class DataTransferUser extends DataTransferBase {
     @Inject
     TransfersConfig config;
 
+    @Inject
+    UserInfoCache userInfoCache;
+
     private static final Logger LOG = Logger.getLogger(DataTransferUser.class);
 
 
@@ -83,18 +86,18 @@ public class DataTransferUser extends DataTransferBase {
         Uni<Response> result = Uni.createFrom().nullItem()
 
             .chain(unused -> {
-                // Pick transfer service and create REST client for it
+                // Pick transfer service
                 var params = new ActionParameters(destination);
                 if (!getTransferService(params)) {
-                    // Could not get REST client
+                    // No transfer service for this destination
                     return Uni.createFrom().failure(new TransferServiceException("invalidServiceConfig"));
                 }
 
                 return Uni.createFrom().item(params);
             })
             .chain(params -> {
-                // Get user info
-                return params.ts.getUserInfo(auth);
+                // Get user info (cached)
+                return userInfoCache.getUserInfo(destination, params.ts, auth);
             })
             .chain(userinfo -> {
                 // Got user info
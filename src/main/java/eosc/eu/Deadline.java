@@ -0,0 +1,245 @@
+package eosc.eu;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.Cancellable;
+import io.smallrye.mutiny.tuples.Tuple2;
+import io.vertx.core.Vertx;
+import io.vertx.ext.web.RoutingContext;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/***
+ * Deadline of the API request being processed, bounds the calls made to services on its behalf.
+ * Each call gets the budget configured for its operation, shortened to the time left until the
+ * deadline supplied by the client (if any). When the budget runs out or the client disconnects,
+ * the call is canceled, which aborts the in-flight HTTP request to the service.
+ * Calls shared by several API requests are only bound by the budget of their operation,
+ * and each API request bounds its own wait for the shared call (see Coalescer).
+ * Calls cut short by the deadline of the client fail with TransferServiceException "deadlineExceeded",
+ * which says nothing about the health of the service (unlike running out of budget).
+ */
+public class Deadline {
+
+    private static final Logger LOG = Logger.getLogger(Deadline.class);
+    private static final String CONTEXT_KEY = Deadline.class.getName();
+
+    public static final String HEADER = "X-Request-Timeout"; // milliseconds, supplied by the client
+    public static final String DEADLINE_EXCEEDED = "deadlineExceeded"; // Error id when the deadline of the client passed
+
+    private final long expiresAt; // System.nanoTime() based, Long.MAX_VALUE if no deadline
+    private final List<Runnable> onDisconnect = new CopyOnWriteArrayList<>();
+    private volatile boolean disconnected = false;
+
+
+    /***
+     * Constructor
+     */
+    private Deadline(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    /***
+     * Start tracking the deadline of an API request, called for each request before it is processed.
+     * The deadline is stored in the (duplicated) Vert.x context of the request.
+     * @param routingContext The request being processed.
+     */
+    public static void start(RoutingContext routingContext) {
+        var context = Vertx.currentContext();
+        if(null == context)
+            return;
+
+        long expiresAt = Long.MAX_VALUE;
+        var header = routingContext.request().getHeader(HEADER);
+        if(null != header && !header.isBlank()) {
+            try {
+                long timeout = Long.parseLong(header.trim());
+                if(timeout > 0)
+                    expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            }
+            catch(NumberFormatException e) {
+                LOG.warnf("Ignoring invalid header %s: %s", HEADER, header);
+            }
+        }
+
+        var deadline = new Deadline(expiresAt);
+        routingContext.addEndHandler(ended -> {
+            // Connection closed before the response was sent
+            if(ended.failed())
+                deadline.disconnect();
+        });
+
+        context.putLocal(CONTEXT_KEY, deadline);
+    }
+
+    /***
+     * Bound a call to a service by the budget of its operation and the deadline of the current API request.
+     * @param call The call to the service.
+     * @param budget The maximum duration of the call (milliseconds).
+     * @param timeoutError The id of the error to fail with when the call takes longer than its budget.
+     * @return The call, canceled when it takes too long or the client disconnects.
+     */
+    public static <T> Uni<T> bound(Uni<T> call, long budget, String timeoutError) {
+        return bound(limit(call, budget, timeoutError));
+    }
+
+    /***
+     * Bound a call to a service by the budget of its operation only.
+     * Meant for calls shared by several API requests, which must not be bound by the deadline
+     * of the request that happens to make the call.
+     * @param call The call to the service.
+     * @param budget The maximum duration of the call (milliseconds).
+     * @param timeoutError The id of the error to fail with when the call takes too long.
+     * @return The call, canceled when it takes too long.
+     */
+    public static <T> Uni<T> limit(Uni<T> call, long budget, String timeoutError) {
+        if(budget <= 0)
+            return Uni.createFrom().failure(timeoutException(timeoutError, budget));
+
+        return call
+            .ifNoItem()
+                .after(Duration.ofMillis(budget))
+                .failWith(() -> timeoutException(timeoutError, budget));
+    }
+
+    /***
+     * Bound a call by the deadline of the current API request only.
+     * The deadline is that of the API request being processed when this is called.
+     * @param call The call, e.g. the wait for a shared call to a service.
+     * @return The call, canceled when the deadline passes (fails with TransferServiceException "deadlineExceeded")
+     *         or the client disconnects.
+     */
+    public static <T> Uni<T> bound(Uni<T> call) {
+        final var deadline = current();
+        if(null == deadline)
+            return call;
+
+        final long timeout = remaining(deadline, Long.MAX_VALUE);
+        if(timeout <= 0)
+            return Uni.createFrom().failure(timeoutException(DEADLINE_EXCEEDED, 0));
+
+        final Uni<T> timed = (Long.MAX_VALUE == timeout) ? call : call
+            .ifNoItem()
+                .after(Duration.ofMillis(timeout))
+                .failWith(() -> timeoutException(DEADLINE_EXCEEDED, timeout));
+
+        return Uni.createFrom().emitter(emitter -> {
+            final AtomicReference<Cancellable> inFlight = new AtomicReference<>();
+            final Runnable disconnect = () -> {
+                var cancellable = inFlight.get();
+                if(null != cancellable)
+                    cancellable.cancel();
+                emitter.fail(new TransferServiceException("clientDisconnected"));
+            };
+
+            emitter.onTermination(() -> {
+                // Also when canceled downstream
+                deadline.onDisconnect.remove(disconnect);
+                var cancellable = inFlight.get();
+                if(null != cancellable)
+                    cancellable.cancel();
+            });
+
+            deadline.onDisconnect.add(disconnect);
+            inFlight.set(timed.subscribe().with(emitter::complete, emitter::fail));
+            if(deadline.disconnected)
+                disconnect.run();
+        });
+    }
+
+    /***
+     * Bound a stream from a service, each item must arrive within the budget of the operation
+     * (shortened to the deadline of the current API request).
+     * Streams are canceled by the REST layer when the client disconnects.
+     * @param stream The stream from the service.
+     * @param budget The maximum wait for each item (milliseconds).
+     * @param timeoutError The id of the error to fail with when an item takes longer than the budget.
+     * @return The stream, canceled when an item takes too long (fails with TransferServiceException
+     *         "deadlineExceeded" if the deadline of the API request was the limit).
+     */
+    public static <T> Multi<T> bound(Multi<T> stream, long budget, String timeoutError) {
+        final long timeout = remaining(current(), budget);
+        final String error = (timeout < budget) ? DEADLINE_EXCEEDED : timeoutError;
+        if(timeout <= 0)
+            return Multi.createFrom().failure(timeoutException(error, Math.max(0, timeout)));
+
+        return stream
+            .ifNoItem()
+                .after(Duration.ofMillis(timeout))
+                .failWith(() -> timeoutException(error, timeout));
+    }
+
+    /***
+     * Bound a stream from a service by the budget of its operation only, each item must arrive within it.
+     * @param stream The stream from the service.
+     * @param budget The maximum wait for each item (milliseconds).
+     * @param timeoutError The id of the error to fail with when an item takes too long.
+     * @return The stream, canceled when an item takes too long.
+     */
+    public static <T> Multi<T> limit(Multi<T> stream, long budget, String timeoutError) {
+        if(budget <= 0)
+            return Multi.createFrom().failure(timeoutException(timeoutError, budget));
+
+        return stream
+            .ifNoItem()
+                .after(Duration.ofMillis(budget))
+                .failWith(() -> timeoutException(timeoutError, budget));
+    }
+
+    /***
+     * Bound a stream by the deadline of the current API request only, each item must arrive before it.
+     * Streams are canceled by the REST layer when the client disconnects.
+     * @param stream The stream, e.g. from a service, bound by the budget of its operation elsewhere.
+     * @return The stream, canceled when the deadline passes (fails with TransferServiceException "deadlineExceeded").
+     */
+    public static <T> Multi<T> bound(Multi<T> stream) {
+        final long timeout = remaining(current(), Long.MAX_VALUE);
+        if(Long.MAX_VALUE == timeout)
+            return stream;
+
+        return limit(stream, timeout, DEADLINE_EXCEEDED);
+    }
+
+    /***
+     * Get the deadline of the API request being processed.
+     * @return Deadline, null if not called on behalf of an API request.
+     */
+    private static Deadline current() {
+        var context = Vertx.currentContext();
+        return (null != context) ? context.getLocal(CONTEXT_KEY) : null;
+    }
+
+    /***
+     * Get the time left for a call.
+     * @return The budget, or the time left until the deadline if sooner (milliseconds).
+     */
+    private static long remaining(Deadline deadline, long budget) {
+        if(null == deadline || Long.MAX_VALUE == deadline.expiresAt)
+            return budget;
+
+        long left = TimeUnit.NANOSECONDS.toMillis(deadline.expiresAt - System.nanoTime());
+        return Math.min(budget, left);
+    }
+
+    /***
+     * Signal that the client went away, cancels all calls in progress.
+     */
+    private void disconnect() {
+        this.disconnected = true;
+        for(var listener : this.onDisconnect)
+            listener.run();
+    }
+
+    /***
+     * Build the error for a call that took too long.
+     */
+    private static TransferServiceException timeoutException(String timeoutError, long timeout) {
+        return new TransferServiceException(timeoutError, Tuple2.of("timeout", String.valueOf(Math.max(0, timeout))));
+    }
+}
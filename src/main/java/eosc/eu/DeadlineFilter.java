@@ -0,0 +1,16 @@
+package eosc.eu;
+
+import io.vertx.ext.web.RoutingContext;
+import org.jboss.resteasy.reactive.server.ServerRequestFilter;
+
+
+/***
+ * Starts tracking the deadline of each API request, see {@link Deadline}
+ */
+public class DeadlineFilter {
+
+    @ServerRequestFilter
+    public void startDeadline(RoutingContext routingContext) {
+        Deadline.start(routingContext);
+    }
+}
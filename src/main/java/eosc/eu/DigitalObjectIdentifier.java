@@ -1,5 +1,6 @@
 package eosc.eu;
 
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import io.smallrye.mutiny.tuples.Tuple2;
 import org.eclipse.microprofile.openapi.annotations.Operation;
@@ -15,12 +16,15 @@ import org.eclipse.microprofile.openapi.annotations.security.SecuritySchemes;
 import org.jboss.logging.Logger;
 import org.jboss.resteasy.reactive.RestHeader;
 import org.jboss.resteasy.reactive.RestQuery;
+import org.jboss.resteasy.reactive.RestStreamElementType;
+import org.jboss.resteasy.reactive.common.util.RestMediaType;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.Arrays;
-import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.ws.rs.*;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
@@ -36,6 +40,12 @@ import eosc.eu.model.*;
 @Produces(MediaType.APPLICATION_JSON)
 public class DigitalObjectIdentifier {
 
+    @Inject
+    ParserRegistry parsers;
+
+    @Inject
+    DoiCache doiCache;
+
     @Inject
     ParsersConfig config;
 
@@ -43,13 +53,13 @@ public class DigitalObjectIdentifier {
 
 
     /**
-     * Prepare a parser service that can parse the specified DOI.
+     * Select the parser service that can parse the specified DOI.
+     * The parsers are created and initialized once at startup, see {@link ParserRegistry}.
      *
      * @param params Will receive the parser
      * @param doi The DOI for a data set
-     * @return true on success, updates field "parser"
+     * @return true on success, updates fields "parser", "parseContext", and "source"
      */
-    @PostConstruct
     private boolean getParser(ActionParameters params, String doi) {
 
         LOG.debug("Selecting parser...");
@@ -62,52 +72,25 @@ public class DigitalObjectIdentifier {
             return false;
         }
 
-        try {
-            // Try each registered parser
-            for(var pKey : this.config.parsers().keySet()) {
-                var parserConfig = this.config.parsers().get(pKey);
-
-                // Get the class of the parser
-                var classType = Class.forName(parserConfig.className());
-                params.parser = (ParserService)classType.getDeclaredConstructor().newInstance();
-                if(params.parser.initParser(parserConfig)) {
-                    LOG.infof("Trying parser <%s>", params.parser.getParserName());
-
-                    if(params.parser.canParseDOI(doi)) {
-                        params.source = pKey;
-                        return true;
-                    }
-                }
-
-                params.source = null;
-                params.parser = null;
-            }
-        }
-        catch (ClassNotFoundException e) {
-            LOG.error(e.getMessage());
-        }
-        catch (NoSuchMethodException e) {
-            LOG.error(e.getMessage());
-        }
-        catch (InstantiationException e) {
-            LOG.error(e.getMessage());
-        }
-        catch (InvocationTargetException e) {
-            LOG.error(e.getMessage());
-        }
-        catch (IllegalAccessException e) {
-            LOG.error(e.getMessage());
-        }
-        catch (IllegalArgumentException e) {
-            LOG.error(e.getMessage());
+        var route = parsers.route(doi);
+        if(null == route) {
+            // None of the configured parsers supports this DOI
+            LOG.errorf("No parser supports DOI %s", doi);
+            return false;
         }
 
-        // None of the configured parsers supports this DOI
-        return false;
+        params.source = route.getItem1();
+        params.parser = route.getItem2();
+        params.parseContext = route.getItem3();
+
+        LOG.infof("Selected parser <%s>", params.parser.getParserName());
+        return true;
     }
 
     /**
      * Parse Digital Object Identifier at specified URL and return list of files.
+     * Parsed DOIs are cached, see {@link DoiCache}, and responses carry HTTP caching headers,
+     * so that clients and reverse proxies can reuse them too.
      *
      * @return API Response, wraps an ActionSuccess or an ActionError entity
      */
@@ -118,6 +101,7 @@ public class DigitalObjectIdentifier {
     @APIResponses(value = {
             @APIResponse(responseCode = "200", description = "Success",
                     content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = StorageContent.class))),
+            @APIResponse(responseCode = "304", description = "Not modified since the client got it"),
             @APIResponse(responseCode = "400", description="Invalid parameters or configuration",
                     content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ActionError.class))),
             @APIResponse(responseCode = "404", description="Source not found",
@@ -125,7 +109,8 @@ public class DigitalObjectIdentifier {
     })
     public Uni<Response> parseDOI(@RestHeader("Authorization") String auth,
                                   @Parameter(description = "The DOI to parse", required = true, example = "https://doi.org/12.3456/zenodo.12345678")
-                                  @RestQuery String doi) {
+                                  @RestQuery String doi,
+                                  @RestHeader("If-None-Match") String ifNoneMatch) {
 
         LOG.infof("Parse DOI %s", doi);
 
@@ -142,15 +127,31 @@ public class DigitalObjectIdentifier {
                     return Uni.createFrom().item(params);
                 })
                 .chain(params -> {
-                    // Parse DOI and get source files
-                    return params.parser.parseDOI(auth, doi);
+                    // Parse DOI and get source files (cached)
+                    return doiCache.get(params.source, params.parser, auth, params.parseContext);
                 })
-                .chain(sourceFiles -> {
+                .chain(parsed -> {
                     // Got list of source files
-                    LOG.infof("Got %d source files", sourceFiles.count);
+                    LOG.infof("Got %d source files", parsed.content.count);
+
+                    var etag = (null != parsed.digest) ? new EntityTag(parsed.digest) : null;
+                    var cacheControl = new CacheControl();
+                    long maxAge = config.parserCache().revalidateAfter() - (System.currentTimeMillis() - parsed.validatedAt);
+                    cacheControl.setMaxAge((int)Math.max(0, maxAge / 1000));
+
+                    Response.ResponseBuilder response;
+                    if(null != etag && null != ifNoneMatch && ifNoneMatch.contains(etag.toString()))
+                        // Client already has this content
+                        response = Response.notModified(etag);
+                    else
+                        response = Response.ok(parsed.content).tag(etag);
+
+                    response.cacheControl(cacheControl);
+                    if(null != parsed.lastModified)
+                        response.header(HttpHeaders.LAST_MODIFIED, parsed.lastModified);
 
                     // Success
-                    return Uni.createFrom().item(Response.ok(sourceFiles).build());
+                    return Uni.createFrom().item(response.build());
                 })
                 .onFailure().recoverWithItem(e -> {
                     LOG.errorf("Failed to parse DOI %s", doi);
@@ -159,4 +160,53 @@ public class DigitalObjectIdentifier {
 
         return result;
     }
+
+    /**
+     * Parse Digital Object Identifier at specified URL and stream the files as newline delimited JSON.
+     * Selected by requesting content type "application/x-ndjson", takes the same parameters as parseDOI().
+     * Files are streamed as soon as they are parsed, so memory use does not depend on the size of the data set.
+     *
+     * @return Stream of StorageElement entities. On failure, the last line is an ActionError entity.
+     */
+    @GET
+    @Path("/parser")
+    @SecurityRequirement(name = "bearer")
+    @Operation(operationId = "streamParse",  summary = "Extract source files from DOI, as a stream",
+               description = "Each file is returned as a separate line, as soon as it is parsed.")
+    @Produces(RestMediaType.APPLICATION_NDJSON)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "Success",
+                    content = @Content(mediaType = RestMediaType.APPLICATION_NDJSON, schema = @Schema(implementation = StorageElement.class)))
+    })
+    public Multi<Object> streamDOI(@RestHeader("Authorization") String auth,
+                                   @Parameter(description = "The DOI to parse", required = true, example = "https://doi.org/12.3456/zenodo.12345678")
+                                   @RestQuery String doi) {
+
+        LOG.infof("Parse DOI %s, streaming files", doi);
+
+        Multi<Object> result = Uni.createFrom().nullItem()
+
+                .chain(unused -> {
+                    // Pick parser service that recognizes this DOI
+                    var params = new ActionParameters();
+                    if (!getParser(params, doi)) {
+                        // Could not find suitable parser
+                        return Uni.createFrom().failure(new TransferServiceException("invalidParserConfig"));
+                    }
+
+                    return Uni.createFrom().item(params);
+                })
+                .onItem().transformToMulti(params -> {
+                    // Parse DOI and stream source files (cached if fresh)
+                    return doiCache.stream(params.source, params.parser, auth, params.parseContext)
+                                .onItem().castTo(Object.class);
+                })
+                .onFailure().recoverWithItem(e -> {
+                    LOG.errorf("Failed to parse DOI %s", doi);
+                    return new ActionError(e, Tuple2.of("doi", doi));
+                });
+
+        return result;
+    }
 }
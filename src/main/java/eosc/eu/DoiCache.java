@@ -0,0 +1,368 @@
+package eosc.eu;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import io.vertx.mutiny.core.Vertx;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response.Status;
+
+import eosc.eu.model.ParsedContent;
+import eosc.eu.model.StorageElement;
+
+
+/***
+ * Two-tier cache of parsed DOIs, sits in front of ParserService.parseDOI().
+ * Parsed DOIs are kept in a bounded in-memory cache, and are persisted to disk so that they
+ * survive restarts. Entries older than "revalidate-after" are checked for changes with the
+ * parser (using conditional requests where the source repository supports them).
+ * Entries are shared by all users, as data sets identified by DOIs are public, and so are
+ * the reads from disk and the revalidations in progress.
+ * Persisted entries are swept periodically, to keep the data folder within its size and age limits.
+ */
+@ApplicationScoped
+public class DoiCache {
+
+    private static final Logger LOG = Logger.getLogger(DoiCache.class);
+    private static final long SWEEP_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    @Inject
+    ParsersConfig config;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    Vertx vertx;
+
+    private Cache<String, ParsedContent> cache;
+    private Coalescer coalescer;
+    private Path dataDir;   // Null if not persisting to disk
+    private long timerId = -1;
+
+
+    /***
+     * Create the cache, the data folder, and register the hit/miss metrics.
+     * When persisting to disk, also starts sweeping the data folder.
+     */
+    @PostConstruct
+    void init() {
+        var cacheConfig = config.parserCache();
+        this.cache = Caffeine.newBuilder()
+                        .maximumSize(cacheConfig.maxSize())
+                        .recordStats()
+                        .build();
+
+        CaffeineCacheMetrics.monitor(Metrics.globalRegistry, this.cache, "parsedDoi");
+        this.coalescer = new Coalescer("DOI cache");
+
+        if(null != cacheConfig.dataDir() && !cacheConfig.dataDir().isBlank()) {
+            try {
+                this.dataDir = Files.createDirectories(Paths.get(cacheConfig.dataDir()));
+                LOG.infof("Persisting parsed DOIs to %s", this.dataDir);
+
+                this.timerId = this.vertx.setPeriodic(SWEEP_INTERVAL, id -> sweepSoon());
+                sweepSoon();
+            }
+            catch(IOException e) {
+                // Only cache in memory
+                LOG.errorf("Cannot create folder for parsed DOIs, %s", e.getMessage());
+            }
+        }
+    }
+
+    /***
+     * Stop sweeping the data folder
+     */
+    @PreDestroy
+    void destroy() {
+        if(this.timerId >= 0)
+            this.vertx.cancelTimer(this.timerId);
+    }
+
+    /**
+     * Get the files in a data set, from the cache if available and fresh.
+     * Stale entries are revalidated, and are still served if revalidation fails
+     * for any other reason than the data set no longer existing.
+     * @param source The key of the parser in the configuration file.
+     * @param parser The parser to call on cache miss, or to revalidate with.
+     * @param auth The access token needed to call the parser.
+     * @param context The context returned by the parser for the DOI.
+     * @return The files in the data set.
+     */
+    public Uni<ParsedContent> get(String source, ParserService parser, String auth, ParseContext context) {
+
+        final String key = source + "/" + context.sourceId;
+        final long revalidateAfter = config.parserCache().revalidateAfter();
+
+        return load(key)
+            .chain(cached -> {
+                if(null != cached && cached.isFresh(revalidateAfter)) {
+                    LOG.debugf("Using cached content of DOI %s", context.doi);
+                    return Uni.createFrom().item(cached);
+                }
+
+                // Concurrent requests for this DOI share the revalidation
+                return this.coalescer.coalesce("parseDOI", null, key, parser.revalidateDOI(auth, context, cached)
+                    .chain(parsed -> {
+                        // Got current content
+                        if(parsed.content == (null != cached ? cached.content : null))
+                            LOG.debugf("Content of DOI %s did not change", context.doi);
+                        else
+                            parsed.digest = digest(parsed);
+
+                        return store(key, parsed);
+                    })
+                    .onFailure(e -> null != cached && !isGone(e)).recoverWithItem(e -> {
+                        LOG.warnf("Failed to revalidate DOI %s, using stale content", context.doi);
+                        return cached;
+                    })
+                    .onFailure(DoiCache::isGone).invoke(e -> evict(key)));
+            });
+    }
+
+    /**
+     * Stream the files in a data set, from the cache if available and fresh.
+     * Otherwise the files are streamed from the parser as they are parsed, without being
+     * cached, so that memory use does not depend on the size of the data set.
+     * @param source The key of the parser in the configuration file.
+     * @param parser The parser to stream from on cache miss.
+     * @param auth The access token needed to call the parser.
+     * @param context The context returned by the parser for the DOI.
+     * @return The files in the data set.
+     */
+    public Multi<StorageElement> stream(String source, ParserService parser, String auth, ParseContext context) {
+
+        final String key = source + "/" + context.sourceId;
+        final long revalidateAfter = config.parserCache().revalidateAfter();
+
+        return load(key)
+            .onItem().transformToMulti(cached -> {
+                if(null != cached && cached.isFresh(revalidateAfter)) {
+                    LOG.debugf("Streaming cached content of DOI %s", context.doi);
+                    return Multi.createFrom().iterable(cached.content.elements);
+                }
+
+                return parser.streamDOI(auth, context);
+            });
+    }
+
+    /**
+     * Get entry from memory, or from disk if not in memory.
+     * @return Cached entry, null if not cached.
+     */
+    private Uni<ParsedContent> load(String key) {
+        var cached = this.cache.getIfPresent(key);
+        if(null != cached || null == this.dataDir)
+            return Uni.createFrom().item(cached);
+
+        // Concurrent requests for this DOI share the read
+        return this.coalescer.coalesce("loadDOI", null, key, Uni.createFrom().item(() -> {
+                var file = fileOf(key);
+                if(!Files.exists(file))
+                    return null;
+
+                try {
+                    var persisted = this.objectMapper.readValue(file.toFile(), ParsedContent.class);
+                    this.cache.put(key, persisted);
+                    return persisted;
+                }
+                catch(IOException e) {
+                    LOG.errorf("Cannot read parsed DOI from %s, %s", file, e.getMessage());
+                    return null;
+                }
+            })
+            .runSubscriptionOn(Infrastructure.getDefaultWorkerPool()));
+    }
+
+    /**
+     * Put entry in memory, then persist it to disk.
+     * Writes to a temporary file first, so that a crash never leaves a partial entry behind.
+     * @return The stored entry.
+     */
+    private Uni<ParsedContent> store(String key, ParsedContent parsed) {
+        this.cache.put(key, parsed);
+        if(null == this.dataDir)
+            return Uni.createFrom().item(parsed);
+
+        return Uni.createFrom().item(() -> {
+                var file = fileOf(key);
+                try {
+                    var temp = Files.createTempFile(this.dataDir, "doi", ".tmp");
+                    this.objectMapper.writeValue(temp.toFile(), parsed);
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                catch(IOException e) {
+                    // Still cached in memory
+                    LOG.errorf("Cannot persist parsed DOI to %s, %s", file, e.getMessage());
+                }
+
+                return parsed;
+            })
+            .runSubscriptionOn(Infrastructure.getDefaultWorkerPool());
+    }
+
+    /**
+     * Remove entry from memory and disk.
+     */
+    private void evict(String key) {
+        this.cache.invalidate(key);
+        if(null != this.dataDir) {
+            try {
+                Files.deleteIfExists(fileOf(key));
+            }
+            catch(IOException e) {
+                LOG.errorf("Cannot delete parsed DOI, %s", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Sweep the data folder on a worker thread.
+     */
+    private void sweepSoon() {
+        Infrastructure.getDefaultWorkerPool().execute(this::sweep);
+    }
+
+    /**
+     * Delete the persisted entries that were not validated for too long, then the
+     * least recently validated ones until the data folder is within its size limit.
+     * Entries are rewritten each time they are validated, so their modification time
+     * tells when they were last validated. Leftover temporary files are deleted too.
+     */
+    private void sweep() {
+        var cacheConfig = config.parserCache();
+        final long now = System.currentTimeMillis();
+        final long maxBytes = cacheConfig.maxDiskSize() * 1024 * 1024;
+
+        List<Path> files;
+        try(Stream<Path> listing = Files.list(this.dataDir)) {
+            files = listing.collect(Collectors.toList());
+        }
+        catch(IOException e) {
+            LOG.errorf("Cannot list persisted DOIs, %s", e.getMessage());
+            return;
+        }
+
+        List<Path> kept = new ArrayList<>(files.size());
+        List<BasicFileAttributes> attributes = new ArrayList<>(files.size());
+        long totalBytes = 0;
+        int deleted = 0;
+        for(var file : files) {
+            try {
+                var attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                final long age = now - attrs.lastModifiedTime().toMillis();
+                final boolean temporary = file.getFileName().toString().endsWith(".tmp");
+                if((temporary && age > SWEEP_INTERVAL) || (!temporary && age > cacheConfig.maxDiskAge())) {
+                    if(Files.deleteIfExists(file))
+                        deleted++;
+                    continue;
+                }
+
+                if(!temporary) {
+                    kept.add(file);
+                    attributes.add(attrs);
+                    totalBytes += attrs.size();
+                }
+            }
+            catch(IOException e) {
+                LOG.warnf("Cannot sweep persisted DOI %s, %s", file, e.getMessage());
+            }
+        }
+
+        if(totalBytes > maxBytes) {
+            // Over the size limit, delete least recently validated first
+            List<Integer> order = new ArrayList<>(kept.size());
+            for(int i = 0; i < kept.size(); i++)
+                order.add(i);
+            order.sort(Comparator.comparing(i -> attributes.get(i).lastModifiedTime()));
+
+            for(int i = 0; i < order.size() && totalBytes > maxBytes; i++) {
+                var file = kept.get(order.get(i));
+                try {
+                    if(Files.deleteIfExists(file))
+                        deleted++;
+                    totalBytes -= attributes.get(order.get(i)).size();
+                }
+                catch(IOException e) {
+                    LOG.warnf("Cannot delete persisted DOI %s, %s", file, e.getMessage());
+                }
+            }
+        }
+
+        if(deleted > 0)
+            LOG.infof("Deleted %d persisted DOI(s), %d bytes left", deleted, totalBytes);
+    }
+
+    /**
+     * Get the file an entry is persisted in.
+     */
+    private Path fileOf(String key) {
+        return this.dataDir.resolve(sha256(key.getBytes(StandardCharsets.UTF_8)) + ".json");
+    }
+
+    /**
+     * Hash the content, to be used as entity tag.
+     */
+    private String digest(ParsedContent parsed) {
+        try {
+            return sha256(this.objectMapper.writeValueAsBytes(parsed.content));
+        }
+        catch(IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Compute the SHA-256 hash of some bytes.
+     * @return URL-safe Base64 encoded hash.
+     */
+    private static String sha256(byte[] bytes) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(md.digest(bytes));
+        }
+        catch (NoSuchAlgorithmException e) {
+            // Every Java platform must support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Check if an error signals that the data set no longer exists.
+     */
+    private static boolean isGone(Throwable e) {
+        if(!(e instanceof WebApplicationException))
+            return false;
+
+        int status = ((WebApplicationException)e).getResponse().getStatus();
+        return Status.NOT_FOUND.getStatusCode() == status || Status.GONE.getStatusCode() == status;
+    }
+}
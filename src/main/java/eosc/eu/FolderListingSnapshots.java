@@ -0,0 +1,310 @@
+package eosc.eu;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.jboss.logging.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import eosc.eu.model.StorageContent;
+import eosc.eu.model.StorageElement;
+
+
+/***
+ * Short-lived snapshots of folder listings, from which paginated listings are served.
+ * A snapshot holds the filtered and sorted content of a folder in a compact form (arrays of
+ * names, sizes and timestamps), and is only visible to the access token that created it.
+ * Pages are addressed by opaque cursors, which encode the snapshot and the offset in it,
+ * a cursor is only valid for the folder and destination the snapshot was taken of.
+ */
+@ApplicationScoped
+public class FolderListingSnapshots {
+
+    private static final Logger LOG = Logger.getLogger(FolderListingSnapshots.class);
+
+    @Inject
+    TransfersConfig config;
+
+    private Cache<String, Snapshot> snapshots;
+
+
+    /***
+     * Filtering and sorting to apply to a folder listing
+     */
+    public static class ListingOptions {
+        public String sort;             // Field to sort by: "name", "size", or "modified", prefix with "-" for descending order
+        public String prefix;           // Only keep elements with names starting with this
+        public Long minSize;            // Only keep elements at least this large
+        public Long maxSize;            // Only keep elements at most this large
+        public Long modifiedAfter;      // Only keep elements modified after this time (milliseconds since epoch)
+        public Long modifiedBefore;     // Only keep elements modified before this time (milliseconds since epoch)
+
+        /**
+         * Check if any filtering or sorting is requested
+         */
+        public boolean isEmpty() {
+            return null == sort && null == prefix && null == minSize && null == maxSize &&
+                   null == modifiedAfter && null == modifiedBefore;
+        }
+    }
+
+    /***
+     * Compact, immutable content of a folder
+     */
+    public static class Snapshot {
+        final String id;
+        final String tokenHash;
+        final String destination;
+        final String folderUrl;     // Ends with separator
+        final String[] names;
+        final long[] sizes;
+        final long[] created;       // Milliseconds since epoch, 0 if not known
+        final long[] accessed;
+        final long[] modified;
+        final BitSet folders;
+
+        Snapshot(String id, String tokenHash, String destination, String folderUrl, List<StorageElement> elements) {
+            final int count = elements.size();
+            this.id = id;
+            this.tokenHash = tokenHash;
+            this.destination = destination;
+            this.folderUrl = withSeparator(folderUrl);
+            this.names = new String[count];
+            this.sizes = new long[count];
+            this.created = new long[count];
+            this.accessed = new long[count];
+            this.modified = new long[count];
+            this.folders = new BitSet(count);
+
+            for(int i = 0; i < count; i++) {
+                var se = elements.get(i);
+                this.names[i] = se.name;
+                this.sizes[i] = se.size;
+                this.created[i] = toMillis(se.createdAt);
+                this.accessed[i] = toMillis(se.accessedAt);
+                this.modified[i] = toMillis(se.modifiedAt);
+                this.folders.set(i, se.isFolder);
+            }
+        }
+
+        /**
+         * Number of elements in the snapshot
+         */
+        public int size() { return this.names.length; }
+
+        /**
+         * Check if this is a snapshot of the specified folder in the specified destination
+         */
+        public boolean isOf(String destination, String folderUrl) {
+            return this.destination.equals(destination) && null != folderUrl &&
+                   this.folderUrl.equals(withSeparator(folderUrl));
+        }
+
+        /**
+         * Rebuild a storage element from the snapshot
+         */
+        StorageElement element(int i) {
+            var se = new StorageElement();
+            se.name = this.names[i];
+            se.size = this.sizes[i];
+            se.createdAt = toDate(this.created[i]);
+            se.accessedAt = toDate(this.accessed[i]);
+            se.modifiedAt = toDate(this.modified[i]);
+            se.isFolder = this.folders.get(i);
+            se.accessUrl = this.folderUrl + this.names[i];
+            return se;
+        }
+
+        private static String withSeparator(String folderUrl) { return folderUrl.endsWith("/") ? folderUrl : folderUrl + "/"; }
+
+        private static long toMillis(Date date) { return (null != date) ? date.getTime() : 0; }
+
+        private static Date toDate(long millis) { return (0 != millis) ? new Date(millis) : null; }
+    }
+
+    /***
+     * Position in a snapshot, decoded from a cursor
+     */
+    public static class Cursor {
+        public final String snapshotId;
+        public final int offset;
+
+        Cursor(String snapshotId, int offset) {
+            this.snapshotId = snapshotId;
+            this.offset = offset;
+        }
+    }
+
+
+    /***
+     * Create the snapshot cache and register its metrics
+     */
+    @PostConstruct
+    void init() {
+        var listingConfig = config.storage().listing();
+        this.snapshots = Caffeine.newBuilder()
+                            .expireAfterAccess(Duration.ofMillis(listingConfig.snapshotTtl()))
+                            .maximumWeight(listingConfig.maxEntries())
+                            .weigher((String id, Snapshot snapshot) -> Math.max(1, snapshot.size()))
+                            .recordStats()
+                            .build();
+
+        CaffeineCacheMetrics.monitor(Metrics.globalRegistry, this.snapshots, "folderListing");
+    }
+
+    /**
+     * Create a snapshot from the content of a folder.
+     * @param auth The access token that listed the folder, only this token can read the snapshot.
+     * @param destination The destination storage the folder was listed from.
+     * @param folderUrl The link to the listed folder.
+     * @param content The content of the folder.
+     * @param options The filters and sorting to apply.
+     * @return The new snapshot.
+     */
+    public Snapshot create(String auth, String destination, String folderUrl, StorageContent content, ListingOptions options) {
+
+        // Filter
+        List<StorageElement> elements = new ArrayList<>(content.elements.size());
+        for(var se : content.elements) {
+            if(null != options.prefix && (null == se.name || !se.name.startsWith(options.prefix)))
+                continue;
+            if(null != options.minSize && se.size < options.minSize)
+                continue;
+            if(null != options.maxSize && se.size > options.maxSize)
+                continue;
+            if(null != options.modifiedAfter && (null == se.modifiedAt || se.modifiedAt.getTime() <= options.modifiedAfter))
+                continue;
+            if(null != options.modifiedBefore && (null == se.modifiedAt || se.modifiedAt.getTime() >= options.modifiedBefore))
+                continue;
+
+            elements.add(se);
+        }
+
+        // Sort
+        var comparator = comparator(options.sort);
+        if(null != comparator)
+            elements.sort(comparator);
+
+        var snapshot = new Snapshot(UUID.randomUUID().toString(), TokenHash.of(auth), destination, folderUrl, elements);
+        this.snapshots.put(snapshot.id, snapshot);
+
+        LOG.debugf("Created snapshot with %d of %d element(s) of folder %s", snapshot.size(), content.count, folderUrl);
+
+        return snapshot;
+    }
+
+    /**
+     * Get a snapshot.
+     * @param auth The access token, must be the one that created the snapshot.
+     * @param snapshotId The ID of the snapshot.
+     * @return The snapshot, null if expired or created with another access token.
+     *         Callers must check the snapshot is of the requested folder, see {@link Snapshot#isOf}.
+     */
+    public Snapshot get(String auth, String snapshotId) {
+        var snapshot = this.snapshots.getIfPresent(snapshotId);
+        if(null == snapshot || !snapshot.tokenHash.equals(TokenHash.of(auth)))
+            return null;
+
+        return snapshot;
+    }
+
+    /**
+     * Read a page of elements from a snapshot.
+     * @param snapshot The snapshot to read from.
+     * @param offset The index of the first element to return.
+     * @param pageSize The maximum number of elements to return, 0 returns all remaining elements.
+     * @return The elements, with a cursor to the next page if there are more elements.
+     */
+    public StorageContent page(Snapshot snapshot, int offset, int pageSize) {
+
+        final int start = Math.max(0, Math.min(offset, snapshot.size()));
+        final int end = (pageSize > 0) ? (int)Math.min((long)start + pageSize, snapshot.size()) : snapshot.size();
+
+        var content = new StorageContent(end - start);
+        for(int i = start; i < end; i++)
+            content.elements.add(snapshot.element(i));
+
+        content.count = content.elements.size();
+        content.total = snapshot.size();
+        if(end < snapshot.size())
+            content.nextCursor = encodeCursor(snapshot.id, end);
+
+        return content;
+    }
+
+    /**
+     * Build an opaque cursor.
+     */
+    private static String encodeCursor(String snapshotId, int offset) {
+        var cursor = snapshotId + ":" + offset;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode an opaque cursor.
+     * @return Position in a snapshot, null if the cursor is not valid.
+     */
+    public static Cursor decodeCursor(String cursor) {
+        try {
+            var decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            var separator = decoded.lastIndexOf(':');
+            if(separator <= 0)
+                return null;
+
+            int offset = Integer.parseInt(decoded.substring(separator + 1));
+            return (offset >= 0) ? new Cursor(decoded.substring(0, separator), offset) : null;
+        }
+        catch(IllegalArgumentException e) {
+            // Also catches NumberFormatException
+            return null;
+        }
+    }
+
+    /**
+     * Build comparator for the requested sorting.
+     * @param sort Field to sort by, prefixed with "-" for descending order.
+     * @return Comparator, null if no (or unknown) sorting requested.
+     */
+    private static Comparator<StorageElement> comparator(String sort) {
+        if(null == sort || sort.isEmpty())
+            return null;
+
+        boolean descending = sort.startsWith("-");
+        Comparator<StorageElement> comparator;
+        switch(descending ? sort.substring(1) : sort) {
+            case "name":
+                comparator = Comparator.comparing(se -> (null != se.name) ? se.name : "");
+                break;
+            case "size":
+                comparator = Comparator.comparingLong(se -> se.size);
+                break;
+            case "modified":
+                comparator = Comparator.comparingLong(se -> (null != se.modifiedAt) ? se.modifiedAt.getTime() : 0);
+                break;
+            default:
+                return null;
+        }
+
+        return descending ? comparator.reversed() : comparator;
+    }
+
+    /**
+     * Check if the requested sorting is supported.
+     */
+    public static boolean isValidSort(String sort) {
+        return null == sort || sort.isEmpty() || null != comparator(sort);
+    }
+}
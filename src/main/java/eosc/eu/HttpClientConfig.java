@@ -0,0 +1,34 @@
+package eosc.eu;
+
+import io.smallrye.config.WithDefault;
+
+
+/***
+ * The configuration of the HTTP connections to a service (transfer service or parser)
+ */
+public interface HttpClientConfig {
+
+    @WithDefault("50")
+    public int maxPoolSize(); // Maximum number of connections to the service
+
+    @WithDefault("-1")
+    public int maxWaitQueueSize(); // Maximum number of requests waiting for a connection, -1 for unbounded
+
+    @WithDefault("true")
+    public boolean keepAlive(); // Reuse connections for subsequent requests
+
+    @WithDefault("60")
+    public int keepAliveTimeout(); // seconds, after which a kept alive connection is closed
+
+    @WithDefault("120000")
+    public int idleTimeout(); // milliseconds, after which a connection without traffic is closed
+
+    @WithDefault("1000")
+    public int poolCleanerPeriod(); // milliseconds, how often expired connections are evicted from the pool
+
+    @WithDefault("5000")
+    public int connectTimeout(); // milliseconds
+
+    @WithDefault("false")
+    public boolean http2(); // Use HTTP/2 (negotiated with ALPN), multiplexing requests over fewer connections
+}
@@ -0,0 +1,103 @@
+package eosc.eu;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.mutiny.core.http.HttpClient;
+import io.vertx.mutiny.core.http.HttpClientRequest;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/***
+ * Connection level metrics of the HTTP clients used to call services, tagged with the name of the service:
+ * open connections, pool utilization, time requests wait for a connection, and TLS handshakes.
+ * Services with several replicas have one client per replica, told apart by the host tag.
+ * Only covers the clients created by HttpClients.createStreamingClient(), the connections
+ * of REST clients are managed by the REST client itself and cannot be observed.
+ */
+public class HttpClientMetrics {
+
+    private static final Map<HttpClient, HttpClientMetrics> monitored = new ConcurrentHashMap<>();
+
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final Counter handshakes;
+    private final Timer poolWait;
+
+
+    /***
+     * Constructor, registers the metrics
+     */
+    private HttpClientMetrics(String name, String host, int maxPoolSize) {
+        final double poolSize = Math.max(1, maxPoolSize);
+
+        Gauge.builder("http.client.connections.open", this.openConnections, AtomicInteger::get)
+             .tag("client", name)
+             .tag("host", host)
+             .description("Open connections to the service")
+             .register(Metrics.globalRegistry);
+
+        Gauge.builder("http.client.pool.utilization", this.openConnections, open -> open.get() / poolSize)
+             .tag("client", name)
+             .tag("host", host)
+             .description("Fraction of the connection pool in use")
+             .register(Metrics.globalRegistry);
+
+        this.handshakes = Counter.builder("http.client.tls.handshakes")
+                             .tag("client", name)
+                             .tag("host", host)
+                             .description("TLS handshakes, one for each new secure connection")
+                             .register(Metrics.globalRegistry);
+
+        this.poolWait = Timer.builder("http.client.pool.wait")
+                             .tag("client", name)
+                             .tag("host", host)
+                             .description("Time requests waited for a connection")
+                             .register(Metrics.globalRegistry);
+    }
+
+    /***
+     * Start collecting metrics for an HTTP client.
+     * @param client The client to monitor.
+     * @param name The name of the service the client calls, used as tag.
+     * @param host The host (and port) the client calls, used as tag.
+     * @param maxPoolSize The maximum number of connections of the client.
+     */
+    public static void monitor(HttpClient client, String name, String host, int maxPoolSize) {
+        var metrics = new HttpClientMetrics(name, host, maxPoolSize);
+        monitored.put(client, metrics);
+
+        client.connectionHandler(connection -> {
+            // New connection established
+            metrics.openConnections.incrementAndGet();
+            if(connection.isSsl())
+                metrics.handshakes.increment();
+
+            connection.closeHandler(() -> metrics.openConnections.decrementAndGet());
+        });
+    }
+
+    /***
+     * Create a request, recording how long it waited for a connection.
+     * @param client The client to send the request with.
+     * @param options The request to create.
+     * @return The request, ready to be sent.
+     */
+    public static Uni<HttpClientRequest> request(HttpClient client, RequestOptions options) {
+        final var metrics = monitored.get(client);
+        if(null == metrics)
+            return client.request(options);
+
+        return Uni.createFrom().deferred(() -> {
+            final long start = System.nanoTime();
+            return client.request(options)
+                .invoke(request -> metrics.poolWait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        });
+    }
+}
@@ -0,0 +1,109 @@
+package eosc.eu;
+
+import io.quarkus.arc.Arc;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.core.http.HttpClient;
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.eclipse.microprofile.rest.client.RestClientBuilder;
+import org.jboss.logging.Logger;
+
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/***
+ * Creates the HTTP clients used to call services, with the connection settings of each service.
+ * Clients are meant to be created once per service and shared by all requests, so that
+ * connections (and their TLS sessions) get reused.
+ */
+public class HttpClients {
+
+    private static final Logger LOG = Logger.getLogger(HttpClients.class);
+
+    // Connection settings understood by the reactive REST client
+    private static final String CONNECTION_POOL_SIZE = "io.quarkus.rest.client.connection-pool-size";
+    private static final String CONNECTION_TTL = "io.quarkus.rest.client.connection-ttl";
+    private static final String KEEP_ALIVE_ENABLED = "io.quarkus.rest.client.keep-alive-enabled";
+
+
+    /***
+     * Create an HTTP client to stream responses from a service.
+     * Uses the same TLS trust settings as the REST clients, and registers connection metrics.
+     * @param url The base URL of the service.
+     * @param config The connection settings of the service.
+     * @param name The name of the service, used to tag the metrics.
+     * @return HTTP client, null on error.
+     */
+    public static HttpClient createStreamingClient(URL url, HttpClientConfig config, String name) {
+
+        var vertx = Arc.container().instance(Vertx.class);
+        if(!vertx.isAvailable()) {
+            LOG.error("Cannot create HTTP client, Vert.x not available");
+            return null;
+        }
+
+        final int maxPoolSize = Math.max(1, config.maxPoolSize());
+        final int keepAliveTimeout = Math.max(1, config.keepAliveTimeout()); // 0 would never expire connections
+        boolean ssl = "https".equalsIgnoreCase(url.getProtocol());
+        boolean trustAll = ConfigProvider.getConfig().getOptionalValue("quarkus.tls.trust-all", Boolean.class).orElse(false);
+        var options = new HttpClientOptions()
+                            .setSsl(ssl)
+                            .setTrustAll(trustAll)
+                            .setVerifyHost(!trustAll)
+                            .setMaxPoolSize(maxPoolSize)
+                            .setHttp2MaxPoolSize(maxPoolSize)
+                            .setMaxWaitQueueSize(config.maxWaitQueueSize())
+                            .setKeepAlive(config.keepAlive())
+                            .setKeepAliveTimeout(keepAliveTimeout)
+                            .setHttp2KeepAliveTimeout(keepAliveTimeout)
+                            .setIdleTimeout(config.idleTimeout())
+                            .setIdleTimeoutUnit(TimeUnit.MILLISECONDS)
+                            .setPoolCleanerPeriod(config.poolCleanerPeriod())
+                            .setConnectTimeout(config.connectTimeout());
+
+        if(config.http2()) {
+            // Negotiate HTTP/2 during the TLS handshake, fall back to HTTP/1.1
+            options.setProtocolVersion(HttpVersion.HTTP_2)
+                   .setUseAlpn(ssl)
+                   .setAlpnVersions(List.of(HttpVersion.HTTP_2, HttpVersion.HTTP_1_1));
+        }
+
+        var client = vertx.get().createHttpClient(options);
+        HttpClientMetrics.monitor(client, name, url.getAuthority(), maxPoolSize);
+
+        LOG.debugf("Created HTTP client for %s with up to %d connections%s",
+                   name, maxPoolSize, config.http2() ? " (HTTP/2)" : "");
+
+        return client;
+    }
+
+    /***
+     * Create a builder for a REST client, with the connection settings of a service.
+     * The REST client creates (and pools) its own connections, so they are not covered
+     * by HttpClientMetrics, only the streaming clients are.
+     * @param url The base URL of the service.
+     * @param config The connection settings of the service.
+     * @return REST client builder.
+     */
+    public static RestClientBuilder restClientBuilder(URL url, HttpClientConfig config) {
+
+        var builder = RestClientBuilder.newBuilder()
+                        .baseUrl(url)
+                        .connectTimeout(config.connectTimeout(), TimeUnit.MILLISECONDS)
+                        .property(CONNECTION_POOL_SIZE, Math.max(1, config.maxPoolSize()));
+
+        if(config.keepAlive())
+            // Close pooled connections after the keep-alive timeout
+            builder.property(CONNECTION_TTL, Math.max(1, config.keepAliveTimeout()));
+        else
+            // Do not reuse connections, where the client does not support disabling keep-alive
+            // expire them as soon as possible (a TTL of 0 means connections never expire)
+            builder.property(KEEP_ALIVE_ENABLED, false)
+                   .property(CONNECTION_TTL, 1);
+
+        return builder;
+    }
+}
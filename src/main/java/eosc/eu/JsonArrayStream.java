@@ -0,0 +1,142 @@
+package eosc.eu;
+
+import io.smallrye.mutiny.Multi;
+import io.vertx.core.parsetools.JsonEventType;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.mutiny.core.http.HttpClient;
+import io.vertx.mutiny.core.http.HttpClientRequest;
+import io.vertx.mutiny.core.http.HttpClientResponse;
+import io.vertx.mutiny.core.parsetools.JsonParser;
+
+import java.util.function.Function;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response.Status;
+
+
+/**
+ * Streams the elements of a JSON array returned by an HTTP endpoint.
+ * The response is parsed incrementally, each element is emitted as soon as it is parsed,
+ * so memory use does not depend on the number of elements in the array.
+ */
+public class JsonArrayStream {
+
+    /**
+     * Send request and stream the elements of the JSON array in the response body.
+     * @param client The HTTP client to send the request with.
+     * @param options The request to send.
+     * @param elementType The type to map each element of the array to.
+     * @return The elements of the array, fails with WebApplicationException if the response is not successful.
+     */
+    public static <T> Multi<T> request(HttpClient client, RequestOptions options, Class<T> elementType) {
+
+        return send(client, options, response -> {
+            // Parse response body incrementally, emitting each element of the (top level) array
+            return JsonParser.newParser(response)
+                .objectValueMode()
+                .toMulti()
+                .filter(event -> JsonEventType.VALUE == event.type())
+                .map(event -> event.mapTo(elementType));
+        });
+    }
+
+    /**
+     * Send request and stream the elements of a JSON array in a field of the object in the response body.
+     * Everything else in the response body is skipped.
+     * @param client The HTTP client to send the request with.
+     * @param options The request to send.
+     * @param field The name of the field (of the top level object) that holds the array.
+     * @param elementType The type to map each element of the array to.
+     * @return The elements of the array, fails with WebApplicationException if the response is not successful.
+     */
+    public static <T> Multi<T> request(HttpClient client, RequestOptions options, String field, Class<T> elementType) {
+
+        return send(client, options, response -> {
+            // Parse response body incrementally, switching to value mode only inside the array,
+            // so that only its elements get mapped to objects
+            var parser = JsonParser.newParser(response);
+            int[] depth = { 0 };
+            boolean[] inArray = { false };
+
+            return parser.toMulti()
+                .filter(event -> {
+                    switch(event.type()) {
+                        case START_ARRAY:
+                            if(!inArray[0] && 1 == depth[0] && field.equals(event.fieldName())) {
+                                inArray[0] = true;
+                                parser.objectValueMode();
+                            }
+                            depth[0]++;
+                            return false;
+                        case START_OBJECT:
+                            depth[0]++;
+                            return false;
+                        case END_ARRAY:
+                            depth[0]--;
+                            if(inArray[0] && 1 == depth[0]) {
+                                inArray[0] = false;
+                                parser.objectEventMode();
+                            }
+                            return false;
+                        case END_OBJECT:
+                            depth[0]--;
+                            return false;
+                        default:
+                            return inArray[0] && 2 == depth[0];
+                    }
+                })
+                .map(event -> event.mapTo(elementType));
+        });
+    }
+
+    /**
+     * Send GET request and stream the elements of the JSON array in the response body.
+     * @param client The HTTP client to send the request with.
+     * @param options The request to send, method will be set to GET.
+     * @param elementType The type to map each element of the array to.
+     * @return The elements of the array, fails with WebApplicationException if the response is not successful.
+     */
+    public static <T> Multi<T> get(HttpClient client, RequestOptions options, Class<T> elementType) {
+        return request(client, options.setMethod(HttpMethod.GET), elementType);
+    }
+
+    /**
+     * Send GET request and stream the elements of a JSON array in a field of the object in the response body.
+     * @param client The HTTP client to send the request with.
+     * @param options The request to send, method will be set to GET.
+     * @param field The name of the field (of the top level object) that holds the array.
+     * @param elementType The type to map each element of the array to.
+     * @return The elements of the array, fails with WebApplicationException if the response is not successful.
+     */
+    public static <T> Multi<T> get(HttpClient client, RequestOptions options, String field, Class<T> elementType) {
+        return request(client, options.setMethod(HttpMethod.GET), field, elementType);
+    }
+
+    /**
+     * Send request, then parse the response body if the response is successful.
+     */
+    private static <T> Multi<T> send(HttpClient client, RequestOptions options, Function<HttpClientResponse, Multi<T>> parse) {
+
+        return HttpClientMetrics.request(client, options)
+            .onItem().transformToMulti(request -> send(request, parse));
+    }
+
+    /**
+     * Send request, the request is reset (aborting the exchange) if the stream is canceled before it ends.
+     */
+    private static <T> Multi<T> send(HttpClientRequest request, Function<HttpClientResponse, Multi<T>> parse) {
+
+        return request.send()
+            .onItem().transformToMulti(response -> {
+                if(Status.OK.getStatusCode() != response.statusCode()) {
+                    // Not the expected array, consume the body and report the status
+                    final int status = response.statusCode();
+                    return response.body()
+                        .onItem().transformToMulti(body -> Multi.createFrom().<T>failure(new WebApplicationException(status)));
+                }
+
+                return parse.apply(response);
+            })
+            .onCancellation().invoke(() -> request.reset());
+    }
+}
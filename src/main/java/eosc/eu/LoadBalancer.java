@@ -0,0 +1,241 @@
+package eosc.eu;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+import eosc.eu.TransfersConfig.LoadBalancingConfig;
+
+
+/***
+ * Spreads the calls to a service over its replicas (e.g. several frontends of the same transfer service).
+ * Picks the replica with the fewest calls in progress, or with the lowest latency (EWMA, weighted by
+ * the calls in progress). Replicas that fail repeatedly are ejected for a while.
+ * Idempotent calls can be hedged: if the first replica did not answer in time, the call
+ * is also sent to a second replica, and whichever answers first wins.
+ * @param <C> The type of the client used to call a replica.
+ */
+public class LoadBalancer<C> {
+
+    private static final Logger LOG = Logger.getLogger(LoadBalancer.class);
+    private static final double EWMA_WEIGHT = 0.3; // Weight of the latest latency
+
+    private final String service;
+    private final LoadBalancingConfig config;
+    private final List<Replica<C>> replicas;
+
+
+    /***
+     * A replica of the service
+     */
+    public static class Replica<C> {
+        public final String url;
+        public final C client;
+
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private volatile double ewma = 0;           // milliseconds, 0 until first call completes
+        private int consecutiveFailures = 0;        // Guarded by this
+        private volatile long ejectedUntil = 0;     // milliseconds since epoch
+
+        Replica(String url, C client) {
+            this.url = url;
+            this.client = client;
+        }
+
+        boolean isEjected(long now) { return now < this.ejectedUntil; }
+    }
+
+
+    /***
+     * Constructor
+     * @param service The name of the service, used as tag.
+     * @param config The load balancing configuration of the service.
+     */
+    public LoadBalancer(String service, LoadBalancingConfig config) {
+        this.service = service;
+        this.config = config;
+        this.replicas = new ArrayList<>();
+    }
+
+    /***
+     * Add a replica, registers its calls in progress as metric.
+     * @param url The base URL of the replica.
+     * @param client The client to call the replica with.
+     * @return This load balancer, to chain calls.
+     */
+    public LoadBalancer<C> add(String url, C client) {
+        var replica = new Replica<>(url, client);
+        this.replicas.add(replica);
+
+        Gauge.builder("transfer.service.replica.outstanding", replica.outstanding, AtomicInteger::get)
+             .tag("service", this.service)
+             .tag("url", url)
+             .description("Calls in progress to the replica")
+             .register(Metrics.globalRegistry);
+
+        return this;
+    }
+
+    /***
+     * Get the number of replicas.
+     */
+    public int size() { return this.replicas.size(); }
+
+    /***
+     * Call the service on the best replica.
+     * @param call The call to make with the client of the selected replica.
+     * @param timeout The maximum duration of the call (milliseconds).
+     * @param timeoutError The id of the error to fail with when the call takes too long.
+     * @return Result of the call.
+     */
+    public <T> Uni<T> call(Function<C, Uni<T>> call, long timeout, String timeoutError) {
+        return Uni.createFrom().deferred(() -> invoke(pick(null), call, timeout, timeoutError, () -> false));
+    }
+
+    /***
+     * Call the service on the best replica, and also on the next best replica if
+     * the first did not answer within the hedging delay. Only use for idempotent calls.
+     * A replica that lost to the hedged call counts as failed, as it was slower than the hedging delay.
+     * @param call The call to make with the client of the selected replica(s).
+     * @param delay Milliseconds to wait for the first replica, no hedging if not positive.
+     * @param timeout The maximum duration of the call (milliseconds), shared by both replicas.
+     * @param timeoutError The id of the error to fail with when the call takes too long.
+     * @return Result of the call that completes first.
+     */
+    public <T> Uni<T> hedged(Function<C, Uni<T>> call, long delay, long timeout, String timeoutError) {
+        if(delay <= 0 || delay >= timeout || this.replicas.size() < 2)
+            return call(call, timeout, timeoutError);
+
+        return Uni.createFrom().deferred(() -> {
+            final var first = pick(null);
+            final AtomicBoolean hedgeWon = new AtomicBoolean(false);
+            Uni<T> primary = invoke(first, call, timeout, timeoutError, hedgeWon::get);
+            Uni<T> backup = Uni.createFrom().nullItem()
+                .onItem().delayIt().by(Duration.ofMillis(delay))
+                .chain(unused -> {
+                    var second = pick(first);
+                    if(null == second)
+                        return Uni.createFrom().<T>nothing();
+
+                    LOG.debugf("Hedging call to %s after %dms, also calling %s", first.url, delay, second.url);
+                    return invoke(second, call, timeout - delay, timeoutError, () -> false)
+                        .onItem().invoke(() -> hedgeWon.set(true));
+                });
+
+            return Uni.combine().any().of(primary, backup);
+        });
+    }
+
+    /***
+     * Stream from the service, from the best replica.
+     * @param stream The stream to open with the selected replica.
+     * @param timeout The maximum wait for each item (milliseconds).
+     * @param timeoutError The id of the error to fail with when an item takes too long.
+     * @return The stream.
+     */
+    public <T> Multi<T> stream(Function<Replica<C>, Multi<T>> stream, long timeout, String timeoutError) {
+        return Multi.createFrom().deferred(() -> {
+            final var replica = pick(null);
+            final long start = System.nanoTime();
+            replica.outstanding.incrementAndGet();
+
+            return Deadline.limit(stream.apply(replica), timeout, timeoutError)
+                .onCompletion().invoke(() -> record(replica, start, null))
+                .onFailure().invoke(e -> record(replica, start, e))
+                .onTermination().invoke(replica.outstanding::decrementAndGet);
+        });
+    }
+
+    /***
+     * Call a replica, tracking the calls in progress and the outcome.
+     * The call is bound by its timeout here, so that a replica that hangs is recorded as failed
+     * (rather than just canceled by the caller) and eventually ejected.
+     * @param lost Tells if the call was canceled because a hedged call to another replica won.
+     */
+    private <T> Uni<T> invoke(Replica<C> replica, Function<C, Uni<T>> call, long timeout, String timeoutError, BooleanSupplier lost) {
+        final long start = System.nanoTime();
+        replica.outstanding.incrementAndGet();
+
+        return Deadline.limit(call.apply(replica.client), timeout, timeoutError)
+            .onItemOrFailure().invoke((item, e) -> record(replica, start, e))
+            .onCancellation().invoke(() -> {
+                // Canceled by the caller (e.g. client went away) says nothing about the replica
+                if(lost.getAsBoolean())
+                    record(replica, start, new TransferServiceException(timeoutError));
+            })
+            .onTermination().invoke(replica.outstanding::decrementAndGet);
+    }
+
+    /***
+     * Select the best replica that is not ejected.
+     * @param exclude Replica not to select, null for none.
+     * @return Selected replica, null if there is no other replica than the excluded one.
+     */
+    private Replica<C> pick(Replica<C> exclude) {
+        final long now = System.currentTimeMillis();
+        final boolean byLatency = "ewma".equalsIgnoreCase(this.config.strategy());
+
+        Replica<C> best = null;
+        double bestScore = Double.MAX_VALUE;
+        int ties = 0;
+        for(var replica : this.replicas) {
+            if(replica == exclude || replica.isEjected(now))
+                continue;
+
+            int outstanding = replica.outstanding.get();
+            double score = byLatency ? Math.max(1, replica.ewma) * (outstanding + 1) : outstanding;
+            if(score < bestScore) {
+                best = replica;
+                bestScore = score;
+                ties = 1;
+            }
+            else if(score == bestScore && 0 == ThreadLocalRandom.current().nextInt(++ties)) {
+                // Spread calls among equally good replicas
+                best = replica;
+            }
+        }
+
+        if(null != best || null != exclude)
+            return best;
+
+        // All replicas ejected, use the one that gets back in soonest
+        for(var replica : this.replicas)
+            if(null == best || replica.ejectedUntil < best.ejectedUntil)
+                best = replica;
+
+        return best;
+    }
+
+    /***
+     * Record the outcome of a call, ejects the replica after too many failures in a row.
+     */
+    private void record(Replica<C> replica, long start, Throwable error) {
+        final double latency = (System.nanoTime() - start) / (double)TimeUnit.MILLISECONDS.toNanos(1);
+        replica.ewma = (replica.ewma <= 0) ? latency : EWMA_WEIGHT * latency + (1 - EWMA_WEIGHT) * replica.ewma;
+
+        synchronized(replica) {
+            if(!OperationGuard.isFailure(error)) {
+                replica.consecutiveFailures = 0;
+                return;
+            }
+
+            if(++replica.consecutiveFailures >= Math.max(1, this.config.ejectAfter())) {
+                replica.consecutiveFailures = 0;
+                replica.ejectedUntil = System.currentTimeMillis() + this.config.ejectDuration();
+                LOG.warnf("Ejected %s of %s for %dms", replica.url, this.service, this.config.ejectDuration());
+            }
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package eosc.eu;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.tuples.Tuple2;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+import javax.ws.rs.WebApplicationException;
+
+import eosc.eu.TransfersConfig.AdaptiveTimeoutConfig;
+import eosc.eu.TransfersConfig.CircuitBreakerConfig;
+
+
+/***
+ * Guards the calls of one operation of a transfer service.
+ * Tracks the latency of the calls in a rolling histogram, derives the timeout of the next call from
+ * it (p99 latency times a factor, between a floor and the budget of the operation), and fails fast
+ * with a circuit breaker while too many recent calls failed or were slow.
+ * After a while the breaker lets a few probe calls through (half-open), and closes if they succeed.
+ */
+public class OperationGuard {
+
+    private static final Logger LOG = Logger.getLogger(OperationGuard.class);
+
+    /***
+     * The states of the circuit breaker
+     */
+    public enum State { CLOSED, HALF_OPEN, OPEN }
+
+    private final String service;
+    private final String operation;
+    private final AdaptiveTimeoutConfig timeoutConfig;
+    private final CircuitBreakerConfig breakerConfig;
+    private final Timer latency;
+
+    // Outcomes of the most recent calls, guarded by this
+    private final boolean[] failed;
+    private final boolean[] slow;
+    private int next = 0;
+    private int calls = 0;
+    private int failures = 0;
+    private int slowCalls = 0;
+
+    private volatile State state = State.CLOSED;
+    private long openedAt = 0;
+    private int probesInFlight = 0;
+    private int probesSucceeded = 0;
+
+
+    /***
+     * Constructor, registers the latency histogram and the breaker state as metrics
+     * @param service The name of the transfer service, used as tag.
+     * @param operation The name of the operation, used as tag.
+     * @param timeoutConfig The configuration of adaptive timeouts.
+     * @param breakerConfig The configuration of the circuit breaker.
+     */
+    public OperationGuard(String service, String operation, AdaptiveTimeoutConfig timeoutConfig, CircuitBreakerConfig breakerConfig) {
+        this.service = service;
+        this.operation = operation;
+        this.timeoutConfig = timeoutConfig;
+        this.breakerConfig = breakerConfig;
+
+        final int windowSize = Math.max(1, breakerConfig.windowSize());
+        this.failed = new boolean[windowSize];
+        this.slow = new boolean[windowSize];
+
+        this.latency = Timer.builder("transfer.service.calls")
+                            .tag("service", service)
+                            .tag("operation", operation)
+                            .description("Latency of calls to the transfer service")
+                            .publishPercentiles(0.5, 0.95, 0.99)
+                            .publishPercentileHistogram()
+                            .distributionStatisticExpiry(Duration.ofMillis(Math.max(1000, timeoutConfig.window())))
+                            .distributionStatisticBufferLength(3)
+                            .register(Metrics.globalRegistry);
+
+        Gauge.builder("transfer.service.breaker.state", this, guard -> guard.state.ordinal())
+             .tag("service", service)
+             .tag("operation", operation)
+             .description("State of the circuit breaker, 0 closed, 1 half-open, 2 open")
+             .register(Metrics.globalRegistry);
+    }
+
+    /***
+     * Get the state of the circuit breaker.
+     */
+    public State getState() { return this.state; }
+
+    /***
+     * Call the operation, unless the circuit breaker is open.
+     * @param call The call to the transfer service.
+     * @param budget The maximum duration of the call (milliseconds).
+     * @param timeoutError The id of the error to fail with when the call takes too long.
+     * @return The call, bounded by the adaptive timeout (callers bound it by the deadline of their
+     *         API request, as the call may be shared by several requests, see Coalescer),
+     *         fails with TransferServiceException "serviceUnavailable" while the breaker is open.
+     */
+    public <T> Uni<T> call(Uni<T> call, long budget, String timeoutError) {
+        return call(timeout -> Deadline.limit(call, timeout, timeoutError), budget);
+    }
+
+    /***
+     * Call the operation, unless the circuit breaker is open.
+     * The call bounds itself by the adaptive timeout, e.g. so that the load balancer can tell
+     * which replica of the service was too slow.
+     * @param call Makes the call to the transfer service, given its timeout (milliseconds).
+     * @param budget The maximum duration of the call (milliseconds).
+     * @return The call, fails with TransferServiceException "serviceUnavailable" while the breaker is open.
+     */
+    public <T> Uni<T> call(LongFunction<Uni<T>> call, long budget) {
+
+        return Uni.createFrom().deferred(() -> {
+            final long retryAfter = acquire();
+            if(retryAfter > 0) {
+                // Fail fast
+                return Uni.createFrom().failure(new TransferServiceException("serviceUnavailable", Tuple2.of("retryAfter",
+                                                    String.valueOf(TimeUnit.MILLISECONDS.toSeconds(retryAfter + 999)))));
+            }
+
+            final long start = System.nanoTime();
+            return call.apply(timeout(budget))
+                .onItemOrFailure().invoke((item, e) -> {
+                    if(isDeadlineExceeded(e))
+                        // Cut short by the client, the outcome says nothing about the service
+                        release();
+                    else
+                        record(System.nanoTime() - start, e);
+                })
+                .onCancellation().invoke(this::release);
+        });
+    }
+
+    /***
+     * Get a percentile of the recent latencies of the operation.
+     * @param percentile The percentile, one of 0.5, 0.95, or 0.99.
+     * @return Latency in milliseconds, negative if not enough calls were made yet.
+     */
+    public double percentile(double percentile) {
+        var snapshot = this.latency.takeSnapshot();
+        if(snapshot.count() < Math.max(1, this.timeoutConfig.minSamples()))
+            return -1;
+
+        for(var value : snapshot.percentileValues()) {
+            if(value.percentile() == percentile)
+                return value.value(TimeUnit.MILLISECONDS);
+        }
+
+        return -1;
+    }
+
+    /***
+     * Get the timeout of the next call.
+     * @param budget The maximum duration of the call (milliseconds).
+     * @return p99 latency times the factor, at least the floor and at most the budget.
+     */
+    private long timeout(long budget) {
+        if(!this.timeoutConfig.enabled())
+            return budget;
+
+        double p99 = percentile(0.99);
+        if(p99 <= 0)
+            return budget;
+
+        long timeout = (long)Math.ceil(p99 * this.timeoutConfig.factor());
+        return Math.min(budget, Math.max(this.timeoutConfig.floor(), timeout));
+    }
+
+    /***
+     * Check if a call may proceed.
+     * @return 0 if the call may proceed, otherwise the time until it makes sense to retry (milliseconds).
+     */
+    private synchronized long acquire() {
+        if(!this.breakerConfig.enabled())
+            return 0;
+
+        switch(this.state) {
+            case OPEN:
+                long waited = System.currentTimeMillis() - this.openedAt;
+                if(waited < this.breakerConfig.openDuration())
+                    return this.breakerConfig.openDuration() - waited;
+
+                // Probe the service
+                LOG.infof("Probing operation %s of %s", this.operation, this.service);
+                this.state = State.HALF_OPEN;
+                this.probesInFlight = 0;
+                this.probesSucceeded = 0;
+                // Fall through
+
+            case HALF_OPEN:
+                if(this.probesInFlight >= Math.max(1, this.breakerConfig.halfOpenProbes()))
+                    // Enough probes in progress, wait for their outcome
+                    return 1000;
+
+                this.probesInFlight++;
+                return 0;
+
+            default:
+                return 0;
+        }
+    }
+
+    /***
+     * Give back the probe slot of a canceled call.
+     */
+    private synchronized void release() {
+        if(State.HALF_OPEN == this.state && this.probesInFlight > 0)
+            this.probesInFlight--;
+    }
+
+    /***
+     * Record the outcome of a call, and change the state of the breaker if needed.
+     * @param nanos The duration of the call.
+     * @param error The failure of the call, null on success.
+     */
+    private void record(long nanos, Throwable error) {
+        this.latency.record(nanos, TimeUnit.NANOSECONDS);
+        if(!this.breakerConfig.enabled())
+            return;
+
+        final boolean isFailure = isFailure(error);
+        final boolean isSlow = TimeUnit.NANOSECONDS.toMillis(nanos) > this.breakerConfig.slowCallDuration();
+
+        synchronized(this) {
+            switch(this.state) {
+                case HALF_OPEN:
+                    if(this.probesInFlight > 0)
+                        this.probesInFlight--;
+
+                    if(isFailure || isSlow)
+                        open();
+                    else if(++this.probesSucceeded >= Math.max(1, this.breakerConfig.halfOpenProbes()))
+                        close();
+                    break;
+
+                case CLOSED:
+                    // Replace oldest outcome in the window
+                    if(this.calls == this.failed.length) {
+                        if(this.failed[this.next]) this.failures--;
+                        if(this.slow[this.next]) this.slowCalls--;
+                    }
+                    else
+                        this.calls++;
+
+                    this.failed[this.next] = isFailure;
+                    this.slow[this.next] = isSlow;
+                    if(isFailure) this.failures++;
+                    if(isSlow) this.slowCalls++;
+                    this.next = (this.next + 1) % this.failed.length;
+
+                    if(this.calls >= this.breakerConfig.minimumCalls() &&
+                       (this.failures * 100 >= this.breakerConfig.failureRateThreshold() * this.calls ||
+                        this.slowCalls * 100 >= this.breakerConfig.slowCallRateThreshold() * this.calls))
+                        open();
+                    break;
+
+                default:
+                    // Late outcome of a call made before the breaker opened
+                    break;
+            }
+        }
+    }
+
+    /***
+     * Start failing fast.
+     */
+    private void open() {
+        LOG.warnf("Circuit breaker of operation %s of %s is open", this.operation, this.service);
+        this.state = State.OPEN;
+        this.openedAt = System.currentTimeMillis();
+        this.probesInFlight = 0;
+    }
+
+    /***
+     * Resume normal operation, forgetting the outcomes of earlier calls.
+     */
+    private void close() {
+        LOG.infof("Circuit breaker of operation %s of %s is closed", this.operation, this.service);
+        this.state = State.CLOSED;
+        this.next = 0;
+        this.calls = 0;
+        this.failures = 0;
+        this.slowCalls = 0;
+        Arrays.fill(this.failed, false);
+        Arrays.fill(this.slow, false);
+    }
+
+    /***
+     * Check if an error signals the service is unhealthy.
+     * Errors caused by the request (e.g. not found, not authorized) or by the client
+     * (disconnected, or its deadline passed) do not count.
+     * @param e The failure of a call, null on success.
+     * @return true if the call failed because of the service.
+     */
+    public static boolean isFailure(Throwable e) {
+        if(null == e)
+            return false;
+
+        if(e instanceof WebApplicationException)
+            return ((WebApplicationException)e).getResponse().getStatus() >= 500;
+
+        if(e instanceof TransferServiceException) {
+            var id = ((TransferServiceException)e).getId();
+            return !"clientDisconnected".equals(id) && !Deadline.DEADLINE_EXCEEDED.equals(id);
+        }
+
+        return true;
+    }
+
+    /***
+     * Check if a call was cut short by the deadline of the client, rather than by its own budget.
+     */
+    public static boolean isDeadlineExceeded(Throwable e) {
+        return (e instanceof TransferServiceException) &&
+               Deadline.DEADLINE_EXCEEDED.equals(((TransferServiceException)e).getId());
+    }
+}
@@ -0,0 +1,24 @@
+package eosc.eu;
+
+
+/**
+ * The result of matching a DOI to a parser.
+ * Immutable, carries everything the parser needs to parse the DOI, so that
+ * a single parser instance can serve any number of concurrent requests.
+ */
+public final class ParseContext {
+
+    public final String doi;        // The DOI that was matched
+    public final String sourceId;   // Id of the data set in the source repository
+    public final String host;       // Host of the source repository the data set is resolved from
+
+
+    /**
+     * Construct from matched DOI
+     */
+    public ParseContext(String doi, String sourceId, String host) {
+        this.doi = doi;
+        this.sourceId = sourceId;
+        this.host = host;
+    }
+}
@@ -0,0 +1,168 @@
+package eosc.eu;
+
+import io.quarkus.runtime.Startup;
+import io.smallrye.mutiny.tuples.Tuple2;
+import io.smallrye.mutiny.tuples.Tuple3;
+import org.jboss.logging.Logger;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import eosc.eu.ParsersConfig.ParserConfig;
+
+
+/***
+ * Registry of the configured parsers, routes DOIs to the parser that understands them.
+ * Built once at startup, indexes the shared parser instances by the routing keys
+ * (hosts, DOI prefixes, DOI namespaces) each parser declares.
+ */
+@Startup
+@ApplicationScoped
+public class ParserRegistry {
+
+    private static final Logger LOG = Logger.getLogger(ParserRegistry.class);
+
+    // Matches URLs like https://doi.org/10.5281/zenodo.12345, extracts host, DOI prefix and namespace
+    private static final Pattern doiUrlPattern = Pattern.compile("^https?://([^/?#:]+)(?::\\d+)?/(?:doi:)?(\\d+\\.[^/]+)/([^./?#]+).*$", Pattern.CASE_INSENSITIVE);
+
+    // Matches bare DOIs like doi:10.5281/zenodo.12345, extracts DOI prefix and namespace
+    private static final Pattern doiPattern = Pattern.compile("^(?:doi:)?(\\d+\\.[^/]+)/([^./?#]+).*$", Pattern.CASE_INSENSITIVE);
+
+    // Matches any other URL, extracts host
+    private static final Pattern urlPattern = Pattern.compile("^https?://([^/?#:]+).*$", Pattern.CASE_INSENSITIVE);
+
+    @Inject
+    ParsersConfig config;
+
+    private Map<String, List<Tuple2<String, ParserService>>> routes; // Parsers and their keys, indexed by routing key
+
+
+    /***
+     * Create and initialize all configured parsers, then index them by their routing keys.
+     */
+    @PostConstruct
+    void init() {
+
+        LOG.debug("Building parser registry...");
+
+        Map<String, List<Tuple2<String, ParserService>>> index = new HashMap<>();
+        for(var pKey : config.parsers().keySet()) {
+            ParserService parser = createParser(pKey);
+            if(null == parser)
+                // DOIs for this parser will not be recognized
+                continue;
+
+            for(var routingKey : parser.getRoutingKeys()) {
+                index.computeIfAbsent(routingKey.toLowerCase(), k -> new ArrayList<>())
+                     .add(Tuple2.of(pKey, parser));
+
+                LOG.infof("Parser <%s> handles DOIs matching <%s>", parser.getParserName(), routingKey);
+            }
+        }
+
+        Map<String, List<Tuple2<String, ParserService>>> routes = new HashMap<>();
+        for(var routingKey : index.keySet())
+            routes.put(routingKey, List.copyOf(index.get(routingKey)));
+
+        this.routes = Map.copyOf(routes);
+    }
+
+    /***
+     * Find the parser that can parse a DOI.
+     * Looks up the host, the DOI prefix, and the DOI namespace (in this order) in the index,
+     * then lets the matching parsers confirm they understand the DOI.
+     * @param doi The DOI for a data set.
+     * @return Parser key, shared parser instance, and parse context, null if no parser supports this DOI.
+     */
+    public Tuple3<String, ParserService, ParseContext> route(String doi) {
+
+        if(null == doi || doi.isEmpty())
+            return null;
+
+        Matcher m = doiUrlPattern.matcher(doi);
+        if(m.matches())
+            return route(doi, m.group(1), m.group(2), m.group(3));
+
+        m = doiPattern.matcher(doi);
+        if(m.matches())
+            return route(doi, null, m.group(1), m.group(2));
+
+        m = urlPattern.matcher(doi);
+        if(m.matches())
+            return route(doi, m.group(1), null, null);
+
+        return null;
+    }
+
+    /***
+     * Try the parsers registered for each of the routing keys extracted from a DOI.
+     * @return Parser key, shared parser instance, and parse context, null if no parser supports this DOI.
+     */
+    private Tuple3<String, ParserService, ParseContext> route(String doi, String host, String prefix, String namespace) {
+
+        for(var routingKey : new String[] { host, prefix, namespace }) {
+            if(null == routingKey)
+                continue;
+
+            var candidates = this.routes.get(routingKey.toLowerCase());
+            if(null == candidates)
+                continue;
+
+            for(var candidate : candidates) {
+                var context = candidate.getItem2().matchDOI(doi);
+                if(null != context)
+                    return Tuple3.of(candidate.getItem1(), candidate.getItem2(), context);
+            }
+        }
+
+        return null;
+    }
+
+    /***
+     * Instantiate and initialize a parser.
+     * @param parserId The key of the parser in the configuration file.
+     * @return Initialized parser, null on error.
+     */
+    private ParserService createParser(String parserId) {
+
+        ParserConfig parserConfig = config.parsers().get(parserId);
+
+        // Get the class of the parser
+        try {
+            var classType = Class.forName(parserConfig.className());
+            var parser = (ParserService)classType.getDeclaredConstructor().newInstance();
+            if(parser.initParser(parserConfig))
+                return parser;
+
+            LOG.errorf("Could not initialize parser <%s>", parserId);
+        }
+        catch (ClassNotFoundException e) {
+            LOG.error(e.getMessage());
+        }
+        catch (NoSuchMethodException e) {
+            LOG.error(e.getMessage());
+        }
+        catch (InstantiationException e) {
+            LOG.error(e.getMessage());
+        }
+        catch (InvocationTargetException e) {
+            LOG.error(e.getMessage());
+        }
+        catch (IllegalAccessException e) {
+            LOG.error(e.getMessage());
+        }
+        catch (IllegalArgumentException e) {
+            LOG.error(e.getMessage());
+        }
+
+        return null;
+    }
+}
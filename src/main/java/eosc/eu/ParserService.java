@@ -1,7 +1,10 @@
 package eosc.eu;
 
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 
+import java.util.Set;
+
 import eosc.eu.model.*;
 import eosc.eu.ParsersConfig.ParserConfig;
 
@@ -24,23 +27,52 @@ public interface ParserService {
     public abstract String getParserName();
 
     /***
-     * Get the Id of the source data set.
-     * @return Source Id.
+     * Get the keys under which the DOI router indexes this parser.
+     * A key can be a host (e.g. "zenodo.org"), a DOI prefix (e.g. "10.5281"),
+     * or the namespace at the start of the DOI suffix (e.g. "zenodo" in "10.5281/zenodo.12345").
+     * @return Routing keys, in lower case.
      */
-    public abstract String getSourceId();
+    public abstract Set<String> getRoutingKeys();
 
     /***
      * Checks if the parser service understands this DOI.
+     * Parser implementations must not keep per-DOI state, everything needed to parse
+     * the DOI is returned in the parse context.
      * @param doi The DOI for a data set.
-     * @return Return true if the parser service can parse this DOI.
+     * @return The context needed to parse this DOI, null if the parser service cannot parse this DOI.
      */
-    public abstract boolean canParseDOI(String doi);
+    public abstract ParseContext matchDOI(String doi);
 
     /**
      * Parse the DOI and return a set of files in the data set.
      * @param auth The access token needed to call the service.
-     * @param doi The DOI for a data set.
+     * @param context The context returned by matchDOI().
      * @return List of files in the data set.
      */
-    public abstract Uni<StorageContent> parseDOI(String auth, String doi);
+    public abstract Uni<StorageContent> parseDOI(String auth, ParseContext context);
+
+    /**
+     * Parse the DOI again, unless the data set did not change since it was last parsed.
+     * By default always parses the DOI, parsers that can check for changes (e.g. with
+     * conditional requests) should override this.
+     * @param auth The access token needed to call the service.
+     * @param context The context returned by matchDOI().
+     * @param previous The result of the last parse, null if never parsed.
+     * @return The files in the data set, with the validators to use for the next check.
+     */
+    public default Uni<ParsedContent> revalidateDOI(String auth, ParseContext context, ParsedContent previous) {
+        return parseDOI(auth, context).map(ParsedContent::new);
+    }
+
+    /**
+     * Parse the DOI and return the files in the data set, as soon as each is available.
+     * By default waits for parseDOI(), parsers that can do better should override this.
+     * @param auth The access token needed to call the service.
+     * @param context The context returned by matchDOI().
+     * @return The files in the data set.
+     */
+    public default Multi<StorageElement> streamDOI(String auth, ParseContext context) {
+        return parseDOI(auth, context)
+            .onItem().transformToMulti(content -> Multi.createFrom().iterable(content.elements));
+    }
 }
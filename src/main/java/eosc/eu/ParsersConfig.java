@@ -15,6 +15,9 @@ public interface ParsersConfig {
     // Contains the details of each specific parser
     public Map<String, ParserConfig> parsers();
 
+    // Caching of parsed DOIs
+    public ParserCacheConfig parserCache();
+
 
     /***
      * The configuration of a parser
@@ -26,7 +29,29 @@ public interface ParsersConfig {
         @WithDefault("5000")
         public int timeout(); // milliseconds
 
+        public HttpClientConfig http(); // Connections to the data source
+
         @WithName("class")
         public String className();
     }
+
+    /***
+     * The configuration of the parsed DOI cache
+     */
+    public interface ParserCacheConfig {
+        @WithDefault("1000")
+        public int maxSize(); // Maximum number of parsed DOIs kept in memory
+
+        @WithDefault("86400000")
+        public long revalidateAfter(); // milliseconds, after which a parsed DOI is checked for changes
+
+        @WithDefault("./data/parsed-dois")
+        public String dataDir(); // Folder where parsed DOIs are persisted, empty to only cache in memory
+
+        @WithDefault("1024")
+        public long maxDiskSize(); // megabytes, the least recently validated parsed DOIs are deleted from disk above this
+
+        @WithDefault("2592000000")
+        public long maxDiskAge(); // milliseconds, parsed DOIs not validated for this long are deleted from disk
+    }
 }
@@ -0,0 +1,432 @@
+package eosc.eu;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import io.smallrye.mutiny.tuples.Tuple2;
+import io.vertx.core.Vertx;
+import io.vertx.ext.web.RoutingContext;
+import org.jboss.logging.Logger;
+import org.jboss.resteasy.reactive.server.ServerRequestFilter;
+import org.jboss.resteasy.reactive.server.ServerResponseFilter;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import eosc.eu.ConcurrencyLimiter.Priority;
+import eosc.eu.TransfersConfig.BucketConfig;
+import eosc.eu.TransfersConfig.RateLimitConfig;
+
+
+/***
+ * Limits the rate of API requests of each user, so that one user cannot starve the others.
+ * Users are identified by their user_dn once it is known (see {@link UserInfoCache}), otherwise
+ * by the hash of their access token, or by their address for anonymous requests.
+ * Each user has a token bucket per class of endpoints, and all users share one more bucket.
+ * Requests over budget wait in a queue per user, and the queues are served round-robin,
+ * so that a user with many waiting requests does not hold up the others.
+ * Responses carry the remaining budget of the user in the X-RateLimit-* headers.
+ */
+@ApplicationScoped
+public class RateLimiter {
+
+    private static final Logger LOG = Logger.getLogger(RateLimiter.class);
+    private static final String PROPERTY = RateLimiter.class.getName();
+
+    public static final String HEADER_LIMIT = "X-RateLimit-Limit";
+    public static final String HEADER_REMAINING = "X-RateLimit-Remaining";
+    public static final String HEADER_RESET = "X-RateLimit-Reset"; // seconds until the budget is full again
+
+    @Inject
+    TransfersConfig config;
+
+    private RateLimitConfig rateConfig;
+    private Cache<String, TokenBucket> buckets;  // Indexed by identity and class of endpoints
+    private Cache<String, String> identities;    // User DNs, indexed by token hash
+    private TokenBucket shared;
+    private final Map<Priority, Counter> rejected = new EnumMap<>(Priority.class);
+
+    // Requests waiting for budget, indexed by identity, in the order the users get served
+    private final LinkedHashMap<String, ArrayDeque<Waiter>> queues = new LinkedHashMap<>(); // Guarded by this
+    private volatile int queued = 0;                                                         // Changed under this
+    private ScheduledFuture<?> wakeUp;                                                       // Guarded by this
+
+
+    /***
+     * A token bucket, implemented without locks as a generic cell rate algorithm:
+     * instead of counting the tokens it tracks when the bucket will be full again.
+     */
+    static class TokenBucket {
+        final int capacity;
+        final long interval;        // nanoseconds, to get a new token
+        private final AtomicLong full; // System.nanoTime() based, when the bucket will be full
+
+        TokenBucket(BucketConfig config) {
+            this.capacity = Math.max(1, config.capacity());
+            this.interval = (long)Math.ceil(TimeUnit.SECONDS.toNanos(1) / Math.max(0.001, config.rate()));
+            this.full = new AtomicLong(System.nanoTime());
+        }
+
+        /***
+         * Take a token.
+         * @return 0 if a token was taken, otherwise nanoseconds until one becomes available.
+         */
+        long tryAcquire() {
+            while(true) {
+                final long now = System.nanoTime();
+                final long current = this.full.get();
+                final long next = Math.max(current, now) + this.interval;
+                final long wait = next - now - this.capacity * this.interval;
+                if(wait > 0)
+                    return wait;
+
+                if(this.full.compareAndSet(current, next))
+                    return 0;
+            }
+        }
+
+        /***
+         * Give back a token that was taken but not used.
+         */
+        void refund() { this.full.addAndGet(-this.interval); }
+
+        /***
+         * Get the number of tokens left.
+         */
+        int remaining() {
+            final long now = System.nanoTime();
+            final long used = Math.max(0, this.full.get() - now);
+            return (int)Math.max(0, this.capacity - (used + this.interval - 1) / this.interval);
+        }
+
+        /***
+         * Get the nanoseconds until the bucket is full again.
+         */
+        long untilFull() { return Math.max(0, this.full.get() - System.nanoTime()); }
+    }
+
+    /***
+     * A request waiting for budget
+     */
+    private static class Waiter {
+        static final int QUEUED = 0, ADMITTED = 1, ABANDONED = 2;
+
+        final String identity;
+        final TokenBucket bucket;
+        final CompletableFuture<Void> admitted = new CompletableFuture<>();
+        final AtomicInteger state = new AtomicInteger(QUEUED);
+
+        Waiter(String identity, TokenBucket bucket) {
+            this.identity = identity;
+            this.bucket = bucket;
+        }
+    }
+
+
+    /***
+     * Create the buckets and register the metrics
+     */
+    @PostConstruct
+    void init() {
+        this.rateConfig = config.rateLimit();
+        final var idleExpiry = Duration.ofMillis(Math.max(1000, this.rateConfig.idleExpiry()));
+        final int maxUsers = Math.max(1, this.rateConfig.maxUsers());
+
+        this.buckets = Caffeine.newBuilder()
+                        .maximumSize((long)maxUsers * Priority.values().length)
+                        .expireAfterAccess(idleExpiry)
+                        .build();
+
+        this.identities = Caffeine.newBuilder()
+                        .maximumSize(maxUsers)
+                        .expireAfterAccess(idleExpiry)
+                        .build();
+
+        this.shared = new TokenBucket(this.rateConfig.shared());
+
+        for(var priority : Priority.values())
+            this.rejected.put(priority, Counter.builder("proxy.rate.limit.rejected")
+                                               .tag("class", priority.name().toLowerCase())
+                                               .description("Requests rejected because the user exceeded their budget")
+                                               .register(Metrics.globalRegistry));
+
+        Gauge.builder("proxy.rate.limit.queued", this, limiter -> limiter.queued)
+             .description("Requests waiting for budget")
+             .register(Metrics.globalRegistry);
+    }
+
+    /***
+     * Remember the user an access token belongs to, so that all tokens of the user share one budget.
+     * @param auth The access token.
+     * @param userDN The user the token belongs to.
+     */
+    public void identify(String auth, String userDN) {
+        if(null != auth && !auth.isEmpty() && null != userDN && !userDN.isEmpty())
+            this.identities.put(TokenHash.of(auth), userDN);
+    }
+
+    /***
+     * Let the request through if the user has budget left, otherwise queue it until they do.
+     * @return Uni that completes with null to proceed, or with the response to reject the request with.
+     */
+    @ServerRequestFilter
+    public Uni<Response> limitRate(ContainerRequestContext request, RoutingContext routingContext) {
+        if(!this.rateConfig.enabled())
+            return Uni.createFrom().nullItem();
+
+        final var priority = classOf(request.getMethod(), request.getUriInfo().getPath());
+        final var identity = identityOf(request.getHeaderString(HttpHeaders.AUTHORIZATION), routingContext);
+        final var bucket = bucketOf(identity, priority);
+        request.setProperty(PROPERTY, bucket);
+
+        var result = admit(priority, identity, bucket);
+        var context = Vertx.currentContext();
+        if(null != context)
+            // Resume processing the request on its own context
+            result = result.emitOn(runnable -> context.runOnContext(v -> runnable.run()));
+
+        return result;
+    }
+
+    /***
+     * Get the budget of a user for a class of endpoints.
+     */
+    TokenBucket bucketOf(String identity, Priority priority) {
+        return this.buckets.get(identity + "|" + priority, key -> new TokenBucket(bucketConfig(priority)));
+    }
+
+    /***
+     * Let a request through if the user has budget left, otherwise queue it until they do.
+     * @param priority The class of the endpoint.
+     * @param identity The user making the request.
+     * @param bucket The budget of the user for the class of the endpoint.
+     * @return Uni that completes with null to proceed, or with the response to reject the request with.
+     */
+    Uni<Response> admit(Priority priority, String identity, TokenBucket bucket) {
+        if(0 == this.queued && 0 == bucket.tryAcquire()) {
+            // User has budget and nobody is waiting
+            if(0 == this.shared.tryAcquire())
+                return Uni.createFrom().nullItem();
+
+            bucket.refund();
+        }
+
+        final var waiter = new Waiter(identity, bucket);
+        synchronized(this) {
+            var queue = this.queues.computeIfAbsent(identity, id -> new ArrayDeque<>());
+            if(queue.size() >= Math.max(0, this.rateConfig.maxQueuedPerUser())) {
+                if(queue.isEmpty())
+                    this.queues.remove(identity);
+
+                waiter.state.set(Waiter.ABANDONED);
+            }
+            else {
+                queue.addLast(waiter);
+                this.queued++;
+            }
+        }
+
+        if(Waiter.ABANDONED == waiter.state.get())
+            return Uni.createFrom().item(reject(priority, bucket));
+
+        dispatch();
+
+        return Uni.createFrom().completionStage(waiter.admitted)
+            .map(unused -> (Response)null)
+            .ifNoItem().after(Duration.ofMillis(Math.max(1, this.rateConfig.maxQueueWait())))
+                // Only reject if still waiting, if admitted meanwhile its tokens are taken, so proceed
+                .recoverWithItem(() -> abandon(waiter) ? reject(priority, bucket) : null)
+            .onTermination().invoke(() -> abandon(waiter));
+    }
+
+    /***
+     * Add the remaining budget of the user to the response.
+     */
+    @ServerResponseFilter
+    public void addBudgetHeaders(ContainerRequestContext request, ContainerResponseContext response) {
+        var bucket = request.getProperty(PROPERTY);
+        if(!(bucket instanceof TokenBucket))
+            return;
+
+        var tokenBucket = (TokenBucket)bucket;
+        var headers = response.getHeaders();
+        headers.putSingle(HEADER_LIMIT, String.valueOf(tokenBucket.capacity));
+        headers.putSingle(HEADER_REMAINING, String.valueOf(tokenBucket.remaining()));
+        headers.putSingle(HEADER_RESET, String.valueOf(toSeconds(tokenBucket.untilFull())));
+    }
+
+    /***
+     * Let through as many waiting requests as the budgets allow, one request per user at a time.
+     * Schedules itself to run again when the next token becomes available, while requests are waiting.
+     */
+    private void dispatch() {
+        var admitted = new ArrayList<Waiter>();
+        synchronized(this) {
+            if(null != this.wakeUp) {
+                this.wakeUp.cancel(false);
+                this.wakeUp = null;
+            }
+
+            long nextToken = Long.MAX_VALUE;
+            boolean progress = true;
+
+            serve:
+            while(progress && !this.queues.isEmpty()) {
+                // One round over the users with waiting requests
+                progress = false;
+                for(var identity : List.copyOf(this.queues.keySet())) {
+                    var queue = this.queues.get(identity);
+                    var head = queue.peekFirst();
+
+                    long wait = head.bucket.tryAcquire();
+                    if(wait > 0) {
+                        // User has no budget left yet, serve the others
+                        nextToken = Math.min(nextToken, wait);
+                        continue;
+                    }
+
+                    wait = this.shared.tryAcquire();
+                    if(wait > 0) {
+                        // No budget left for anybody
+                        head.bucket.refund();
+                        nextToken = Math.min(nextToken, wait);
+                        break serve;
+                    }
+
+                    queue.pollFirst();
+                    this.queued--;
+                    if(head.state.compareAndSet(Waiter.QUEUED, Waiter.ADMITTED)) {
+                        admitted.add(head);
+                        progress = true;
+                    }
+                    else {
+                        // Stopped waiting meanwhile
+                        head.bucket.refund();
+                        this.shared.refund();
+                    }
+
+                    // Move user to the back of the line
+                    this.queues.remove(identity);
+                    if(!queue.isEmpty())
+                        this.queues.put(identity, queue);
+                }
+            }
+
+            if(!this.queues.isEmpty() && nextToken < Long.MAX_VALUE)
+                this.wakeUp = Infrastructure.getDefaultWorkerPool().schedule(this::dispatch, nextToken, TimeUnit.NANOSECONDS);
+        }
+
+        for(var waiter : admitted)
+            waiter.admitted.complete(null);
+    }
+
+    /***
+     * Forget a request that stopped waiting, e.g. it waited too long or the client disconnected.
+     * @return true if the request was still waiting, false if it was already admitted or forgotten.
+     */
+    private boolean abandon(Waiter waiter) {
+        if(!waiter.state.compareAndSet(Waiter.QUEUED, Waiter.ABANDONED))
+            return false;
+
+        synchronized(this) {
+            var queue = this.queues.get(waiter.identity);
+            if(null != queue && queue.remove(waiter)) {
+                this.queued--;
+                if(queue.isEmpty())
+                    this.queues.remove(waiter.identity);
+            }
+        }
+
+        return true;
+    }
+
+    /***
+     * Build the response for requests over budget.
+     */
+    private Response reject(Priority priority, TokenBucket bucket) {
+        LOG.debugf("Rejecting %s request, user is over budget", priority);
+        this.rejected.get(priority).increment();
+
+        final long retryAfter = toSeconds(Math.max(bucket.interval, bucket.untilFull() - (bucket.capacity - 1) * bucket.interval));
+        return new ActionError("tooManyRequests", Tuple2.of("retryAfter", String.valueOf(retryAfter)))
+                    .toResponse(Status.TOO_MANY_REQUESTS);
+    }
+
+    /***
+     * Get the identity of the user making a request.
+     * @param auth The access token of the request.
+     * @param routingContext The request being processed.
+     * @return The user_dn of the user if known, otherwise the hash of the access token,
+     *         or the address of the client if the request is anonymous.
+     */
+    private String identityOf(String auth, RoutingContext routingContext) {
+        if(null == auth || auth.isEmpty()) {
+            var address = routingContext.request().remoteAddress();
+            return "ip:" + (null != address ? address.host() : "");
+        }
+
+        final String tokenHash = TokenHash.of(auth);
+        final String userDN = this.identities.getIfPresent(tokenHash);
+        return null != userDN ? "dn:" + userDN : "token:" + tokenHash;
+    }
+
+    /***
+     * Get the budget of a class of endpoints.
+     */
+    private BucketConfig bucketConfig(Priority priority) {
+        switch(priority) {
+            case SUBMISSION:
+                return this.rateConfig.submission();
+            case STORAGE:
+                return this.rateConfig.storage();
+            default:
+                return this.rateConfig.status();
+        }
+    }
+
+    /***
+     * Get the class of an endpoint, the same classes the calls to transfer services are prioritized by.
+     * @param method The HTTP method of the request.
+     * @param path The path of the request.
+     */
+    private static Priority classOf(String method, String path) {
+        final boolean isPost = "POST".equalsIgnoreCase(method);
+        if(path.startsWith("/storage/bulk") && isPost)
+            return Priority.SUBMISSION;
+        if(path.startsWith("/storage") || path.startsWith("/parser"))
+            return Priority.STORAGE;
+        if(isPost && ("/transfers".equals(path) || "/transfers/doi".equals(path)))
+            return Priority.SUBMISSION;
+
+        return Priority.STATUS;
+    }
+
+    /***
+     * Convert nanoseconds to whole seconds, rounding up.
+     */
+    private static long toSeconds(long nanos) {
+        return (nanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,198 @@
+package eosc.eu;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.tuples.Tuple2;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.core.Response.Status;
+
+import eosc.eu.model.*;
+
+
+/***
+ * Performs many file and folder operations, with a bounded number of them in progress at any time.
+ * Operations go through the storage cache, so that they evict the affected cached entries.
+ */
+@ApplicationScoped
+public class StorageBulkOperations {
+
+    private static final Logger LOG = Logger.getLogger(StorageBulkOperations.class);
+
+    @Inject
+    TransfersConfig config;
+
+    @Inject
+    StorageCache storageCache;
+
+    @Inject
+    StorageTreeWalker treeWalker;
+
+
+    /**
+     * Perform the operations of a bulk request.
+     * Operations of the same kind run in parallel, the kinds of operations run one after
+     * the other: create folders, rename, delete files, delete folders.
+     * @param destination The destination key the transfer service was selected for.
+     * @param ts The transfer service to perform the operations with.
+     * @param auth The access token needed to call the service.
+     * @param operations The operations to perform.
+     * @return The outcome of each operation, as soon as it is available.
+     */
+    public Multi<StorageOperationResult> execute(String destination, TransferService ts, String auth, StorageBulkOperation operations) {
+
+        return Multi.createBy().concatenating().streams(
+            run(operations.createFolders, op -> simple("createFolder", op.seUrl,
+                                                          () -> storageCache.createFolder(destination, ts, auth, op.seUrl))),
+            run(operations.rename, op -> rename(op, () -> storageCache.renameStorageElement(destination, ts, auth, op.seUrlOld, op.seUrlNew))),
+            deleteFiles(destination, ts, auth, operations.deleteFiles),
+            deleteFolders(destination, ts, auth, operations.deleteFolders)
+        );
+    }
+
+    /**
+     * Delete files, with a bounded number of deletions in progress at any time.
+     * @param destination The destination key the transfer service was selected for.
+     * @param ts The transfer service to delete files with.
+     * @param auth The access token needed to call the service.
+     * @param files The files to delete.
+     * @return The outcome of each deletion, as soon as it is available.
+     */
+    public Multi<StorageOperationResult> deleteFiles(String destination, TransferService ts, String auth, List<StorageSimpleOperation> files) {
+        return run(files, op -> simple("deleteFile", op.seUrl,
+                                          () -> storageCache.deleteFile(destination, ts, auth, op.seUrl)));
+    }
+
+    /**
+     * Delete folders, with a bounded number of deletions in progress at any time.
+     * @param destination The destination key the transfer service was selected for.
+     * @param ts The transfer service to delete folders with.
+     * @param auth The access token needed to call the service.
+     * @param folders The (empty) folders to delete.
+     * @return The outcome of each deletion, as soon as it is available.
+     */
+    public Multi<StorageOperationResult> deleteFolders(String destination, TransferService ts, String auth, List<StorageSimpleOperation> folders) {
+        return run(folders, op -> simple("deleteFolder", op.seUrl,
+                                            () -> storageCache.deleteFolder(destination, ts, auth, op.seUrl)));
+    }
+
+    /**
+     * Find everything that has to be deleted to delete a folder with all its content.
+     * The folder tree is listed in parallel, see {@link StorageTreeWalker}, fails if the
+     * tree is deeper or has more entries than a walk is allowed to list.
+     * @param ts The transfer service to list folders with.
+     * @param auth The access token needed to call the service.
+     * @param folderUrl The link to the folder to delete.
+     * @param dryRun Whether the plan will only be reported, not executed.
+     * @return The files and folders to delete, with their counts and total size.
+     */
+    public Uni<StorageDeleteReport> planDeleteTree(TransferService ts, String auth, String folderUrl, boolean dryRun) {
+        return treeWalker.walk(ts, auth, folderUrl, Integer.MAX_VALUE, true)
+            .collect().in(() -> new StorageDeleteReport(folderUrl, dryRun), StorageDeleteReport::add);
+    }
+
+    /**
+     * Delete a folder with all its content.
+     * First all files are deleted in parallel, then the folders bottom-up, deepest folders first
+     * (folders at the same depth are deleted in parallel).
+     * @param destination The destination key the transfer service was selected for.
+     * @param ts The transfer service to delete with.
+     * @param auth The access token needed to call the service.
+     * @param plan The files and folders to delete, updated with the outcome of each deletion.
+     * @return The outcome of each deletion, as soon as it is available.
+     */
+    public Multi<StorageOperationResult> deleteTree(String destination, TransferService ts, String auth, StorageDeleteReport plan) {
+
+        List<StorageSimpleOperation> files = new ArrayList<>(plan.fileUrls.size());
+        for(var fileUrl : plan.fileUrls)
+            files.add(new StorageSimpleOperation(fileUrl));
+
+        // Group folders by depth, deepest first
+        TreeMap<Integer, List<StorageSimpleOperation>> foldersByDepth = new TreeMap<>(Comparator.reverseOrder());
+        for(var folderUrl : plan.folderUrls)
+            foldersByDepth.computeIfAbsent(depthOf(folderUrl), d -> new ArrayList<>()).add(new StorageSimpleOperation(folderUrl));
+
+        List<Multi<StorageOperationResult>> phases = new ArrayList<>();
+        phases.add(deleteFiles(destination, ts, auth, files));
+        for(var folders : foldersByDepth.values())
+            phases.add(deleteFolders(destination, ts, auth, folders));
+
+        LOG.debugf("Deleting %d files and %d folders in %d phases", plan.files, plan.folders, phases.size());
+
+        return Multi.createBy().concatenating().streams(phases)
+            .invoke(plan::record);
+    }
+
+    /**
+     * Count the path segments in a storage element URL.
+     */
+    private static int depthOf(String seUrl) {
+        int depth = 0;
+        int end = seUrl.length();
+        while(end > 0 && '/' == seUrl.charAt(end - 1))
+            end--;
+
+        for(int i = 0; i < end; i++)
+            if('/' == seUrl.charAt(i))
+                depth++;
+
+        return depth;
+    }
+
+    /**
+     * Run operations of the same kind in parallel.
+     */
+    private <O> Multi<StorageOperationResult> run(List<O> operations, Function<O, Uni<StorageOperationResult>> operation) {
+        if(null == operations || operations.isEmpty())
+            return Multi.createFrom().empty();
+
+        return Multi.createFrom().iterable(operations)
+            .onItem().transformToUni(operation)
+            .merge(Math.max(1, config.storage().bulk().concurrency()));
+    }
+
+    /**
+     * Perform an operation on a single storage element, never fails.
+     */
+    private static Uni<StorageOperationResult> simple(String operation, String seUrl, Supplier<Uni<String>> call) {
+
+        if(null == seUrl || seUrl.isEmpty())
+            return Uni.createFrom().item(new StorageOperationResult(operation, seUrl, null,
+                                             new ActionError("missingOperationParameters").setStatus(Status.BAD_REQUEST)));
+
+        return call.get()
+            .map(unused -> new StorageOperationResult(operation, seUrl, null))
+            .onFailure().recoverWithItem(e -> {
+                LOG.errorf("Failed to %s %s", operation, seUrl);
+                return new StorageOperationResult(operation, seUrl, null, new ActionError(e, Tuple2.of("seUrl", seUrl)));
+            });
+    }
+
+    /**
+     * Rename a storage element, never fails.
+     */
+    private static Uni<StorageOperationResult> rename(StorageRenameOperation op, Supplier<Uni<String>> call) {
+
+        if(null == op.seUrlOld || op.seUrlOld.isEmpty() || null == op.seUrlNew || op.seUrlNew.isEmpty())
+            return Uni.createFrom().item(new StorageOperationResult("rename", op.seUrlOld, op.seUrlNew,
+                                             new ActionError("missingOperationParameters").setStatus(Status.BAD_REQUEST)));
+
+        return call.get()
+            .map(unused -> new StorageOperationResult("rename", op.seUrlOld, op.seUrlNew))
+            .onFailure().recoverWithItem(e -> {
+                LOG.errorf("Failed to rename %s to %s", op.seUrlOld, op.seUrlNew);
+                return new StorageOperationResult("rename", op.seUrlOld, op.seUrlNew, new ActionError(e, Arrays.asList(
+                                                      Tuple2.of("seUrl", op.seUrlOld),
+                                                      Tuple2.of("seUrlNew", op.seUrlNew)) ));
+            });
+    }
+}
@@ -0,0 +1,367 @@
+package eosc.eu;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.smallrye.mutiny.Uni;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response.Status;
+
+import eosc.eu.model.StorageContent;
+import eosc.eu.model.StorageElement;
+
+
+/***
+ * Cache of folder listings and storage element details, sits in front of the storage
+ * related methods of TransferService. Entries are kept per access token, and storage
+ * elements that were not found are cached too (for a shorter time).
+ * All changes made to storages through this class evict the affected entries for all
+ * access tokens: the changed element, its parent folder, and (for folders) all its descendants.
+ * Entries are indexed by storage element and parent folder, so that evictions do not scan the caches,
+ * and results of calls that overlapped a change in the same destination are not cached.
+ */
+@ApplicationScoped
+public class StorageCache {
+
+    private static final Logger LOG = Logger.getLogger(StorageCache.class);
+
+    @Inject
+    TransfersConfig config;
+
+    private StorageEntries listings;    // Values are StorageContent or NotFound
+    private StorageEntries details;     // Values are StorageElement or NotFound
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>(); // Changes made, by destination
+
+
+    /***
+     * Cached result for a storage element that does not exist
+     */
+    private static class NotFound {
+        final Throwable error;
+
+        NotFound(Throwable error) { this.error = error; }
+    }
+
+    /***
+     * Cached entries, indexed by storage element, and storage elements indexed by parent folder.
+     * A storage element is "destination|url", a cache key is "destination|url|tokenHash".
+     */
+    private static class StorageEntries {
+        final Cache<String, Object> cache;
+        private final Map<String, Set<String>> keys = new HashMap<>();      // Cache keys by storage element, guarded by this
+        private final Map<String, Set<String>> children = new HashMap<>();  // Storage elements by parent folder, guarded by this
+
+        StorageEntries(long maxSize, Expiry<String, Object> expiry) {
+            this.cache = Caffeine.newBuilder()
+                            .maximumSize(maxSize)
+                            .expireAfter(expiry)
+                            .removalListener((String key, Object value, RemovalCause cause) -> {
+                                if(null != key && RemovalCause.REPLACED != cause)
+                                    forget(key);
+                            })
+                            .recordStats()
+                            .build();
+        }
+
+        /**
+         * Add an entry to the cache and to the index.
+         * Both happen under the same lock as evictions, so that an eviction never finds
+         * an entry in the cache that is not indexed yet (the removal listener runs asynchronously).
+         */
+        void put(String key, Object value) {
+            final String element = elementOf(key);
+            synchronized(this) {
+                this.cache.put(key, value);
+                this.keys.computeIfAbsent(element, e -> new HashSet<>()).add(key);
+
+                // Link the element to all its ancestors, so that the descendants of any folder can be found
+                for(String child = element, parent = parentElement(element); null != parent; child = parent, parent = parentElement(parent))
+                    if(!this.children.computeIfAbsent(parent, p -> new HashSet<>()).add(child))
+                        break;
+            }
+        }
+
+        /**
+         * Evict the entries of a storage element, for all access tokens.
+         * @param descendants Also evict the entries of all storage elements inside this one.
+         */
+        synchronized void invalidate(String element, boolean descendants) {
+            List<String> evicted = new ArrayList<>();
+            collect(element, descendants, evicted);
+            this.cache.invalidateAll(evicted);
+        }
+
+        private void collect(String element, boolean descendants, List<String> evicted) {
+            var elementKeys = this.keys.get(element);
+            if(null != elementKeys)
+                evicted.addAll(elementKeys);
+
+            var elementChildren = descendants ? this.children.get(element) : null;
+            if(null != elementChildren)
+                for(var child : elementChildren)
+                    collect(child, true, evicted);
+        }
+
+        /**
+         * Remove an entry that left the cache from the index, with the folders that no longer lead to entries.
+         */
+        private synchronized void forget(String key) {
+            if(this.cache.asMap().containsKey(key))
+                // Cached again since
+                return;
+
+            String element = elementOf(key);
+            var elementKeys = this.keys.get(element);
+            if(null != elementKeys && elementKeys.remove(key) && elementKeys.isEmpty())
+                this.keys.remove(element);
+
+            while(!this.keys.containsKey(element) && !this.children.containsKey(element)) {
+                var parent = parentElement(element);
+                var siblings = (null != parent) ? this.children.get(parent) : null;
+                if(null == siblings || !siblings.remove(element) || !siblings.isEmpty())
+                    break;
+
+                this.children.remove(parent);
+                element = parent;
+            }
+        }
+
+        private static String elementOf(String key) { return key.substring(0, key.lastIndexOf('|')); }
+
+        private static String parentElement(String element) {
+            int separator = element.indexOf('|');
+            var parent = parentOf(element.substring(separator + 1));
+            return (null != parent) ? element.substring(0, separator + 1) + parent : null;
+        }
+    }
+
+
+    /***
+     * Create the caches and register their hit/miss metrics
+     */
+    @PostConstruct
+    void init() {
+        var cacheConfig = config.cache().storage();
+        final long ttl = Duration.ofMillis(cacheConfig.ttl()).toNanos();
+        final long notFoundTtl = Duration.ofMillis(cacheConfig.notFoundTtl()).toNanos();
+
+        var expiry = new Expiry<String, Object>() {
+            public long expireAfterCreate(String key, Object value, long currentTime) {
+                return (value instanceof NotFound) ? notFoundTtl : ttl;
+            }
+            public long expireAfterUpdate(String key, Object value, long currentTime, long currentDuration) {
+                return (value instanceof NotFound) ? notFoundTtl : ttl;
+            }
+            public long expireAfterRead(String key, Object value, long currentTime, long currentDuration) {
+                return currentDuration;
+            }
+        };
+
+        this.listings = new StorageEntries(cacheConfig.maxSize(), expiry);
+        this.details = new StorageEntries(cacheConfig.maxSize(), expiry);
+
+        CaffeineCacheMetrics.monitor(Metrics.globalRegistry, this.listings.cache, "folderContent");
+        CaffeineCacheMetrics.monitor(Metrics.globalRegistry, this.details.cache, "storageElement");
+    }
+
+    /**
+     * List all files and sub-folders in a folder, from the cache if available.
+     * @param destination The destination key the transfer service was selected for.
+     * @param ts The transfer service to call on cache miss.
+     * @param auth The access token needed to call the service.
+     * @param folderUrl The link to the folder to list content of.
+     * @return List of the folder content.
+     */
+    public Uni<StorageContent> listFolderContent(String destination, TransferService ts, String auth, String folderUrl) {
+        return cached(this.listings, destination, key(destination, folderUrl, auth), () -> ts.listFolderContent(auth, folderUrl));
+    }
+
+    /**
+     * Get the details of a file or folder, from the cache if available.
+     * @param destination The destination key the transfer service was selected for.
+     * @param ts The transfer service to call on cache miss.
+     * @param auth The access token needed to call the service.
+     * @param seUrl The link to the file or folder to det details of.
+     * @return Details about the storage element.
+     */
+    public Uni<StorageElement> getStorageElementInfo(String destination, TransferService ts, String auth, String seUrl) {
+        return cached(this.details, destination, key(destination, seUrl, auth), () -> ts.getStorageElementInfo(auth, seUrl));
+    }
+
+    /**
+     * Create new folder, then evict the affected entries.
+     * @return Confirmation message.
+     */
+    public Uni<String> createFolder(String destination, TransferService ts, String auth, String folderUrl) {
+        return ts.createFolder(auth, folderUrl)
+            .onTermination().invoke(() -> invalidate(destination, folderUrl, false));
+    }
+
+    /**
+     * Delete existing folder, then evict the affected entries.
+     * @return Confirmation message.
+     */
+    public Uni<String> deleteFolder(String destination, TransferService ts, String auth, String folderUrl) {
+        return ts.deleteFolder(auth, folderUrl)
+            .onTermination().invoke(() -> invalidate(destination, folderUrl, true));
+    }
+
+    /**
+     * Delete existing file, then evict the affected entries.
+     * @return Confirmation message.
+     */
+    public Uni<String> deleteFile(String destination, TransferService ts, String auth, String fileUrl) {
+        return ts.deleteFile(auth, fileUrl)
+            .onTermination().invoke(() -> invalidate(destination, fileUrl, false));
+    }
+
+    /**
+     * Rename a folder or file, then evict the affected entries of both the old and new name.
+     * @return Confirmation message.
+     */
+    public Uni<String> renameStorageElement(String destination, TransferService ts, String auth, String seOld, String seNew) {
+        return ts.renameStorageElement(auth, seOld, seNew)
+            .onTermination().invoke(() -> {
+                invalidate(destination, seOld, true);
+                invalidate(destination, seNew, true);
+            });
+    }
+
+    /**
+     * Evict the cached entries affected by a change to a storage element, for all access tokens.
+     * Called after each change, even failed ones, as those may have been partially applied.
+     * @param destination The destination key the transfer service was selected for.
+     * @param seUrl The link to the changed storage element.
+     * @param descendants Also evict all entries inside this storage element (when it is a folder).
+     */
+    public void invalidate(String destination, String seUrl, boolean descendants) {
+
+        final String element = destination + "|" + normalize(seUrl);
+        final String parent = parentOf(seUrl);
+
+        LOG.debugf("Evicting cached storage elements affected by change to %s", seUrl);
+
+        final var generation = generationOf(destination);
+        synchronized(generation) {
+            // Calls in progress will not cache their (possibly stale) result
+            generation.incrementAndGet();
+
+            for(var entries : List.of(this.listings, this.details)) {
+                entries.invalidate(element, descendants);
+                if(null != parent)
+                    entries.invalidate(destination + "|" + parent, false);
+            }
+        }
+    }
+
+    /**
+     * Serve from cache, or call the transfer service and cache the result (or the fact the element was not found).
+     * The result is not cached if the destination was changed while the call was in progress.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> Uni<T> cached(StorageEntries entries, String destination, String key, Supplier<Uni<T>> call) {
+
+        var value = entries.cache.getIfPresent(key);
+        if(value instanceof NotFound)
+            return Uni.createFrom().failure(((NotFound)value).error);
+        if(null != value)
+            return Uni.createFrom().item((T)value);
+
+        final var generation = generationOf(destination);
+        final long before = generation.get();
+
+        return call.get()
+            .invoke(result -> {
+                // Cache for subsequent calls
+                if(null != result)
+                    put(entries, generation, before, key, result);
+            })
+            .onFailure(StorageCache::isNotFound).invoke(e -> {
+                // Remember that the element does not exist
+                put(entries, generation, before, key, new NotFound(e));
+            });
+    }
+
+    /**
+     * Cache a result, unless the destination changed since the call that produced it started.
+     * The check and the put happen under the lock of the generation, which invalidate() holds
+     * while it changes the generation and evicts the affected entries.
+     */
+    private static void put(StorageEntries entries, AtomicLong generation, long before, String key, Object value) {
+        synchronized(generation) {
+            if(generation.get() == before)
+                entries.put(key, value);
+            else
+                LOG.debugf("Not caching %s, changed while being fetched", key);
+        }
+    }
+
+    /**
+     * Get the counter of the changes made to a destination.
+     */
+    private AtomicLong generationOf(String destination) {
+        return this.generations.computeIfAbsent(destination, d -> new AtomicLong(0));
+    }
+
+    /**
+     * Check if an error signals that the storage element does not exist.
+     */
+    private static boolean isNotFound(Throwable e) {
+        return (e instanceof WebApplicationException) &&
+               Status.NOT_FOUND.getStatusCode() == ((WebApplicationException)e).getResponse().getStatus();
+    }
+
+    /**
+     * Build cache key from destination, storage element URL, and token hash.
+     */
+    private static String key(String destination, String seUrl, String auth) {
+        return destination + "|" + normalize(seUrl) + "|" + TokenHash.of(auth);
+    }
+
+    /**
+     * Strip trailing separators, so that the same folder always has the same key.
+     */
+    private static String normalize(String seUrl) {
+        if(null == seUrl)
+            return "";
+
+        int end = seUrl.length();
+        while(end > 0 && '/' == seUrl.charAt(end - 1))
+            end--;
+
+        return seUrl.substring(0, end);
+    }
+
+    /**
+     * Get the link to the folder containing a storage element.
+     * @return Normalized URL of parent folder, null if the storage element is the root.
+     */
+    private static String parentOf(String seUrl) {
+        var url = normalize(seUrl);
+        int schemeEnd = url.indexOf("://");
+        int pathStart = url.indexOf('/', (schemeEnd >= 0) ? schemeEnd + 3 : 0);
+        int lastSeparator = url.lastIndexOf('/');
+        if(pathStart < 0 || lastSeparator < pathStart)
+            return null;
+
+        return url.substring(0, lastSeparator);
+    }
+}
@@ -0,0 +1,235 @@
+package eosc.eu;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.subscription.Cancellable;
+import io.smallrye.mutiny.subscription.MultiEmitter;
+import io.smallrye.mutiny.tuples.Tuple2;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import eosc.eu.model.StorageContent;
+import eosc.eu.model.StorageElement;
+
+
+/***
+ * Walks folder trees in a storage, listing sibling folders in parallel.
+ * The number of folders listed at the same time by a walk is capped, and so is
+ * the number of entries a walk may return.
+ */
+@ApplicationScoped
+public class StorageTreeWalker {
+
+    private static final Logger LOG = Logger.getLogger(StorageTreeWalker.class);
+
+    @Inject
+    TransfersConfig config;
+
+
+    /**
+     * List the content of a folder and of all its sub-folders, down to the specified depth.
+     * Entries are emitted as soon as the folder they are in has been listed, thus entries
+     * from different folders may be interleaved.
+     * @param ts The transfer service to list folders with.
+     * @param auth The access token needed to call the service.
+     * @param folderUrl The link to the folder to walk.
+     * @param depth How many levels to list, 1 only lists the folder itself.
+     * @return The files and sub-folders in the tree, fails if any folder cannot be listed
+     *         or if the tree has more entries than allowed (with TransferServiceException "tooManyEntries").
+     */
+    public Multi<StorageElement> walk(TransferService ts, String auth, String folderUrl, int depth) {
+        return walk(ts, auth, folderUrl, depth, false);
+    }
+
+    /**
+     * List the content of a folder and of all its sub-folders, down to the specified depth.
+     * @param complete Whether to fail (with TransferServiceException "treeTooDeep") instead of
+     *                 returning a partial tree when there are sub-folders below the depth cap.
+     * @see #walk(TransferService, String, String, int)
+     */
+    public Multi<StorageElement> walk(TransferService ts, String auth, String folderUrl, int depth, boolean complete) {
+
+        var treeConfig = config.storage().tree();
+        final int maxDepth = Math.max(1, Math.min(depth, treeConfig.maxDepth()));
+
+        return Multi.createFrom().emitter(emitter -> {
+            var walk = new Walk(ts, auth, emitter, maxDepth, complete,
+                                Math.max(1, treeConfig.concurrency()), treeConfig.maxEntries());
+            emitter.onTermination(walk::stop);
+            walk.start(folderUrl);
+        });
+    }
+
+
+    /***
+     * The state of a walk, folders are listed from a work queue.
+     * The queue is drained by one thread at a time and listings are started outside of the lock,
+     * so listings that complete synchronously do not recurse into the next ones.
+     * Listings in progress are canceled when the walk stops, e.g. because the client went away.
+     */
+    private static class Walk {
+        private final TransferService ts;
+        private final String auth;
+        private final MultiEmitter<? super StorageElement> emitter;
+        private final int maxDepth;
+        private final boolean complete;
+        private final int concurrency;
+        private final int maxEntries;
+        private final Queue<Tuple2<String, Integer>> pending = new ArrayDeque<>(); // Folders to list, with their depth
+        private final Map<Tuple2<String, Integer>, Cancellable> inFlight = new IdentityHashMap<>(); // Listings in progress
+        private final AtomicInteger draining = new AtomicInteger(0); // Drain requests not handled yet
+        private int listing = 0;    // Number of folders being listed
+        private int entries = 0;    // Number of entries emitted
+        private boolean stopped = false;
+
+        Walk(TransferService ts, String auth, MultiEmitter<? super StorageElement> emitter,
+             int maxDepth, boolean complete, int concurrency, int maxEntries) {
+            this.ts = ts;
+            this.auth = auth;
+            this.emitter = emitter;
+            this.maxDepth = maxDepth;
+            this.complete = complete;
+            this.concurrency = concurrency;
+            this.maxEntries = maxEntries;
+        }
+
+        /**
+         * Start walking from the root folder
+         */
+        void start(String folderUrl) {
+            synchronized(this) {
+                this.pending.add(Tuple2.of(folderUrl, 1));
+            }
+            drain();
+        }
+
+        /**
+         * Stop walking, cancels the listings in progress
+         */
+        synchronized void stop() {
+            this.stopped = true;
+            this.pending.clear();
+
+            for(var listing : this.inFlight.values())
+                if(null != listing)
+                    listing.cancel();
+
+            this.inFlight.clear();
+        }
+
+        /**
+         * Start listing pending folders, up to the concurrency cap, complete when none are left.
+         * If another thread is already draining, it is asked to go round once more instead.
+         */
+        private void drain() {
+            if(0 != this.draining.getAndIncrement())
+                return;
+
+            int missed = 1;
+            do {
+                List<Tuple2<String, Integer>> folders = new ArrayList<>();
+                boolean done = false;
+                synchronized(this) {
+                    while(!this.stopped && this.listing < this.concurrency && !this.pending.isEmpty()) {
+                        var folder = this.pending.poll();
+                        folders.add(folder);
+                        this.inFlight.put(folder, null);
+                        this.listing++;
+                    }
+
+                    if(!this.stopped && 0 == this.listing && this.pending.isEmpty()) {
+                        // Walked the whole tree
+                        this.stopped = true;
+                        done = true;
+                    }
+                }
+
+                for(var folder : folders) {
+                    LOG.debugf("Listing folder %s", folder.getItem1());
+
+                    var listing = this.ts.listFolderContent(this.auth, folder.getItem1())
+                        .subscribe().with(
+                            content -> listed(folder, content),
+                            e -> failed(folder, e));
+
+                    synchronized(this) {
+                        if(this.stopped)
+                            // Stopped while subscribing
+                            listing.cancel();
+                        else if(this.inFlight.containsKey(folder))
+                            // Not done yet
+                            this.inFlight.put(folder, listing);
+                    }
+                }
+
+                if(done)
+                    this.emitter.complete();
+
+                missed = this.draining.addAndGet(-missed);
+            }
+            while(0 != missed);
+        }
+
+        /**
+         * Emit the content of a folder and queue its sub-folders
+         */
+        private void listed(Tuple2<String, Integer> folder, StorageContent content) {
+            synchronized(this) {
+                this.listing--;
+                this.inFlight.remove(folder);
+                if(this.stopped)
+                    return;
+
+                for(var se : content.elements) {
+                    if(this.entries >= this.maxEntries) {
+                        // Entry budget exhausted
+                        LOG.warnf("Stopped walking folder tree after %d entries", this.entries);
+                        stop();
+                        this.emitter.fail(new TransferServiceException("tooManyEntries",
+                                                Tuple2.of("maxEntries", String.valueOf(this.maxEntries))));
+                        return;
+                    }
+
+                    if(this.complete && se.isFolder && folder.getItem2() >= this.maxDepth) {
+                        // Cannot list the whole tree
+                        LOG.warnf("Stopped walking folder tree at depth %d", this.maxDepth);
+                        stop();
+                        this.emitter.fail(new TransferServiceException("treeTooDeep",
+                                                Tuple2.of("maxDepth", String.valueOf(this.maxDepth))));
+                        return;
+                    }
+
+                    this.entries++;
+                    this.emitter.emit(se);
+
+                    if(se.isFolder && folder.getItem2() < this.maxDepth && null != se.accessUrl)
+                        this.pending.add(Tuple2.of(se.accessUrl, folder.getItem2() + 1));
+                }
+            }
+
+            drain();
+        }
+
+        /**
+         * Abort the walk when a folder cannot be listed
+         */
+        private synchronized void failed(Tuple2<String, Integer> folder, Throwable e) {
+            this.listing--;
+            this.inFlight.remove(folder);
+            if(this.stopped)
+                return;
+
+            LOG.errorf("Failed to list folder %s", folder.getItem1());
+            stop();
+            this.emitter.fail(e);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package eosc.eu;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+
+/**
+ * Hashes access tokens, so that they can be used as keys (e.g. in caches)
+ * without keeping the tokens themselves in memory.
+ */
+public class TokenHash {
+
+    /**
+     * Compute the SHA-256 hash of the value of an "Authorization" header.
+     * @param auth The access token, can be null.
+     * @return URL-safe Base64 encoded hash of the access token.
+     */
+    public static String of(String auth) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] hash = md.digest((null != auth ? auth : "").getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(hash);
+        }
+        catch (NoSuchAlgorithmException e) {
+            // Every Java platform must support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
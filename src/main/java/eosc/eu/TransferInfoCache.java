@@ -0,0 +1,199 @@
+package eosc.eu;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.smallrye.mutiny.Uni;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import static javax.ws.rs.core.HttpHeaders.*;
+
+import eosc.eu.model.TransferInfoExtended;
+import eosc.eu.model.TransferStatusList;
+
+
+/***
+ * Cache of transfer details, sits in front of TransferService.getTransferInfo(),
+ * TransferService.getTransfersInfo(), and TransferService.getTransferInfoField().
+ * Transfers in a terminal state can no longer change, thus they stay cached until evicted
+ * because the cache is full. Transfers still in progress are cached for a short time only.
+ * Entries are keyed by the hash of the access token, the destination, and the transfer Id.
+ * Single fields are always read from the (cached) details of the transfer, so they come in the
+ * format of TransferInfoExtended (like the fields of composite transfers, see TransferPlanner),
+ * whether or not the details of the transfer happen to be cached.
+ */
+@ApplicationScoped
+public class TransferInfoCache {
+
+    private static final Logger LOG = Logger.getLogger(TransferInfoCache.class);
+
+    @Inject
+    TransfersConfig config;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    // Also answers requests for single fields, which are thus in the format of TransferInfoExtended
+    // rather than as returned by the transfer service (e.g. FTS), because only the details of
+    // the transfer are cached (caching raw fields too would return stale values for active jobs)
+    private Cache<String, TransferInfoExtended> cache;
+
+
+    /***
+     * Create the cache and register its hit/miss metrics
+     */
+    @PostConstruct
+    void init() {
+        var cacheConfig = config.cache().transferInfo();
+        final long activeTtl = Duration.ofMillis(cacheConfig.activeTtl()).toNanos();
+
+        this.cache = Caffeine.newBuilder()
+                        .maximumSize(cacheConfig.maxSize())
+                        .expireAfter(new Expiry<String, TransferInfoExtended>() {
+                            public long expireAfterCreate(String key, TransferInfoExtended info, long currentTime) {
+                                return info.isTerminal() ? Long.MAX_VALUE : activeTtl;
+                            }
+                            public long expireAfterUpdate(String key, TransferInfoExtended info, long currentTime, long currentDuration) {
+                                return info.isTerminal() ? Long.MAX_VALUE : activeTtl;
+                            }
+                            public long expireAfterRead(String key, TransferInfoExtended info, long currentTime, long currentDuration) {
+                                return currentDuration;
+                            }
+                        })
+                        .recordStats()
+                        .build();
+
+        CaffeineCacheMetrics.monitor(Metrics.globalRegistry, this.cache, "transferInfo");
+    }
+
+    /**
+     * Get a cached transfer, if available.
+     * @param destination The destination key the transfer service was selected for.
+     * @param auth The access token needed to call the service.
+     * @param jobId The ID of the transfer.
+     * @return Details of the transfer, null if not cached.
+     */
+    public TransferInfoExtended get(String destination, String auth, String jobId) {
+        return this.cache.getIfPresent(key(destination, auth, jobId));
+    }
+
+    /**
+     * Add or update a transfer in the cache.
+     * @param destination The destination key the transfer service was selected for.
+     * @param auth The access token needed to call the service.
+     * @param transferInfo Details of the transfer.
+     */
+    public void put(String destination, String auth, TransferInfoExtended transferInfo) {
+        if(null != transferInfo && null != transferInfo.jobId)
+            this.cache.put(key(destination, auth, transferInfo.jobId), transferInfo);
+    }
+
+    /**
+     * Request information about a transfer, from the cache if available.
+     * @param destination The destination key the transfer service was selected for.
+     * @param ts The transfer service to call on cache miss.
+     * @param auth The access token needed to call the service.
+     * @param jobId The ID of the transfer to request info about.
+     * @return Details of the transfer.
+     */
+    public Uni<TransferInfoExtended> getTransferInfo(String destination, TransferService ts, String auth, String jobId) {
+
+        var transferInfo = get(destination, auth, jobId);
+        if(null != transferInfo) {
+            LOG.debugf("Using cached details of transfer %s", jobId);
+            return Uni.createFrom().item(transferInfo);
+        }
+
+        return ts.getTransferInfo(auth, jobId)
+            .invoke(ti -> {
+                // Cache for subsequent calls
+                put(destination, auth, ti);
+            });
+    }
+
+    /**
+     * Request information about multiple transfers.
+     * Only the transfers that are not cached are requested from the transfer service.
+     * @param destination The destination key the transfer service was selected for.
+     * @param ts The transfer service to call for the transfers that are not cached.
+     * @param auth The access token needed to call the service.
+     * @param jobIds The IDs of the transfers to request info about.
+     * @return Details of the transfers, and an error for each transfer that could not be retrieved.
+     */
+    public Uni<TransferStatusList> getTransfersInfo(String destination, TransferService ts, String auth, List<String> jobIds) {
+
+        var transfers = new TransferStatusList();
+        List<String> notCached = new ArrayList<>();
+        for(var jobId : new LinkedHashSet<>(jobIds)) {
+            var transferInfo = get(destination, auth, jobId);
+            if(null != transferInfo)
+                transfers.add(transferInfo);
+            else
+                notCached.add(jobId);
+        }
+
+        LOG.debugf("Using cached details of %d transfers", transfers.count);
+
+        if(notCached.isEmpty())
+            return Uni.createFrom().item(transfers);
+
+        return ts.getTransfersInfo(auth, notCached)
+            .map(retrieved -> {
+                // Cache for subsequent calls
+                for(var transferInfo : retrieved.transfers)
+                    put(destination, auth, transferInfo);
+
+                transfers.addAll(retrieved);
+                return transfers;
+            });
+    }
+
+    /**
+     * Request specific field from information about a transfer, read from its details (cached if available).
+     * @param destination The destination key the transfer service was selected for.
+     * @param ts The transfer service to call on cache miss.
+     * @param auth The access token needed to call the service.
+     * @param jobId The ID of the transfer to request info about.
+     * @param fieldName The name of the TransferInfoExtended field to retrieve.
+     * @return The value of the requested field from a transfer's information.
+     */
+    public Uni<Response> getTransferInfoField(String destination, TransferService ts, String auth, String jobId, String fieldName) {
+
+        if(!"parts".equals(fieldName) && null == ts.translateTransferInfoFieldName(fieldName))
+            return Uni.createFrom().failure(new TransferServiceException("fieldNotSupported"));
+
+        return getTransferInfo(destination, ts, auth, jobId)
+            .chain(transferInfo -> {
+                // Got details of the transfer
+                JsonNode field = this.objectMapper.valueToTree(transferInfo).get(fieldName);
+                if(null == field || field.isNull())
+                    return Uni.createFrom().failure(new TransferServiceException("fieldNotFound"));
+
+                if(field.isContainerNode())
+                    return Uni.createFrom().item(Response.ok(field).build());
+
+                // Not an object, return as text/plain
+                return Uni.createFrom().item(Response.ok(field.asText()).header(CONTENT_TYPE, MediaType.TEXT_PLAIN).build());
+            });
+    }
+
+    /**
+     * Build cache key from token hash, destination, and transfer Id.
+     */
+    private static String key(String destination, String auth, String jobId) {
+        return TokenHash.of(auth) + "@" + destination + "/" + jobId;
+    }
+}
@@ -0,0 +1,543 @@
+package eosc.eu;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.arc.Arc;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.tuples.Tuple2;
+import io.smallrye.mutiny.tuples.Tuple3;
+import org.jboss.logging.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import static javax.ws.rs.core.HttpHeaders.CONTENT_TYPE;
+
+import eosc.eu.model.*;
+import eosc.eu.TransfersConfig.TransferServiceConfig;
+import egi.fts.model.JobInfo;
+
+
+/***
+ * Sits in front of a transfer service and splits large transfers into multiple jobs.
+ * Transfers with more than "max-job-files" files are submitted as jobs of at most that many
+ * files each, with at most "submit-concurrency" submissions in progress at any time.
+ * A transfer is split into at most "max-jobs" jobs, larger ones are rejected.
+ * Transfers can also be submitted while their files are still being determined.
+ * Such a transfer gets a composite ID, which encodes the IDs of its jobs (so that any instance
+ * of the proxy can resolve it without shared state, its length is capped by "max-jobs"), and all other
+ * methods accept composite IDs and treat the jobs as a single transfer (with aggregate
+ * state, and the details of the jobs as its parts). All jobs of a transfer are tagged with
+ * the same metadata, so that they can be grouped when found by findTransfers().
+ */
+public class TransferPlanner implements TransferService {
+
+    private static final Logger LOG = Logger.getLogger(TransferPlanner.class);
+    private static final String compositePrefix = "multi-";
+    private static final String groupKey = "multi_job";         // Metadata that identifies the transfer a job is part of
+    private static final String partKey = "multi_job_part";     // Metadata with the index and count of parts, e.g. "2/5"
+
+    private final TransferService ts;
+    private int maxJobFiles;
+    private int maxJobs;
+    private int submitConcurrency;
+
+
+    /***
+     * Construct in front of a transfer service
+     */
+    public TransferPlanner(TransferService ts) {
+        this.ts = ts;
+    }
+
+    /***
+     * Initialize the underlying service and the chunking limits.
+     * @return true on success.
+     */
+    public boolean initService(TransferServiceConfig config) {
+        this.maxJobFiles = config.maxJobFiles();
+        this.maxJobs = Math.max(1, config.maxJobs());
+        this.submitConcurrency = Math.max(1, config.submitConcurrency());
+        return this.ts.initService(config);
+    }
+
+    /***
+     * Check if a transfer ID identifies a transfer submitted as multiple jobs.
+     */
+    public static boolean isComposite(String jobId) {
+        return null != jobId && jobId.startsWith(compositePrefix);
+    }
+
+    /***
+     * Build composite transfer ID from the IDs of the jobs, in submission order.
+     */
+    private static String compositeId(List<String> jobIds) {
+        var ids = String.join(",", jobIds);
+        return compositePrefix + Base64.getUrlEncoder().withoutPadding().encodeToString(ids.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /***
+     * Build the error for transfers that need more than the maximum number of jobs.
+     */
+    private TransferServiceException tooManyFiles() {
+        return new TransferServiceException("tooManyFiles",
+                        Tuple2.of("maxFiles", String.valueOf((long)this.maxJobFiles * this.maxJobs)));
+    }
+
+    /***
+     * Extract the IDs of the jobs from a composite transfer ID.
+     * @return IDs of the jobs, fails with TransferServiceException "invalidJobId" if the ID is not valid.
+     */
+    private static List<String> partsOf(String jobId) throws TransferServiceException {
+        try {
+            var ids = new String(Base64.getUrlDecoder().decode(jobId.substring(compositePrefix.length())), StandardCharsets.UTF_8);
+            List<String> parts = new ArrayList<>();
+            for(var id : ids.split(","))
+                if(!id.isBlank())
+                    parts.add(id);
+
+            if(!parts.isEmpty())
+                return parts;
+        }
+        catch(IllegalArgumentException e) {
+            // Not valid Base64
+        }
+
+        throw new TransferServiceException("invalidJobId", Tuple2.of("jobId", jobId));
+    }
+
+    public String getServiceName() { return this.ts.getServiceName(); }
+
+    public boolean canBrowseStorage() { return this.ts.canBrowseStorage(); }
+
+    public String translateTransferInfoFieldName(String genericFieldName) {
+        return this.ts.translateTransferInfoFieldName(genericFieldName);
+    }
+
+    public Uni<UserInfo> getUserInfo(String auth) { return this.ts.getUserInfo(auth); }
+
+    /**
+     * Initiate new transfer of multiple sets of files.
+     * Large transfers are split into multiple jobs, submitted in parallel. If any job cannot
+     * be submitted, the jobs that were submitted are canceled.
+     * @param auth The access token needed to call the service.
+     * @param transfer The details of the transfer (source and destination files, parameters).
+     * @return Identification for the new transfer, a composite ID if it was split,
+     *         fails with TransferServiceException "tooManyFiles" if it needs more than "max-jobs" jobs.
+     */
+    public Uni<TransferInfo> startTransfer(String auth, Transfer transfer) {
+
+        if(this.maxJobFiles <= 0 || null == transfer.files || transfer.files.size() <= this.maxJobFiles)
+            return this.ts.startTransfer(auth, transfer);
+
+        if(transfer.files.size() > (long)this.maxJobFiles * this.maxJobs)
+            return Uni.createFrom().failure(tooManyFiles());
+
+        LOG.infof("Submitting transfer of %d files as %d jobs", transfer.files.size(),
+                  (transfer.files.size() + this.maxJobFiles - 1) / this.maxJobFiles);
+
+        return startTransfer(auth, Multi.createFrom().iterable(transfer.files), transfer.params);
+    }
+
+    /**
+     * Initiate new transfer of files that are not all known yet.
+     * Each time enough files are known to fill a job, the job is submitted, with at most
+     * "submit-concurrency" submissions in progress. If there are no more files than fit
+     * in a single job, a regular (not composite) transfer is started. If any job cannot
+     * be submitted, or if the files cannot be determined, the jobs that were submitted are canceled.
+     * @param auth The access token needed to call the service.
+     * @param files The sets of files to transfer, as they become known.
+     * @param params The parameters of the transfer.
+     * @return Identification for the new transfer, a composite ID if it was split,
+     *         fails with TransferServiceException "tooManyFiles" if it needs more than "max-jobs" jobs.
+     */
+    public Uni<TransferInfo> startTransfer(String auth, Multi<TransferPayload> files, TransferParameters params) {
+
+        if(this.maxJobFiles <= 0)
+            return this.ts.startTransfer(auth, files, params);
+
+        final String group = UUID.randomUUID().toString();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final AtomicReference<List<TransferPayload>> previous = new AtomicReference<>();
+        final AtomicInteger index = new AtomicInteger(0);
+        final Map<Integer, TransferInfo> submitted = new ConcurrentSkipListMap<>();
+
+        // Split into jobs, holding back each job until the next one is known,
+        // so that we know which one is the last (an empty list marks the end)
+        Multi<Tuple3<Integer, List<TransferPayload>, Boolean>> jobs = files
+            .onFailure().invoke(e -> error.compareAndSet(null, e))
+            .onFailure().recoverWithCompletion()
+            .group().intoLists().of(this.maxJobFiles)
+            .onCompletion().continueWith(List.<TransferPayload>of())
+            .onItem().transformToMultiAndConcatenate(job -> {
+                var ready = previous.getAndSet(job.isEmpty() ? null : job);
+                if(null == ready)
+                    return Multi.createFrom().empty();
+
+                return Multi.createFrom().item(Tuple3.of(index.getAndIncrement(), ready, job.isEmpty()));
+            });
+
+        Uni<TransferInfo> result = jobs
+            .onItem().transformToUni(job -> {
+                if(null != error.get())
+                    // Do not submit more jobs after a failure
+                    return Uni.createFrom().voidItem();
+
+                if(job.getItem1() >= this.maxJobs) {
+                    // Composite ID would get too long
+                    error.compareAndSet(null, tooManyFiles());
+                    return Uni.createFrom().voidItem();
+                }
+
+                final boolean single = 0 == job.getItem1() && job.getItem3();
+                var transfer = new Transfer();
+                transfer.files = job.getItem2();
+                transfer.params = (null != params) ? new TransferParameters(params) : new TransferParameters();
+                if(!single) {
+                    // Tag as part of the same transfer, only the last part knows how many parts there are
+                    if(null == transfer.params.jobMetadata)
+                        transfer.params.jobMetadata = new HashMap<>();
+
+                    transfer.params.jobMetadata.put(groupKey, group);
+                    transfer.params.jobMetadata.put(partKey, job.getItem3() ?
+                                                        String.format("%d/%d", job.getItem1() + 1, job.getItem1() + 1) :
+                                                        String.valueOf(job.getItem1() + 1));
+                }
+
+                return this.ts.startTransfer(auth, transfer)
+                    .invoke(transferInfo -> submitted.put(job.getItem1(), transferInfo))
+                    .onFailure().invoke(e -> error.compareAndSet(null, e))
+                    .onFailure().recoverWithNull()
+                    .replaceWithVoid();
+            })
+            .merge(this.submitConcurrency)
+            .collect().last()
+            .chain(unused -> {
+                // All submissions done
+                if(null == error.get()) {
+                    if(submitted.isEmpty())
+                        return Uni.createFrom().failure(new TransferServiceException("noFilesToTransfer"));
+
+                    if(1 == submitted.size() && index.get() == 1)
+                        // Fit in a single job
+                        return Uni.createFrom().item(submitted.get(0));
+
+                    List<String> jobIds = new ArrayList<>(submitted.size());
+                    for(var transferInfo : submitted.values())
+                        jobIds.add(transferInfo.jobId);
+
+                    LOG.infof("Submitted transfer as %d jobs", jobIds.size());
+
+                    var ji = new JobInfo();
+                    ji.job_id = compositeId(jobIds);
+                    return Uni.createFrom().item(new TransferInfo(ji));
+                }
+
+                // Do not leave behind a partial transfer
+                LOG.errorf("Failed to submit all jobs of transfer, canceling the %d submitted ones", submitted.size());
+                return Multi.createFrom().iterable(new ArrayList<>(submitted.values()))
+                    .onItem().transformToUni(transferInfo -> this.ts.cancelTransfer(auth, transferInfo.jobId)
+                        .onFailure().recoverWithNull())
+                    .merge(this.submitConcurrency)
+                    .collect().last()
+                    .onItem().transformToUni(canceled -> Uni.createFrom().<TransferInfo>failure(error.get()));
+            });
+
+        return result;
+    }
+
+    /***
+     * Find transfers matching criteria.
+     * Jobs that are parts of the same transfer are returned as a single transfer, if all of them are found
+     * (requires the field "jobMetadata"). Takes the same parameters as TransferService.findTransfers().
+     * @return Matching transfers.
+     */
+    public Uni<TransferList> findTransfers(String auth, String fields, int limit,
+                                           String timeWindow, String stateIn,
+                                           String srcStorageElement, String dstStorageElement,
+                                           String delegationId, String voName, String userDN) {
+
+        return this.ts.findTransfers(auth, fields, limit, timeWindow, stateIn,
+                                     srcStorageElement, dstStorageElement, delegationId, voName, userDN)
+            .map(transfers -> {
+                // Group the parts of the same transfer
+                Map<String, TreeMap<Integer, TransferInfoExtended>> groups = new HashMap<>();
+                Map<String, Integer> partCounts = new HashMap<>();
+                List<TransferInfoExtended> grouped = new ArrayList<>(transfers.transfers.size());
+                for(var transferInfo : transfers.transfers) {
+                    var part = partIndex(transferInfo);
+                    if(null == part) {
+                        grouped.add(transferInfo);
+                        continue;
+                    }
+
+                    var group = transferInfo.jobMetadata.get(groupKey);
+                    groups.computeIfAbsent(group, g -> new TreeMap<>()).put(part.getItem1(), transferInfo);
+                    if(part.getItem2() > 0)
+                        partCounts.put(group, part.getItem2());
+                }
+
+                for(var group : groups.entrySet()) {
+                    var parts = group.getValue();
+                    int count = partCounts.getOrDefault(group.getKey(), 0);
+                    if(count > 0 && parts.size() == count && parts.lastKey() == count - 1) {
+                        List<String> jobIds = new ArrayList<>(count);
+                        for(var part : parts.values())
+                            jobIds.add(part.jobId);
+
+                        grouped.add(aggregate(compositeId(jobIds), new ArrayList<>(parts.values())));
+                    }
+                    else
+                        // Some parts did not match, cannot return the transfer as a unit
+                        grouped.addAll(parts.values());
+                }
+
+                // The found transfers may be shared with other callers, leave them untouched
+                var result = new TransferList(List.of());
+                result.transfers = grouped;
+                result.count = grouped.size();
+                return result;
+            });
+    }
+
+    /***
+     * Find transfers matching criteria, streaming each matching transfer as soon as it is available.
+     * Jobs that are parts of the same transfer are returned separately.
+     */
+    public Multi<TransferInfoExtended> streamTransfers(String auth, String fields, int limit,
+                                                       String timeWindow, String stateIn,
+                                                       String srcStorageElement, String dstStorageElement,
+                                                       String delegationId, String voName, String userDN) {
+        return this.ts.streamTransfers(auth, fields, limit, timeWindow, stateIn,
+                                       srcStorageElement, dstStorageElement, delegationId, voName, userDN);
+    }
+
+    /**
+     * Request information about a transfer.
+     * @param auth The access token needed to call the service.
+     * @param jobId The ID of the transfer to request info about, may be a composite ID.
+     * @return Details of the transfer.
+     */
+    public Uni<TransferInfoExtended> getTransferInfo(String auth, String jobId) {
+
+        if(!isComposite(jobId))
+            return this.ts.getTransferInfo(auth, jobId);
+
+        return getTransfersInfo(auth, List.of(jobId))
+            .chain(transfers -> {
+                // Got details of all parts, or an error
+                if(!transfers.transfers.isEmpty())
+                    return Uni.createFrom().item(transfers.transfers.get(0));
+
+                var error = transfers.errors.get(jobId);
+                if("invalidJobId".equals(error.id))
+                    return Uni.createFrom().failure(new TransferServiceException(error.id, Tuple2.of("jobId", jobId)));
+
+                return Uni.createFrom().failure(new WebApplicationException(error.getStatus()));
+            });
+    }
+
+    /**
+     * Request information about multiple transfers.
+     * Composite IDs are expanded, and the details of all jobs are requested in bulk.
+     * @param auth The access token needed to call the service.
+     * @param jobIds The IDs of the transfers to request info about, may include composite IDs.
+     * @return Details of the transfers, and an error for each transfer that could not be retrieved.
+     */
+    public Uni<TransferStatusList> getTransfersInfo(String auth, List<String> jobIds) {
+
+        if(jobIds.stream().noneMatch(TransferPlanner::isComposite))
+            return this.ts.getTransfersInfo(auth, jobIds);
+
+        // Expand composite IDs
+        var result = new TransferStatusList();
+        Map<String, List<String>> composites = new LinkedHashMap<>();
+        Set<String> expanded = new LinkedHashSet<>();
+        for(var jobId : jobIds) {
+            if(!isComposite(jobId)) {
+                expanded.add(jobId);
+                continue;
+            }
+
+            try {
+                var parts = partsOf(jobId);
+                composites.put(jobId, parts);
+                expanded.addAll(parts);
+            }
+            catch(TransferServiceException e) {
+                result.addError(jobId, new ActionError(e, Tuple2.of("jobId", jobId)));
+            }
+        }
+
+        if(expanded.isEmpty())
+            return Uni.createFrom().item(result);
+
+        return this.ts.getTransfersInfo(auth, new ArrayList<>(expanded))
+            .map(transfers -> {
+                // Got details of all jobs, reassemble the transfers
+                Map<String, TransferInfoExtended> byId = new HashMap<>();
+                for(var transferInfo : transfers.transfers)
+                    byId.put(transferInfo.jobId, transferInfo);
+
+                for(var jobId : jobIds) {
+                    var parts = composites.get(jobId);
+                    if(null == parts) {
+                        if(byId.containsKey(jobId))
+                            result.add(byId.get(jobId));
+                        else if(transfers.errors.containsKey(jobId))
+                            result.addError(jobId, transfers.errors.get(jobId));
+
+                        continue;
+                    }
+
+                    List<TransferInfoExtended> details = new ArrayList<>(parts.size());
+                    ActionError error = null;
+                    for(var part : parts) {
+                        var transferInfo = byId.get(part);
+                        if(null != transferInfo)
+                            details.add(transferInfo);
+                        else if(null == error)
+                            error = transfers.errors.getOrDefault(part,
+                                        new ActionError("transferNotFound").setStatus(Status.NOT_FOUND));
+                    }
+
+                    if(null == error)
+                        result.add(aggregate(jobId, details));
+                    else
+                        // Report the transfer with the error of its first failed part
+                        result.addError(jobId, new ActionError(error.id, Tuple2.of("jobId", jobId)).setStatus(error.getStatus()));
+                }
+
+                return result;
+            });
+    }
+
+    /**
+     * Request specific field from information about a transfer.
+     * For composite IDs, the field is always read from the aggregate details of the transfer
+     * (there is no single job to read it from), so its format is that of TransferInfoExtended.
+     * @param auth The access token needed to call the service.
+     * @param jobId The ID of the transfer to request info about, may be a composite ID.
+     * @param fieldName The name of the TransferInfoExtended field to retrieve.
+     * @return The value of the requested field from a transfer's information.
+     */
+    public Uni<Response> getTransferInfoField(String auth, String jobId, String fieldName) {
+
+        if(!isComposite(jobId))
+            return this.ts.getTransferInfoField(auth, jobId, fieldName);
+
+        if(!"parts".equals(fieldName) && null == translateTransferInfoFieldName(fieldName))
+            return Uni.createFrom().failure(new TransferServiceException("fieldNotSupported"));
+
+        return getTransferInfo(auth, jobId)
+            .chain(transferInfo -> {
+                // Got aggregate details
+                var objectMapper = Arc.container().instance(ObjectMapper.class).get();
+                JsonNode field = objectMapper.valueToTree(transferInfo).get(fieldName);
+                if(null == field || field.isNull())
+                    return Uni.createFrom().failure(new TransferServiceException("fieldNotFound"));
+
+                if(field.isContainerNode())
+                    return Uni.createFrom().item(Response.ok(field).build());
+
+                // Not an object, return as text/plain
+                return Uni.createFrom().item(Response.ok(field.asText()).header(CONTENT_TYPE, MediaType.TEXT_PLAIN).build());
+            });
+    }
+
+    /**
+     * Cancel a transfer.
+     * For composite IDs, all jobs of the transfer are canceled in parallel.
+     * @param auth The access token needed to call the service.
+     * @param jobId The ID of the transfer to cancel, may be a composite ID.
+     * @return Details of the cancelled transfer.
+     */
+    public Uni<TransferInfoExtended> cancelTransfer(String auth, String jobId) {
+
+        if(!isComposite(jobId))
+            return this.ts.cancelTransfer(auth, jobId);
+
+        List<String> parts;
+        try {
+            parts = partsOf(jobId);
+        }
+        catch(TransferServiceException e) {
+            return Uni.createFrom().failure(e);
+        }
+
+        TransferInfoExtended[] canceled = new TransferInfoExtended[parts.size()];
+        Uni<TransferInfoExtended> result = Multi.createFrom().range(0, parts.size())
+            .onItem().transformToUni(i -> this.ts.cancelTransfer(auth, parts.get(i))
+                .invoke(transferInfo -> { canceled[i] = transferInfo; })
+                .replaceWithVoid())
+            .merge(this.submitConcurrency)
+            .collect().last()
+            .map(unused -> aggregate(jobId, Arrays.asList(canceled)));
+
+        return result;
+    }
+
+    public Uni<StorageContent> listFolderContent(String auth, String folderUrl) {
+        return this.ts.listFolderContent(auth, folderUrl);
+    }
+
+    public Uni<StorageElement> getStorageElementInfo(String auth, String seUrl) {
+        return this.ts.getStorageElementInfo(auth, seUrl);
+    }
+
+    public Uni<String> createFolder(String auth, String folderUrl) {
+        return this.ts.createFolder(auth, folderUrl);
+    }
+
+    public Uni<String> deleteFolder(String auth, String folderUrl) {
+        return this.ts.deleteFolder(auth, folderUrl);
+    }
+
+    public Uni<String> deleteFile(String auth, String fileUrl) {
+        return this.ts.deleteFile(auth, fileUrl);
+    }
+
+    public Uni<String> renameStorageElement(String auth, String seOld, String seNew) {
+        return this.ts.renameStorageElement(auth, seOld, seNew);
+    }
+
+    /**
+     * Build the details of a transfer from the details of its jobs.
+     */
+    private static TransferInfoExtended aggregate(String jobId, List<TransferInfoExtended> parts) {
+        var transferInfo = new TransferInfoExtended(jobId, parts);
+        transferInfo.jobMetadata.remove(partKey);
+        return transferInfo;
+    }
+
+    /**
+     * Get the position of a job in the transfer it is part of.
+     * Parts are tagged with their index, the last part also with the number of parts (e.g. "5/5").
+     * @return Zero-based index and count of parts (0 if not known), null if the job is not part of a larger transfer.
+     */
+    private static Tuple2<Integer, Integer> partIndex(TransferInfoExtended transferInfo) {
+        if(null == transferInfo.jobMetadata || !transferInfo.jobMetadata.containsKey(groupKey))
+            return null;
+
+        var part = transferInfo.jobMetadata.get(partKey);
+        if(null == part)
+            return null;
+
+        try {
+            var separator = part.indexOf('/');
+            int index = Integer.parseInt((separator < 0) ? part : part.substring(0, separator)) - 1;
+            int count = (separator < 0) ? 0 : Integer.parseInt(part.substring(separator + 1));
+            return (index >= 0 && (0 == count || index < count)) ? Tuple2.of(index, count) : null;
+        }
+        catch(NumberFormatException e) {
+            return null;
+        }
+    }
+}
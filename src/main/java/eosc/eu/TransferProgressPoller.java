@@ -0,0 +1,388 @@
+package eosc.eu;
+
+import io.micrometer.core.instrument.Metrics;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.operators.multi.processors.BroadcastProcessor;
+import io.smallrye.mutiny.subscription.Cancellable;
+import io.smallrye.mutiny.tuples.Tuple2;
+import io.vertx.mutiny.core.Vertx;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response.Status.Family;
+
+import eosc.eu.model.TransferInfoExtended;
+
+
+/***
+ * Watches transfers on behalf of any number of subscribers, with a single proxy-wide poller.
+ * Each watched transfer is polled once per interval no matter how many clients subscribed to it,
+ * and all transfers watched with the same access token and destination are queried in bulk.
+ * Subscribers only receive the details of a transfer when its state changes.
+ * Watches are kept for a grace period after their last subscriber left, so that clients
+ * that reconnect (e.g. long-polling ones) do not lose the changes in between.
+ * The number of watched transfers is capped, both per access token and overall, as each of
+ * them is polled until it ends. Subscribing to a transfer that is already watched is always allowed.
+ */
+@ApplicationScoped
+public class TransferProgressPoller {
+
+    private static final Logger LOG = Logger.getLogger(TransferProgressPoller.class);
+
+    @Inject
+    TransfersConfig config;
+
+    @Inject
+    TransferInfoCache transferInfoCache;
+
+    @Inject
+    Vertx vertx;
+
+    private final Map<String, TransferWatch> watches = new ConcurrentHashMap<>(); // Indexed by token hash, destination, and transfer Id
+    private final Map<String, Integer> owned = new ConcurrentHashMap<>(); // Number of watches, by token hash
+    private final AtomicBoolean polling = new AtomicBoolean(false);
+    private long timerId = -1;
+
+
+    /***
+     * A transfer watched on behalf of one or more subscribers
+     */
+    private static class TransferWatch {
+        final String key;
+        final String owner;     // Token hash
+        final String group;     // Transfers in the same group are polled together
+        final String destination;
+        final TransferService ts;
+        final String auth;
+        final String jobId;
+        final BroadcastProcessor<TransferInfoExtended> updates = BroadcastProcessor.create();
+        final AtomicInteger subscribers = new AtomicInteger(0);
+        volatile TransferInfoExtended last;         // Changed under this
+        volatile TransferInfoExtended published;    // Changed under this
+        volatile String lastDigest;
+        volatile boolean done;
+        volatile long idleSince = System.currentTimeMillis();
+
+        TransferWatch(String key, String owner, String group, String destination, TransferService ts, String auth, String jobId) {
+            this.key = key;
+            this.owner = owner;
+            this.group = group;
+            this.destination = destination;
+            this.ts = ts;
+            this.auth = auth;
+            this.jobId = jobId;
+        }
+    }
+
+
+    /***
+     * Start the poller and register the metrics
+     */
+    @PostConstruct
+    void init() {
+        this.timerId = this.vertx.setPeriodic(config.progress().pollInterval(), id -> poll());
+        Metrics.gauge("proxy.transfer.progress.watched", this.watches, Map::size);
+    }
+
+    /***
+     * Stop the poller
+     */
+    @PreDestroy
+    void destroy() {
+        if(this.timerId >= 0)
+            this.vertx.cancelTimer(this.timerId);
+    }
+
+    /**
+     * Subscribe to the changes of a transfer.
+     * Subscribers to the same transfer share a single watch, the current details (if known)
+     * are emitted immediately, then details are emitted each time the state of the transfer changes.
+     * New watches start from the cached details of the transfer, if any, otherwise they are
+     * polled together with all other watched transfers.
+     * @param destination The destination key the transfer service was selected for.
+     * @param ts The transfer service to poll.
+     * @param auth The access token needed to call the service.
+     * @param jobId The ID of the transfer to watch.
+     * @return Details of the transfer, completes after the transfer reaches a terminal state,
+     *         fails with WebApplicationException if the transfer cannot be watched (e.g. not found),
+     *         with TransferServiceException "tooManyWatches" if the access token watches too many transfers,
+     *         or with TransferServiceException "serviceUnavailable" if too many transfers are watched overall.
+     */
+    public Multi<TransferInfoExtended> watch(String destination, TransferService ts, String auth, String jobId) {
+
+        final String owner = TokenHash.of(auth);
+        final String group = owner + "@" + destination;
+        final String key = group + "/" + jobId;
+
+        return Multi.createFrom().emitter(emitter -> {
+            AtomicBoolean created = new AtomicBoolean(false);
+            TransferWatch watch;
+            try {
+                watch = this.watches.compute(key, (k, w) -> {
+                    if(null == w) {
+                        // New watch, check the limits
+                        claim(owner);
+                        w = new TransferWatch(k, owner, group, destination, ts, auth, jobId);
+                        created.set(true);
+                    }
+
+                    w.subscribers.incrementAndGet();
+                    return w;
+                });
+            }
+            catch(TransferServiceException e) {
+                LOG.warnf("Cannot watch transfer %s, %s", jobId, e.getId());
+                emitter.fail(e);
+                return;
+            }
+
+            if(created.get()) {
+                LOG.debugf("Watching transfer %s", jobId);
+                var cached = this.transferInfoCache.get(destination, auth, jobId);
+                if(null != cached && record(watch, cached))
+                    publish(watch);
+            }
+
+            AtomicReference<Cancellable> subscription = new AtomicReference<>();
+            emitter.onTermination(() -> {
+                var updates = subscription.getAndSet(null);
+                if(null != updates)
+                    updates.cancel();
+
+                unsubscribe(watch);
+            });
+
+            // Take the last details and subscribe to the changes atomically,
+            // so that no change is lost or emitted twice in between
+            synchronized(watch) {
+                final var last = watch.last;
+                if(null != last)
+                    emitter.emit(last);
+
+                subscription.set(watch.updates
+                    .filter(transferInfo -> transferInfo != last)
+                    .subscribe().with(emitter::emit, emitter::fail, emitter::complete));
+            }
+
+            if(emitter.isCancelled()) {
+                // Canceled while subscribing
+                var updates = subscription.getAndSet(null);
+                if(null != updates)
+                    updates.cancel();
+            }
+        });
+    }
+
+    /**
+     * Get the last known details of a watched transfer.
+     * @return Details of the transfer, null if not watched or not polled yet.
+     */
+    public TransferInfoExtended current(String destination, String auth, String jobId) {
+        var watch = this.watches.get(TokenHash.of(auth) + "@" + destination + "/" + jobId);
+        return (null != watch) ? watch.last : null;
+    }
+
+    /**
+     * Count a new watch against the limits of its access token and of the proxy.
+     * @param owner The hash of the access token the transfer is watched with.
+     * @throws TransferServiceException if a limit is reached.
+     */
+    private void claim(String owner) throws TransferServiceException {
+        var progressConfig = config.progress();
+        if(this.watches.size() >= progressConfig.maxWatches())
+            throw new TransferServiceException("serviceUnavailable",
+                                               Tuple2.of("maxWatches", String.valueOf(progressConfig.maxWatches())));
+
+        final int maxPerUser = progressConfig.maxWatchesPerUser();
+        AtomicBoolean claimed = new AtomicBoolean(false);
+        this.owned.compute(owner, (o, count) -> {
+            int current = (null != count) ? count : 0;
+            if(current >= maxPerUser)
+                return count;
+
+            claimed.set(true);
+            return current + 1;
+        });
+
+        if(!claimed.get())
+            throw new TransferServiceException("tooManyWatches",
+                                               Tuple2.of("maxWatchesPerUser", String.valueOf(maxPerUser)));
+    }
+
+    /**
+     * Check if an error signals that a transfer could not be watched because a limit was reached.
+     */
+    public static boolean isOverLimit(Throwable e) {
+        if(!(e instanceof TransferServiceException))
+            return false;
+
+        var id = ((TransferServiceException)e).getId();
+        return "tooManyWatches".equals(id) || "serviceUnavailable".equals(id);
+    }
+
+    /**
+     * Stop counting a watch that was removed against the limit of its access token.
+     */
+    private void release(TransferWatch watch) {
+        this.owned.computeIfPresent(watch.owner, (o, count) -> (count > 1) ? count - 1 : null);
+    }
+
+    /**
+     * Remove a subscriber, the watch is kept for the grace period after the last subscriber left.
+     */
+    private void unsubscribe(TransferWatch watch) {
+        watch.idleSince = System.currentTimeMillis();
+        watch.subscribers.decrementAndGet();
+    }
+
+    /**
+     * Stop watching the transfers that had no subscribers for the grace period.
+     */
+    private void sweep() {
+        final long expired = System.currentTimeMillis() - config.progress().gracePeriod();
+        for(var key : this.watches.keySet())
+            this.watches.computeIfPresent(key, (k, w) -> {
+                if(0 != w.subscribers.get() || w.idleSince > expired)
+                    return w;
+
+                release(w);
+                return null;
+            });
+    }
+
+    /**
+     * Poll all watched transfers, with one bulk query per access token and destination.
+     */
+    private void poll() {
+
+        sweep();
+
+        if(this.watches.isEmpty() || !this.polling.compareAndSet(false, true))
+            // Nothing to do or previous poll still in progress
+            return;
+
+        Map<String, List<TransferWatch>> groups = new HashMap<>();
+        for(var watch : this.watches.values()) {
+            if(!watch.done)
+                groups.computeIfAbsent(watch.group, g -> new ArrayList<>()).add(watch);
+        }
+
+        LOG.debugf("Polling %d groups of watched transfers", groups.size());
+
+        Multi.createFrom().iterable(groups.values())
+            .onItem().transformToUniAndMerge(this::poll)
+            .collect().last()
+            .onTermination().invoke(() -> this.polling.set(false))
+            .subscribe().with(unused -> {}, e -> LOG.error(e));
+    }
+
+    /**
+     * Poll a group of watched transfers, with a single bulk query.
+     * @param group Watched transfers with the same access token and destination.
+     */
+    private Uni<Void> poll(List<TransferWatch> group) {
+
+        var first = group.get(0);
+        Map<String, TransferWatch> watchedJobs = new HashMap<>();
+        for(var watch : group)
+            watchedJobs.put(watch.jobId, watch);
+
+        return first.ts.getTransfersInfo(first.auth, new ArrayList<>(watchedJobs.keySet()))
+            .invoke(transfers -> {
+                // Got transfer details, record all changes before emitting any,
+                // so that subscribers see all transfers that changed in this poll
+                List<TransferWatch> changed = new ArrayList<>();
+                for(var transferInfo : transfers.transfers) {
+                    this.transferInfoCache.put(first.destination, first.auth, transferInfo);
+
+                    var watch = watchedJobs.get(transferInfo.jobId);
+                    if(null != watch && record(watch, transferInfo))
+                        changed.add(watch);
+                }
+
+                for(var watch : changed)
+                    publish(watch);
+
+                for(var jobError : transfers.errors.entrySet()) {
+                    var watch = watchedJobs.get(jobError.getKey());
+                    if(null != watch && Family.CLIENT_ERROR == jobError.getValue().getStatus().getFamily())
+                        // Cannot watch this transfer, other errors may be transient
+                        fail(watch, new WebApplicationException(jobError.getValue().getStatus()));
+                }
+            })
+            .onFailure().invoke(e -> {
+                LOG.errorf("Failed to poll %d watched transfers", group.size());
+            })
+            .onFailure().recoverWithNull()
+            .replaceWithVoid();
+    }
+
+    /**
+     * Record the details of a watched transfer.
+     * @return true if the details must be published, because the state changed or is terminal.
+     */
+    private boolean record(TransferWatch watch, TransferInfoExtended transferInfo) {
+
+        var digest = String.join("|", transferInfo.jobState, transferInfo.status, transferInfo.reason,
+                                      String.valueOf(transferInfo.finishedAt));
+        if(!digest.equals(watch.lastDigest)) {
+            synchronized(watch) {
+                watch.last = transferInfo;
+                watch.lastDigest = digest;
+            }
+            return true;
+        }
+
+        return transferInfo.isTerminal();
+    }
+
+    /**
+     * Emit the last details of a watched transfer, if not emitted yet.
+     * Completes the watch if the transfer reached a terminal state, the watch is kept
+     * (without being polled) for the grace period, for clients that subscribe late.
+     */
+    private void publish(TransferWatch watch) {
+        synchronized(watch) {
+            var last = watch.last;
+            if(watch.done || null == last)
+                return;
+
+            if(last != watch.published) {
+                watch.published = last;
+                watch.updates.onNext(last);
+            }
+
+            if(last.isTerminal()) {
+                // Transfer will not change anymore
+                watch.done = true;
+                watch.updates.onComplete();
+            }
+        }
+    }
+
+    /**
+     * Stop watching a transfer, signals the error to all subscribers.
+     */
+    private void fail(TransferWatch watch, Throwable e) {
+        if(this.watches.remove(watch.key, watch))
+            release(watch);
+
+        synchronized(watch) {
+            watch.done = true;
+            watch.updates.onError(e);
+        }
+    }
+}
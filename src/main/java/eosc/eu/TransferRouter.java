@@ -0,0 +1,290 @@
+package eosc.eu;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.tuples.Tuple2;
+import io.smallrye.mutiny.tuples.Tuple3;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Function;
+import javax.ws.rs.core.Response;
+
+import eosc.eu.model.*;
+import eosc.eu.TransfersConfig.TransferServiceConfig;
+
+
+/***
+ * Sits in front of a transfer service and resolves the IDs of transfers that were routed
+ * to another destination than requested, based on the URL of their storage elements
+ * (see {@link TransferServiceRegistry#route(String)}).
+ * Such a transfer gets a routed ID, which encodes the destination it was routed to and its ID
+ * in the transfer service of that destination (so that any instance of the proxy can resolve it
+ * without shared state). All methods accept routed IDs, whatever destination they are called for,
+ * and report the transfer under its routed ID and with the destination it was routed to.
+ */
+public class TransferRouter implements TransferService {
+
+    private static final String routedPrefix = "route-";
+
+    private final TransferService ts;
+    private final Function<String, TransferService> services; // Transfer service of each destination
+
+
+    /***
+     * Construct in front of a transfer service
+     * @param ts The transfer service of the destination(s) this router is used for.
+     * @param services Looks up the transfer service of a destination, returns null if there is none.
+     */
+    public TransferRouter(TransferService ts, Function<String, TransferService> services) {
+        this.ts = ts;
+        this.services = services;
+    }
+
+    /***
+     * Check if a transfer ID identifies a transfer routed to another destination.
+     */
+    public static boolean isRouted(String jobId) {
+        return null != jobId && jobId.startsWith(routedPrefix);
+    }
+
+    /***
+     * Build routed transfer ID from the destination and the ID of the transfer in its transfer service.
+     */
+    public static String routedId(String destination, String jobId) {
+        var id = destination + "," + jobId;
+        return routedPrefix + Base64.getUrlEncoder().withoutPadding().encodeToString(id.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /***
+     * Extract the destination and the ID of the transfer from a routed transfer ID.
+     * @return Destination, its transfer service, and the ID of the transfer in that service,
+     *         fails with TransferServiceException "invalidJobId" if the ID is not valid.
+     */
+    private Tuple3<String, TransferService, String> targetOf(String jobId) throws TransferServiceException {
+        try {
+            var id = new String(Base64.getUrlDecoder().decode(jobId.substring(routedPrefix.length())), StandardCharsets.UTF_8);
+            int separator = id.indexOf(',');
+            if(separator > 0 && separator < id.length() - 1) {
+                var destination = id.substring(0, separator);
+                var ts = this.services.apply(destination);
+                if(null != ts)
+                    return Tuple3.of(destination, ts, id.substring(separator + 1));
+            }
+        }
+        catch(IllegalArgumentException e) {
+            // Not valid Base64
+        }
+
+        throw new TransferServiceException("invalidJobId", Tuple2.of("jobId", jobId));
+    }
+
+    public boolean initService(TransferServiceConfig config) { return this.ts.initService(config); }
+
+    public String getServiceName() { return this.ts.getServiceName(); }
+
+    public boolean canBrowseStorage() { return this.ts.canBrowseStorage(); }
+
+    public String translateTransferInfoFieldName(String genericFieldName) {
+        return this.ts.translateTransferInfoFieldName(genericFieldName);
+    }
+
+    public Uni<UserInfo> getUserInfo(String auth) { return this.ts.getUserInfo(auth); }
+
+    public Uni<TransferInfo> startTransfer(String auth, Transfer transfer) {
+        return this.ts.startTransfer(auth, transfer);
+    }
+
+    public Uni<TransferInfo> startTransfer(String auth, Multi<TransferPayload> files, TransferParameters params) {
+        return this.ts.startTransfer(auth, files, params);
+    }
+
+    public Uni<TransferList> findTransfers(String auth, String fields, int limit,
+                                           String timeWindow, String stateIn,
+                                           String srcStorageElement, String dstStorageElement,
+                                           String delegationId, String voName, String userDN) {
+        return this.ts.findTransfers(auth, fields, limit, timeWindow, stateIn,
+                                     srcStorageElement, dstStorageElement, delegationId, voName, userDN);
+    }
+
+    public Multi<TransferInfoExtended> streamTransfers(String auth, String fields, int limit,
+                                                       String timeWindow, String stateIn,
+                                                       String srcStorageElement, String dstStorageElement,
+                                                       String delegationId, String voName, String userDN) {
+        return this.ts.streamTransfers(auth, fields, limit, timeWindow, stateIn,
+                                       srcStorageElement, dstStorageElement, delegationId, voName, userDN);
+    }
+
+    /**
+     * Request information about a transfer.
+     * @param auth The access token needed to call the service.
+     * @param jobId The ID of the transfer to request info about, may be a routed ID.
+     * @return Details of the transfer.
+     */
+    public Uni<TransferInfoExtended> getTransferInfo(String auth, String jobId) {
+
+        if(!isRouted(jobId))
+            return this.ts.getTransferInfo(auth, jobId);
+
+        Tuple3<String, TransferService, String> target;
+        try {
+            target = targetOf(jobId);
+        }
+        catch(TransferServiceException e) {
+            return Uni.createFrom().failure(e);
+        }
+
+        return target.getItem2().getTransferInfo(auth, target.getItem3())
+            .map(transferInfo -> new TransferInfoExtended(jobId, target.getItem1(), transferInfo));
+    }
+
+    /**
+     * Request information about multiple transfers.
+     * Routed IDs are grouped by destination, and the details of each group are requested in bulk.
+     * @param auth The access token needed to call the service.
+     * @param jobIds The IDs of the transfers to request info about, may include routed IDs.
+     * @return Details of the transfers, and an error for each transfer that could not be retrieved.
+     */
+    public Uni<TransferStatusList> getTransfersInfo(String auth, List<String> jobIds) {
+
+        if(jobIds.stream().noneMatch(TransferRouter::isRouted))
+            return this.ts.getTransfersInfo(auth, jobIds);
+
+        // Group routed IDs by destination
+        var result = new TransferStatusList();
+        List<String> local = new ArrayList<>();
+        Map<String, TransferService> targets = new LinkedHashMap<>();
+        Map<String, Map<String, String>> routed = new LinkedHashMap<>(); // Destination -> ID in its service -> routed ID
+        for(var jobId : jobIds) {
+            if(!isRouted(jobId)) {
+                local.add(jobId);
+                continue;
+            }
+
+            try {
+                var target = targetOf(jobId);
+                targets.put(target.getItem1(), target.getItem2());
+                routed.computeIfAbsent(target.getItem1(), d -> new LinkedHashMap<>()).put(target.getItem3(), jobId);
+            }
+            catch(TransferServiceException e) {
+                result.addError(jobId, new ActionError(e, Tuple2.of("jobId", jobId)));
+            }
+        }
+
+        List<Uni<TransferStatusList>> groups = new ArrayList<>();
+        if(!local.isEmpty())
+            groups.add(recovered(this.ts.getTransfersInfo(auth, local), local));
+
+        for(var group : routed.entrySet()) {
+            final var destination = group.getKey();
+            final var ids = group.getValue();
+            groups.add(recovered(targets.get(destination).getTransfersInfo(auth, new ArrayList<>(ids.keySet())), ids.values())
+                .map(transfers -> {
+                    // Report the transfers under their routed IDs
+                    var renamed = new TransferStatusList();
+                    for(var transferInfo : transfers.transfers) {
+                        var jobId = ids.get(transferInfo.jobId);
+                        if(null != jobId)
+                            renamed.add(new TransferInfoExtended(jobId, destination, transferInfo));
+                    }
+
+                    for(var error : transfers.errors.entrySet())
+                        renamed.addError(ids.getOrDefault(error.getKey(), error.getKey()), error.getValue());
+
+                    return renamed;
+                }));
+        }
+
+        if(groups.isEmpty())
+            return Uni.createFrom().item(result);
+
+        return Uni.combine().all().unis(groups).combinedWith(lists -> {
+            for(var list : lists)
+                result.addAll((TransferStatusList)list);
+
+            return result;
+        });
+    }
+
+    /**
+     * Request specific field from information about a transfer.
+     * @param auth The access token needed to call the service.
+     * @param jobId The ID of the transfer to request info about, may be a routed ID.
+     * @param fieldName The name of the TransferInfoExtended field to retrieve.
+     * @return The value of the requested field from a transfer's information.
+     */
+    public Uni<Response> getTransferInfoField(String auth, String jobId, String fieldName) {
+
+        if(!isRouted(jobId))
+            return this.ts.getTransferInfoField(auth, jobId, fieldName);
+
+        try {
+            var target = targetOf(jobId);
+            return target.getItem2().getTransferInfoField(auth, target.getItem3(), fieldName);
+        }
+        catch(TransferServiceException e) {
+            return Uni.createFrom().failure(e);
+        }
+    }
+
+    /**
+     * Cancel a transfer.
+     * @param auth The access token needed to call the service.
+     * @param jobId The ID of the transfer to cancel, may be a routed ID.
+     * @return Details of the cancelled transfer.
+     */
+    public Uni<TransferInfoExtended> cancelTransfer(String auth, String jobId) {
+
+        if(!isRouted(jobId))
+            return this.ts.cancelTransfer(auth, jobId);
+
+        Tuple3<String, TransferService, String> target;
+        try {
+            target = targetOf(jobId);
+        }
+        catch(TransferServiceException e) {
+            return Uni.createFrom().failure(e);
+        }
+
+        return target.getItem2().cancelTransfer(auth, target.getItem3())
+            .map(transferInfo -> new TransferInfoExtended(jobId, target.getItem1(), transferInfo));
+    }
+
+    public Uni<StorageContent> listFolderContent(String auth, String folderUrl) {
+        return this.ts.listFolderContent(auth, folderUrl);
+    }
+
+    public Uni<StorageElement> getStorageElementInfo(String auth, String seUrl) {
+        return this.ts.getStorageElementInfo(auth, seUrl);
+    }
+
+    public Uni<String> createFolder(String auth, String folderUrl) {
+        return this.ts.createFolder(auth, folderUrl);
+    }
+
+    public Uni<String> deleteFolder(String auth, String folderUrl) {
+        return this.ts.deleteFolder(auth, folderUrl);
+    }
+
+    public Uni<String> deleteFile(String auth, String fileUrl) {
+        return this.ts.deleteFile(auth, fileUrl);
+    }
+
+    public Uni<String> renameStorageElement(String auth, String seOld, String seNew) {
+        return this.ts.renameStorageElement(auth, seOld, seNew);
+    }
+
+    /**
+     * Report a failed bulk request as an error for each of its transfers,
+     * so that one destination failing does not hide the transfers of the others.
+     */
+    private static Uni<TransferStatusList> recovered(Uni<TransferStatusList> transfers, Collection<String> jobIds) {
+        return transfers.onFailure().recoverWithItem(e -> {
+            var failed = new TransferStatusList();
+            for(var jobId : jobIds)
+                failed.addError(jobId, new ActionError(e, Tuple2.of("jobId", jobId)));
+
+            return failed;
+        });
+    }
+}
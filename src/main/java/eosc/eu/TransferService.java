@@ -1,7 +1,9 @@
 package eosc.eu;
 
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 
+import java.util.List;
 import javax.ws.rs.core.Response;
 
 import eosc.eu.model.*;
@@ -53,6 +55,24 @@ public interface TransferService {
      */
     public abstract Uni<TransferInfo> startTransfer(String auth, Transfer transfer);
 
+    /**
+     * Initiate new transfer of files that are not all known yet.
+     * By default waits for all files, services that can start transferring earlier should override this.
+     * @param auth The access token needed to call the service.
+     * @param files The sets of files to transfer, as they become known.
+     * @param params The parameters of the transfer.
+     * @return Identification for the new transfer.
+     */
+    public default Uni<TransferInfo> startTransfer(String auth, Multi<TransferPayload> files, TransferParameters params) {
+        return files.collect().asList()
+            .chain(payloads -> {
+                var transfer = new Transfer();
+                transfer.files = payloads;
+                transfer.params = params;
+                return startTransfer(auth, transfer);
+            });
+    }
+
     /***
      * Find transfers matching criteria.
      * @param auth The access token needed to call the service.
@@ -72,6 +92,16 @@ public interface TransferService {
                                                     String srcStorageElement, String dstStorageElement,
                                                     String delegationId, String voName, String userDN);
 
+    /***
+     * Find transfers matching criteria, streaming each matching transfer as soon as it is available.
+     * Takes the same parameters as findTransfers(), but does not hold all matching transfers in memory.
+     * @return Matching transfers.
+     */
+    public abstract Multi<TransferInfoExtended> streamTransfers(String auth, String fields, int limit,
+                                                                String timeWindow, String stateIn,
+                                                                String srcStorageElement, String dstStorageElement,
+                                                                String delegationId, String voName, String userDN);
+
     /**
      * Request information about a transfer.
      * @param auth The access token needed to call the service.
@@ -80,6 +110,14 @@ public interface TransferService {
      */
     public abstract Uni<TransferInfoExtended> getTransferInfo(String auth, String jobId);
 
+    /**
+     * Request information about multiple transfers.
+     * @param auth The access token needed to call the service.
+     * @param jobIds The IDs of the transfers to request info about.
+     * @return Details of the transfers, and an error for each transfer that could not be retrieved.
+     */
+    public abstract Uni<TransferStatusList> getTransfersInfo(String auth, List<String> jobIds);
+
     /**
      * Request specific field from information about a transfer.
      * @param auth The access token needed to call the service.
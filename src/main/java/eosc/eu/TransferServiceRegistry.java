@@ -0,0 +1,200 @@
+package eosc.eu;
+
+import io.quarkus.runtime.Startup;
+import io.smallrye.mutiny.tuples.Tuple2;
+import org.jboss.logging.Logger;
+
+import java.lang.reflect.InvocationTargetException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import eosc.eu.TransfersConfig.TransferServiceConfig;
+
+
+/***
+ * Registry of the configured transfer services.
+ * Built once at startup, maps each destination to a ready-initialized transfer service,
+ * so that selecting the transfer service for a request is a simple lookup.
+ * Each transfer service is wrapped in a {@link TransferPlanner}, which splits large transfers,
+ * and in a {@link TransferRouter}, which resolves the IDs of transfers routed to another destination.
+ * Each configured transfer service gets its own instance, with its own clients and connection pools,
+ * so storage elements can be routed (by URL) to a dedicated destination and isolated from others.
+ */
+@Startup
+@ApplicationScoped
+public class TransferServiceRegistry {
+
+    private static final Logger LOG = Logger.getLogger(TransferServiceRegistry.class);
+
+    @Inject
+    TransfersConfig config;
+
+    private Map<String, TransferService> services; // Indexed by destination
+    private Map<String, Tuple2<String, TransferService>> routes; // Destinations and their services, indexed by routing key
+
+
+    /***
+     * Create and initialize the transfer services for all configured destinations.
+     * Destinations handled by the same transfer service share the same instance.
+     */
+    @PostConstruct
+    void init() {
+
+        LOG.debug("Building transfer service registry...");
+
+        Map<String, TransferService> servicesById = new HashMap<>();
+        Map<String, TransferService> servicesByDestination = new HashMap<>();
+
+        for(var destination : config.destinations().keySet()) {
+            String serviceId = config.destinations().get(destination);
+            TransferService ts = servicesById.get(serviceId);
+            if(null == ts) {
+                ts = createService(serviceId);
+                if(null == ts)
+                    // Requests for this destination will fail
+                    continue;
+
+                servicesById.put(serviceId, ts);
+            }
+
+            servicesByDestination.put(destination, ts);
+            LOG.infof("Destination <%s> uses transfer service <%s>", destination, ts.getServiceName());
+        }
+
+        this.services = Map.copyOf(servicesByDestination);
+
+        // Precompute routing table, storage element URL prefix -> destination and its transfer service
+        Map<String, Tuple2<String, TransferService>> routes = new HashMap<>();
+        for(var prefix : config.routes().keySet()) {
+            String destination = config.routes().get(prefix);
+            TransferService ts = this.services.get(destination);
+            if(null == ts) {
+                LOG.errorf("Route <%s> points to unknown or unavailable destination <%s>", prefix, destination);
+                continue;
+            }
+
+            String key = routingKey(prefix);
+            if(null == key) {
+                LOG.errorf("Invalid route <%s>, expected scheme://host[:port] or host", prefix);
+                continue;
+            }
+
+            routes.put(key, Tuple2.of(destination, ts));
+            LOG.infof("Storage elements matching <%s> use destination <%s>", key, destination);
+        }
+
+        this.routes = Map.copyOf(routes);
+    }
+
+    /***
+     * Find the destination that handles a storage element, based on its URL.
+     * Looks up "scheme://host:port", "scheme://host", "host:port", and "host" (in this order) in the routing table.
+     * @param seUrl The link to a storage element.
+     * @return Destination key and its transfer service, null if no route matches the URL.
+     */
+    public Tuple2<String, TransferService> route(String seUrl) {
+        if(null == seUrl || seUrl.isEmpty() || this.routes.isEmpty())
+            return null;
+
+        URI uri;
+        try {
+            uri = new URI(seUrl);
+        }
+        catch(URISyntaxException e) {
+            return null;
+        }
+
+        if(null == uri.getScheme() || null == uri.getHost())
+            return null;
+
+        final String scheme = uri.getScheme().toLowerCase();
+        final String host = uri.getHost().toLowerCase();
+        final String hostPort = (uri.getPort() > 0) ? host + ":" + uri.getPort() : host;
+
+        for(var key : List.of(scheme + "://" + hostPort, scheme + "://" + host, hostPort, host)) {
+            var route = this.routes.get(key);
+            if(null != route)
+                return route;
+        }
+
+        return null;
+    }
+
+    /***
+     * Normalize a configured route into a key of the routing table.
+     * @param prefix Route as configured, "scheme://host[:port]" or "host[:port]".
+     * @return Routing key in lower case, null if the route is not valid.
+     */
+    private static String routingKey(String prefix) {
+        var key = prefix.trim().toLowerCase();
+        while(key.endsWith("/"))
+            key = key.substring(0, key.length() - 1);
+
+        int schemeEnd = key.indexOf("://");
+        String authority = (schemeEnd >= 0) ? key.substring(schemeEnd + 3) : key;
+        if(authority.isEmpty() || authority.contains("/"))
+            return null;
+
+        return key;
+    }
+
+    /***
+     * Get the transfer service that handles a destination.
+     * @param destination The destination key.
+     * @return Initialized transfer service, null if no transfer service is available for the destination.
+     */
+    public TransferService getService(String destination) {
+        return this.services.get(destination);
+    }
+
+    /***
+     * Instantiate and initialize a transfer service.
+     * @param serviceId The key of the transfer service in the configuration file.
+     * @return Initialized transfer service, null on error.
+     */
+    private TransferService createService(String serviceId) {
+
+        TransferServiceConfig serviceConfig = config.services().get(serviceId);
+        if (null == serviceConfig) {
+            // Unsupported transfer service
+            LOG.errorf("No configuration found for transfer service <%s>", serviceId);
+            return null;
+        }
+
+        // Get the class of the transfer service we should use
+        try {
+            var classType = Class.forName(serviceConfig.className());
+            var ts = new TransferPlanner((TransferService)classType.getDeclaredConstructor().newInstance());
+            if(ts.initService(serviceConfig))
+                return new TransferRouter(ts, this::getService);
+
+            LOG.errorf("Could not initialize transfer service <%s>", serviceId);
+        }
+        catch (ClassNotFoundException e) {
+            LOG.error(e.getMessage());
+        }
+        catch (NoSuchMethodException e) {
+            LOG.error(e.getMessage());
+        }
+        catch (InstantiationException e) {
+            LOG.error(e.getMessage());
+        }
+        catch (InvocationTargetException e) {
+            LOG.error(e.getMessage());
+        }
+        catch (IllegalAccessException e) {
+            LOG.error(e.getMessage());
+        }
+        catch (IllegalArgumentException e) {
+            LOG.error(e.getMessage());
+        }
+
+        return null;
+    }
+}
@@ -15,21 +15,324 @@ public interface TransfersConfig {
     // Selects a service based on the destination
     public Map<String, String> destinations();
 
+    // Selects a destination based on the scheme and host of the storage element URL (takes precedence over destination)
+    public Map<String, String> routes();
+
     // Contains the details of each specific transfer service
     public Map<String, TransferServiceConfig> services();
 
+    // Caching of responses from the transfer services
+    public CachesConfig cache();
+
+    // Watching the progress of transfers
+    public ProgressConfig progress();
+
+    // Browsing storages
+    public StorageConfig storage();
+
+    // Limiting the rate of API requests of each user
+    public RateLimitConfig rateLimit();
+
 
     /***
      * The configuration of a transfer service
      */
     public interface TransferServiceConfig {
         public String name();
-        public String url();
+        public List<String> url(); // One or more replicas (e.g. frontends) of the same service
 
         @WithDefault("5000")
-        public int timeout(); // milliseconds
+        public int timeout(); // milliseconds, for operations without a budget of their own
+
+        public OperationTimeoutsConfig timeouts(); // Budgets of specific operations
+
+        public AdaptiveTimeoutConfig adaptiveTimeout(); // Derive timeouts from observed latencies
+
+        public CircuitBreakerConfig circuitBreaker(); // Fail fast when the service is unhealthy
+
+        @WithDefault("50")
+        public int statusBatchSize(); // Maximum number of transfers to query in one call
+
+        @WithDefault("4")
+        public int statusConcurrency(); // Maximum number of parallel calls when querying many transfers
+
+        @WithDefault("1000")
+        public int maxJobFiles(); // Larger transfers are split into multiple jobs, 0 disables splitting
+
+        @WithDefault("50")
+        public int maxJobs(); // Maximum number of jobs a transfer is split into, caps the length of composite IDs
+
+        @WithDefault("4")
+        public int submitConcurrency(); // Maximum number of parallel calls when submitting the jobs of a transfer
+
+        public HttpClientConfig http(); // Connections to the service
+
+        public LoadBalancingConfig loadBalancing(); // Spreading calls over the replicas of the service
+
+        public ConcurrencyLimitConfig concurrencyLimit(); // Limiting the calls in progress to the service
 
         @WithName("class")
         public String className();
     }
+
+    /***
+     * The time budgets of the operations of a transfer service
+     */
+    public interface OperationTimeoutsConfig {
+        @WithDefault("10000")
+        public int list(); // milliseconds, for listing folder content
+
+        @WithDefault("5000")
+        public int stat(); // milliseconds, for getting details of a storage element
+
+        @WithDefault("30000")
+        public int submit(); // milliseconds, for submitting a transfer
+
+        @WithDefault("15000")
+        public int find(); // milliseconds, for finding transfers (per received transfer when streaming)
+    }
+
+    /***
+     * The configuration of timeouts derived from the latencies of an operation
+     */
+    public interface AdaptiveTimeoutConfig {
+        @WithDefault("true")
+        public boolean enabled();
+
+        @WithDefault("3.0")
+        public double factor(); // Timeout is p99 latency times this factor
+
+        @WithDefault("1000")
+        public long floor(); // milliseconds, minimum timeout (the budget of the operation is the maximum)
+
+        @WithDefault("20")
+        public int minSamples(); // Use the budget of the operation until this many calls were made
+
+        @WithDefault("60000")
+        public long window(); // milliseconds, latencies older than this are forgotten
+    }
+
+    /***
+     * The configuration of the circuit breaker of each operation
+     */
+    public interface CircuitBreakerConfig {
+        @WithDefault("true")
+        public boolean enabled();
+
+        @WithDefault("50")
+        public int windowSize(); // Number of most recent calls the thresholds are evaluated over
+
+        @WithDefault("20")
+        public int minimumCalls(); // Do not open before this many calls are in the window
+
+        @WithDefault("50")
+        public int failureRateThreshold(); // percent, of failed calls (timeouts, connection errors, 5xx) that opens the breaker
+
+        @WithDefault("80")
+        public int slowCallRateThreshold(); // percent, of slow calls that opens the breaker
+
+        @WithDefault("5000")
+        public long slowCallDuration(); // milliseconds, calls taking longer are slow
+
+        @WithDefault("30000")
+        public long openDuration(); // milliseconds, to fail fast before probing the service again
+
+        @WithDefault("3")
+        public int halfOpenProbes(); // Number of successful probe calls needed to close the breaker
+    }
+
+    /***
+     * The configuration of load balancing over the replicas of a service
+     */
+    public interface LoadBalancingConfig {
+        @WithDefault("least-outstanding")
+        public String strategy(); // "least-outstanding" or "ewma" (lowest latency)
+
+        @WithDefault("3")
+        public int ejectAfter(); // Number of failures in a row after which a replica is ejected
+
+        @WithDefault("30000")
+        public long ejectDuration(); // milliseconds
+
+        @WithDefault("false")
+        public boolean hedge(); // Also call a second replica if the first is slower than the p95 latency (idempotent reads only)
+    }
+
+    /***
+     * The configuration of the adaptive limit of calls in progress to a service
+     */
+    public interface ConcurrencyLimitConfig {
+        @WithDefault("true")
+        public boolean enabled();
+
+        @WithDefault("20")
+        public int initialLimit(); // Number of calls in progress allowed at startup
+
+        @WithDefault("2")
+        public int minLimit();
+
+        @WithDefault("200")
+        public int maxLimit();
+
+        @WithDefault("0.9")
+        public double backoffRatio(); // The limit is multiplied by this when the service shows signs of overload
+
+        @WithDefault("5000")
+        public long latencyThreshold(); // milliseconds, calls taking longer signal overload
+
+        @WithDefault("100")
+        public int maxQueueSize(); // Calls waiting for the limit, further calls are shed
+
+        @WithDefault("5000")
+        public long maxQueueWait(); // milliseconds, calls waiting longer are shed
+    }
+
+    /***
+     * The configuration of the per-user rate limits
+     */
+    public interface RateLimitConfig {
+        @WithDefault("true")
+        public boolean enabled();
+
+        public BucketConfig status(); // Budget of each user for reading transfers and user info
+
+        public BucketConfig storage(); // Budget of each user for browsing and changing storages, and parsing DOIs
+
+        public BucketConfig submission(); // Budget of each user for starting transfers and bulk storage operations
+
+        public BucketConfig shared(); // Budget of all users together, shared fairly between them
+
+        @WithDefault("10")
+        public int maxQueuedPerUser(); // Requests of a user waiting for budget, further requests are rejected
+
+        @WithDefault("5000")
+        public long maxQueueWait(); // milliseconds, requests waiting longer are rejected
+
+        @WithDefault("600000")
+        public long idleExpiry(); // milliseconds, budgets of users without requests for this long are forgotten
+
+        @WithDefault("10000")
+        public int maxUsers(); // Maximum number of users whose budgets are tracked
+    }
+
+    /***
+     * The configuration of a token bucket
+     */
+    public interface BucketConfig {
+        @WithDefault("20")
+        public int capacity(); // Maximum number of requests in a burst
+
+        @WithDefault("10")
+        public double rate(); // Requests per second
+    }
+
+    /***
+     * The configuration of the caches
+     */
+    public interface CachesConfig {
+        public UserInfoCacheConfig userInfo();
+        public TransferInfoCacheConfig transferInfo();
+        public StorageCacheConfig storage();
+    }
+
+    /***
+     * The configuration of the user info cache
+     */
+    public interface UserInfoCacheConfig {
+        @WithDefault("60000")
+        public long ttl(); // milliseconds
+
+        @WithDefault("10000")
+        public int maxSize();
+    }
+
+    /***
+     * The configuration of the transfer info cache
+     */
+    public interface TransferInfoCacheConfig {
+        @WithDefault("5000")
+        public long activeTtl(); // milliseconds, for transfers not yet in a terminal state
+
+        @WithDefault("10000")
+        public int maxSize();
+    }
+
+    /***
+     * The configuration of the folder listing and storage element cache
+     */
+    public interface StorageCacheConfig {
+        @WithDefault("30000")
+        public long ttl(); // milliseconds
+
+        @WithDefault("5000")
+        public long notFoundTtl(); // milliseconds, for storage elements that do not exist
+
+        @WithDefault("10000")
+        public int maxSize();
+    }
+
+    /***
+     * The configuration of the transfer progress poller
+     */
+    public interface ProgressConfig {
+        @WithDefault("5000")
+        public long pollInterval(); // milliseconds
+
+        @WithDefault("30000")
+        public long maxWait(); // milliseconds, for long-polling clients
+
+        @WithDefault("30000")
+        public long gracePeriod(); // milliseconds, watches are kept this long after their last subscriber left
+
+        @WithDefault("10000")
+        public int maxWatches(); // Maximum number of transfers watched at the same time, by all users
+
+        @WithDefault("100")
+        public int maxWatchesPerUser(); // Maximum number of transfers watched at the same time with the same access token
+    }
+
+    /***
+     * The configuration of storage browsing
+     */
+    public interface StorageConfig {
+        public TreeConfig tree();
+        public ListingConfig listing();
+        public BulkConfig bulk();
+    }
+
+    /***
+     * The configuration of folder tree walks
+     */
+    public interface TreeConfig {
+        @WithDefault("8")
+        public int concurrency(); // Maximum number of folders listed in parallel by a walk
+
+        @WithDefault("10000")
+        public int maxEntries(); // Maximum number of entries returned by a walk
+
+        @WithDefault("10")
+        public int maxDepth();
+    }
+
+    /***
+     * The configuration of paginated folder listings
+     */
+    public interface ListingConfig {
+        @WithDefault("60000")
+        public long snapshotTtl(); // milliseconds, since last page read
+
+        @WithDefault("1000000")
+        public long maxEntries(); // Maximum number of elements in all snapshots
+    }
+
+    /***
+     * The configuration of bulk file and folder operations
+     */
+    public interface BulkConfig {
+        @WithDefault("8")
+        public int concurrency(); // Maximum number of operations in progress for a bulk request
+
+        @WithDefault("10000")
+        public int maxOperations(); // Maximum number of operations in a bulk request
+    }
 }
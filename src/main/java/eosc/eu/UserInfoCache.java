@@ -0,0 +1,116 @@
+package eosc.eu;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.smallrye.mutiny.Uni;
+import org.jboss.logging.Logger;
+import org.jboss.resteasy.reactive.server.ServerResponseFilter;
+
+import java.time.Duration;
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response.Status;
+
+import eosc.eu.model.UserInfo;
+
+
+/***
+ * Bounded cache of user information, sits in front of TransferService.getUserInfo().
+ * Entries are keyed by the hash of the access token and the destination, expire after
+ * a configurable time, and are evicted whenever a request with the same access token
+ * gets rejected as unauthorized.
+ */
+@ApplicationScoped
+public class UserInfoCache {
+
+    private static final Logger LOG = Logger.getLogger(UserInfoCache.class);
+
+    @Inject
+    TransfersConfig config;
+
+    @Inject
+    RateLimiter rateLimiter;
+
+    private Cache<String, UserInfo> cache;
+
+
+    /***
+     * Create the cache and register its hit/miss metrics
+     */
+    @PostConstruct
+    void init() {
+        var cacheConfig = config.cache().userInfo();
+        this.cache = Caffeine.newBuilder()
+                        .maximumSize(cacheConfig.maxSize())
+                        .expireAfterWrite(Duration.ofMillis(cacheConfig.ttl()))
+                        .recordStats()
+                        .build();
+
+        CaffeineCacheMetrics.monitor(Metrics.globalRegistry, this.cache, "userInfo");
+    }
+
+    /**
+     * Retrieve information about current user, from the cache if available.
+     * @param destination The destination key the transfer service was selected for.
+     * @param ts The transfer service to call on cache miss.
+     * @param auth The access token needed to call the service.
+     * @return User information.
+     */
+    public Uni<UserInfo> getUserInfo(String destination, TransferService ts, String auth) {
+
+        if(null == auth || auth.isEmpty())
+            // Do not cache anonymous calls
+            return ts.getUserInfo(auth);
+
+        final String key = key(TokenHash.of(auth), destination);
+        UserInfo userInfo = this.cache.getIfPresent(key);
+        if(null != userInfo) {
+            LOG.debugf("Using cached user info for user_dn:%s", userInfo.user_dn);
+            return Uni.createFrom().item(userInfo);
+        }
+
+        return ts.getUserInfo(auth)
+            .invoke(ui -> {
+                // Cache for subsequent calls
+                this.cache.put(key, ui);
+
+                // From now on, rate limit the user by their identity rather than by access token
+                this.rateLimiter.identify(auth, ui.user_dn);
+            });
+    }
+
+    /**
+     * Evict all cached user information for an access token.
+     * @param auth The access token.
+     */
+    public void invalidate(String auth) {
+        final String keyPrefix = key(TokenHash.of(auth), "");
+        this.cache.asMap().keySet().removeIf(key -> key.startsWith(keyPrefix));
+    }
+
+    /**
+     * Evict the cached user information whenever a call with the same access token is not authorized.
+     */
+    @ServerResponseFilter
+    public void evictOnUnauthorized(ContainerRequestContext request, ContainerResponseContext response) {
+        if(Status.UNAUTHORIZED.getStatusCode() != response.getStatus())
+            return;
+
+        String auth = request.getHeaderString(HttpHeaders.AUTHORIZATION);
+        if(null != auth && !auth.isEmpty())
+            invalidate(auth);
+    }
+
+    /**
+     * Build cache key from token hash and destination.
+     */
+    private static String key(String tokenHash, String destination) {
+        return tokenHash + "@" + destination;
+    }
+}
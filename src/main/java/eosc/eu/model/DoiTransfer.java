@@ -0,0 +1,26 @@
+package eosc.eu.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+
+/**
+ * A new transfer of all files in a data set, identified by its DOI
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class DoiTransfer {
+
+    @Schema(title="The DOI of the data set to transfer", example = "https://doi.org/12.3456/zenodo.12345678")
+    public String doi;
+
+    @Schema(title="The URL of the folder to transfer the files into")
+    public String destinationFolder;
+
+    public TransferParameters params;
+
+
+    /**
+     * Constructor
+     */
+    public DoiTransfer() {}
+}
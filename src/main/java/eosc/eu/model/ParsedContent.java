@@ -0,0 +1,65 @@
+package eosc.eu.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+
+/**
+ * The files in a data set, as parsed from its DOI, with what is needed to check
+ * later if the data set changed (validators of the source repository).
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ParsedContent {
+
+    public StorageContent content;
+
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    public String etag;             // Entity tag of the record in the source repository
+
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    public String lastModified;     // HTTP date the record was last modified in the source repository
+
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    public String digest;           // Hash of the content, used as entity tag of our responses
+
+    public long validatedAt;        // When the content was last checked against the source repository (milliseconds since epoch)
+
+
+    /**
+     * Constructor
+     */
+    public ParsedContent() {}
+
+    /**
+     * Construct from parsed content, without validators
+     */
+    public ParsedContent(StorageContent content) {
+        this(content, null, null);
+    }
+
+    /**
+     * Construct from parsed content and the validators of the source repository
+     */
+    public ParsedContent(StorageContent content, String etag, String lastModified) {
+        this.content = content;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.validatedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Construct for content that was revalidated and did not change
+     */
+    public ParsedContent(ParsedContent unchanged) {
+        this(unchanged.content, unchanged.etag, unchanged.lastModified);
+        this.digest = unchanged.digest;
+    }
+
+    /**
+     * Check if the content was checked against the source repository recently.
+     * @param maxAge Maximum time since last validation (milliseconds).
+     */
+    public boolean isFresh(long maxAge) {
+        return System.currentTimeMillis() - this.validatedAt < maxAge;
+    }
+}
@@ -0,0 +1,72 @@
+package eosc.eu.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Multiple file and folder operations, requested in bulk.
+ * The operations are performed in this order: create folders, rename, delete files, delete folders.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class StorageBulkOperation {
+
+    @Schema(title="The folders to create")
+    public List<StorageSimpleOperation> createFolders;
+
+    @Schema(title="The files and folders to rename")
+    public List<StorageRenameOperation> rename;
+
+    @Schema(title="The files to delete")
+    public List<StorageSimpleOperation> deleteFiles;
+
+    @Schema(title="The folders to delete, must be empty")
+    public List<StorageSimpleOperation> deleteFolders;
+
+
+    /**
+     * Constructor
+     */
+    public StorageBulkOperation() {}
+
+    /**
+     * Count all requested operations
+     */
+    @JsonIgnore
+    public int count() {
+        return size(this.createFolders) + size(this.rename) + size(this.deleteFiles) + size(this.deleteFolders);
+    }
+
+    /**
+     * Get the URLs of all storage elements the operations are about
+     */
+    @JsonIgnore
+    public List<String> storageElements() {
+        List<String> urls = new ArrayList<>();
+        for(var operations : List.of(listOf(this.createFolders), listOf(this.deleteFiles), listOf(this.deleteFolders)))
+            for(var operation : operations)
+                if(null != operation)
+                    urls.add(operation.seUrl);
+
+        for(var operation : listOf(this.rename)) {
+            if(null != operation) {
+                urls.add(operation.seUrlOld);
+                urls.add(operation.seUrlNew);
+            }
+        }
+
+        return urls;
+    }
+
+    private static <T> List<T> listOf(List<T> operations) {
+        return (null != operations) ? operations : List.of();
+    }
+
+    private static int size(List<?> operations) {
+        return (null != operations) ? operations.size() : 0;
+    }
+}
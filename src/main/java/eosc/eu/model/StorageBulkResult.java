@@ -0,0 +1,41 @@
+package eosc.eu.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * The outcome of all file and folder operations of a bulk request.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class StorageBulkResult {
+
+    public String kind = "StorageBulkResult";
+    public int count;
+    public int succeeded;
+    public int failed;
+    public List<StorageOperationResult> results;
+
+
+    /**
+     * Constructor
+     */
+    public StorageBulkResult() {
+        this.count = 0;
+        this.results = new ArrayList<>();
+    }
+
+    /**
+     * Add the outcome of an operation
+     */
+    public void add(StorageOperationResult result) {
+        this.results.add(result);
+        this.count = this.results.size();
+        if(result.success)
+            this.succeeded++;
+        else
+            this.failed++;
+    }
+}
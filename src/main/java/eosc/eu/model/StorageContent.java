@@ -22,6 +22,12 @@ public class StorageContent {
     @JsonInclude(JsonInclude.Include.NON_EMPTY)
     public List<StorageElement> elements;
 
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Integer total;       // Number of elements in all pages, only for paginated listings
+
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    public String nextCursor;   // Pass this to get the next page, only for paginated listings
+
 
     /**
      * Constructor
@@ -0,0 +1,78 @@
+package eosc.eu.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * The outcome (or, for dry runs, the plan) of deleting a folder with all its content.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class StorageDeleteReport {
+
+    public String kind = "StorageDeleteReport";
+    public String seUrl;
+    public boolean dryRun;
+    public int files;           // Number of files in the folder tree
+    public int folders;         // Number of folders in the folder tree, including the deleted folder itself
+    public long bytes;          // Size of all files in the folder tree
+    public int deletedFiles;
+    public int deletedFolders;
+    public int failed;
+
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    public List<StorageOperationResult> errors;
+
+    @JsonIgnore
+    public List<String> fileUrls;
+
+    @JsonIgnore
+    public List<String> folderUrls;
+
+
+    /**
+     * Construct for folder to delete
+     */
+    public StorageDeleteReport(String seUrl, boolean dryRun) {
+        this.seUrl = seUrl;
+        this.dryRun = dryRun;
+        this.errors = new ArrayList<>();
+        this.fileUrls = new ArrayList<>();
+        this.folderUrls = new ArrayList<>();
+        this.folderUrls.add(seUrl);
+        this.folders = 1;
+    }
+
+    /**
+     * Add a storage element found in the folder tree
+     */
+    public void add(StorageElement se) {
+        if(se.isFolder) {
+            this.folderUrls.add(se.accessUrl);
+            this.folders++;
+        }
+        else {
+            this.fileUrls.add(se.accessUrl);
+            this.files++;
+            this.bytes += se.size;
+        }
+    }
+
+    /**
+     * Record the outcome of deleting a storage element
+     */
+    public void record(StorageOperationResult result) {
+        if(!result.success) {
+            this.failed++;
+            this.errors.add(result);
+        }
+        else if(result.operation.equals("deleteFolder"))
+            this.deletedFolders++;
+        else
+            this.deletedFiles++;
+    }
+}
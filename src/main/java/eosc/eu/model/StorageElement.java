@@ -52,7 +52,7 @@ public class StorageElement extends StorageElementBase {
         super("StorageElement", zf.filename);
         this.size = zf.filesize;
         this.mediaType = zf.getMediaType();
-        this.accessUrl = zf.links.get("download");
+        this.accessUrl = (null != zf.links) ? zf.links.get("download") : null;
         if(null != this.accessUrl && !this.accessUrl.isEmpty()) {
             this.downloadUrl = this.accessUrl + "?download=1";
         }
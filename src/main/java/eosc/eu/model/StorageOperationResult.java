@@ -0,0 +1,46 @@
+package eosc.eu.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import eosc.eu.ActionError;
+
+
+/**
+ * The outcome of a file or folder operation that was part of a bulk request.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class StorageOperationResult {
+
+    public String kind = "StorageOperationResult";
+    public String operation;    // "createFolder", "rename", "deleteFile", "deleteFolder"
+    public String seUrl;
+
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    public String seUrlNew;     // Only for renames
+
+    public boolean success;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public ActionError error;
+
+
+    /**
+     * Construct successful result
+     */
+    public StorageOperationResult(String operation, String seUrl, String seUrlNew) {
+        this.operation = operation;
+        this.seUrl = seUrl;
+        this.seUrlNew = seUrlNew;
+        this.success = true;
+    }
+
+    /**
+     * Construct failed result
+     */
+    public StorageOperationResult(String operation, String seUrl, String seUrlNew, ActionError error) {
+        this(operation, seUrl, seUrlNew);
+        this.success = false;
+        this.error = error;
+    }
+}
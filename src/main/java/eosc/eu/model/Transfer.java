@@ -21,4 +21,19 @@ public class Transfer {
      * Constructor
      */
     public Transfer() { this.files = new ArrayList<>(); }
+
+    /**
+     * Get the first destination of the transfer, used to route it to a transfer service.
+     * @return Destination URL, null if there is none.
+     */
+    public String firstDestination() {
+        if(null == this.files)
+            return null;
+
+        for(var file : this.files)
+            if(null != file && null != file.destinations && !file.destinations.isEmpty())
+                return file.destinations.get(0);
+
+        return null;
+    }
 }
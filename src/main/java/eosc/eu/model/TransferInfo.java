@@ -3,6 +3,7 @@ package eosc.eu.model;
 import egi.fts.model.JobInfo;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
 
 
 /**
@@ -14,6 +15,9 @@ public class TransferInfo {
     public String kind = "TransferInfo";
     public String jobId;
 
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    public String destination; // Set when the transfer was routed to another destination than requested
+
 
     /**
      * Construct from FTS job info
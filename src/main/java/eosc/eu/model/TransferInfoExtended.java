@@ -1,5 +1,6 @@
 package eosc.eu.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import egi.fts.model.JobInfoExtended;
 
@@ -7,8 +8,10 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 
 /**
@@ -17,6 +20,8 @@ import java.util.Optional;
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class TransferInfoExtended extends TransferInfo {
 
+    private static final Set<String> terminalStates = Set.of("FINISHED", "FINISHEDDIRTY", "FAILED", "CANCELED");
+
     // NOTE: When adding/renaming fields, also update all translateTransferInfoFieldName() methods
 
     @JsonInclude(JsonInclude.Include.NON_EMPTY)
@@ -94,6 +99,9 @@ public class TransferInfoExtended extends TransferInfo {
     @JsonInclude(JsonInclude.Include.NON_EMPTY)
     public String cred_id;
 
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    public List<TransferInfoExtended> parts; // For transfers submitted as multiple jobs
+
 
     /**
      * Construct from extended FTS job info
@@ -137,4 +145,128 @@ public class TransferInfoExtended extends TransferInfo {
         this.user_dn = jie.user_dn;
         this.cred_id = jie.cred_id;
     }
+
+    /**
+     * Construct a copy of the details of a transfer, under another ID.
+     * @param jobId The ID to report the transfer with.
+     * @param destination The destination the transfer was routed to.
+     * @param other The details of the transfer.
+     */
+    public TransferInfoExtended(String jobId, String destination, TransferInfoExtended other) {
+
+        this(new JobInfoExtended());
+
+        this.jobId = jobId;
+        this.destination = destination;
+        this.jobState = other.jobState;
+        this.jobType = other.jobType;
+        if(null != other.jobMetadata)
+            this.jobMetadata.putAll(other.jobMetadata);
+
+        this.source_se = other.source_se;
+        this.source_space_token = other.source_space_token;
+        this.destination_se = other.destination_se;
+        this.destination_space_token = other.destination_space_token;
+
+        this.verifyChecksum = other.verifyChecksum;
+        this.overwrite = other.overwrite;
+        this.priority = other.priority;
+        this.retry = other.retry;
+        this.retryDelay = other.retryDelay;
+        this.maxTimeInQueue = other.maxTimeInQueue;
+        this.copyPinLifetime = other.copyPinLifetime;
+        this.bringOnline = other.bringOnline;
+        this.targetQOS = other.targetQOS;
+        this.cancel = other.cancel;
+
+        this.submittedAt = other.submittedAt;
+        this.submittedTo = other.submittedTo;
+        this.finishedAt = other.finishedAt;
+        this.status = other.status;
+        this.reason = other.reason;
+
+        this.vo_name = other.vo_name;
+        this.user_dn = other.user_dn;
+        this.cred_id = other.cred_id;
+        this.parts = other.parts;
+    }
+
+    /**
+     * Check if the transfer is in a terminal state, after which it can no longer change
+     */
+    @JsonIgnore
+    public boolean isTerminal() {
+        return null != this.jobState && terminalStates.contains(this.jobState);
+    }
+
+    /**
+     * Construct for a transfer that was submitted as multiple jobs, aggregates the details of the parts.
+     * The state is only terminal when all parts are in a terminal state.
+     * @param jobId The ID of the whole transfer.
+     * @param parts The details of the jobs the transfer was split into, in submission order.
+     */
+    public TransferInfoExtended(String jobId, List<TransferInfoExtended> parts) {
+
+        this(new JobInfoExtended());
+
+        this.jobId = jobId;
+        this.parts = parts;
+        if(parts.isEmpty())
+            return;
+
+        var first = parts.get(0);
+        this.jobType = first.jobType;
+        this.source_se = first.source_se;
+        this.source_space_token = first.source_space_token;
+        this.destination_se = first.destination_se;
+        this.destination_space_token = first.destination_space_token;
+        this.verifyChecksum = first.verifyChecksum;
+        this.overwrite = first.overwrite;
+        this.priority = first.priority;
+        this.retry = first.retry;
+        this.retryDelay = first.retryDelay;
+        this.maxTimeInQueue = first.maxTimeInQueue;
+        this.copyPinLifetime = first.copyPinLifetime;
+        this.bringOnline = first.bringOnline;
+        this.targetQOS = first.targetQOS;
+        this.cancel = first.cancel;
+        this.submittedTo = first.submittedTo;
+        this.status = first.status;
+        this.vo_name = first.vo_name;
+        this.user_dn = first.user_dn;
+        this.cred_id = first.cred_id;
+        if(null != first.jobMetadata)
+            this.jobMetadata.putAll(first.jobMetadata);
+
+        Map<String, Integer> states = new HashMap<>();
+        String pending = null;  // State of a part that is not done yet
+        boolean terminal = true;
+        for(var part : parts) {
+            states.merge(String.valueOf(part.jobState), 1, Integer::sum);
+            if(!part.isTerminal()) {
+                terminal = false;
+                if(null == pending || "ACTIVE".equals(part.jobState))
+                    pending = part.jobState;
+            }
+            else if(null == this.reason && null != part.reason && !"FINISHED".equals(part.jobState))
+                this.reason = part.reason;
+
+            if(null != part.submittedAt && (null == this.submittedAt || part.submittedAt.before(this.submittedAt)))
+                this.submittedAt = part.submittedAt;
+            if(null != part.finishedAt && (null == this.finishedAt || part.finishedAt.after(this.finishedAt)))
+                this.finishedAt = part.finishedAt;
+        }
+
+        if(!terminal) {
+            this.jobState = pending;
+            this.finishedAt = null;
+        }
+        else if(1 == states.size())
+            // All parts ended the same way
+            this.jobState = first.jobState;
+        else if(states.containsKey("FINISHED") || states.containsKey("FINISHEDDIRTY"))
+            this.jobState = "FINISHEDDIRTY";
+        else
+            this.jobState = states.containsKey("FAILED") ? "FAILED" : "CANCELED";
+    }
 }
@@ -1,8 +1,12 @@
 package eosc.eu.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
 
+import java.util.HashMap;
+import java.util.Map;
+
 
 /**
  * Parameters of a transfer job
@@ -26,9 +30,28 @@ public class TransferParameters {
     @Schema(title="Force IPv6 if the underlying protocol supports it")
     public boolean ipv6 = false;
 
+    @Schema(title="Metadata to attach to the transfer")
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    public Map<String, String> jobMetadata;
+
 
     /**
      * Constructor
      */
     public TransferParameters() {}
+
+    /**
+     * Copy constructor
+     */
+    public TransferParameters(TransferParameters params) {
+        this.verifyChecksum = params.verifyChecksum;
+        this.overwrite = params.overwrite;
+        this.retry = params.retry;
+        this.priority = params.priority;
+        this.strictCopy = params.strictCopy;
+        this.ipv4 = params.ipv4;
+        this.ipv6 = params.ipv6;
+        if(null != params.jobMetadata)
+            this.jobMetadata = new HashMap<>(params.jobMetadata);
+    }
 }
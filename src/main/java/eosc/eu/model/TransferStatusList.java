@@ -0,0 +1,61 @@
+package eosc.eu.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import eosc.eu.ActionError;
+
+
+/**
+ * Details of multiple transfer jobs, requested in bulk.
+ * Jobs for which no details could be retrieved are reported with an error each.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class TransferStatusList {
+
+    public String kind = "TransferStatusList";
+    public int count;
+    public List<TransferInfoExtended> transfers;
+
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    public Map<String, ActionError> errors; // Indexed by job ID
+
+
+    /**
+     * Constructor
+     */
+    public TransferStatusList() {
+        this.count = 0;
+        this.transfers = new ArrayList<>();
+        this.errors = new HashMap<>();
+    }
+
+    /**
+     * Add details of a transfer
+     */
+    public void add(TransferInfoExtended transferInfo) {
+        this.transfers.add(transferInfo);
+        this.count = this.transfers.size();
+    }
+
+    /**
+     * Add error for a transfer
+     */
+    public void addError(String jobId, ActionError error) {
+        this.errors.put(jobId, error);
+    }
+
+    /**
+     * Merge details and errors from another list
+     */
+    public void addAll(TransferStatusList other) {
+        this.transfers.addAll(other.transfers);
+        this.errors.putAll(other.errors);
+        this.count = this.transfers.size();
+    }
+}
@@ -6,6 +6,9 @@ import parser.zenodo.model.*;
 import io.smallrye.mutiny.Uni;
 import org.eclipse.microprofile.rest.client.annotation.RegisterProvider;
 
+import org.jboss.resteasy.reactive.RestResponse;
+
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Path;
@@ -25,4 +28,11 @@ public interface Zenodo {
     @Path("/records/{id}")
     @Produces(MediaType.APPLICATION_JSON)
     Uni<ZenodoRecord> getRecordsAsync(@PathParam("id") String recordId);
+
+    @GET
+    @Path("/records/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    Uni<RestResponse<ZenodoRecord>> getRecordIfChangedAsync(@PathParam("id") String recordId,
+                                                            @HeaderParam("If-None-Match") String etag,
+                                                            @HeaderParam("If-Modified-Since") String modifiedSince);
 }
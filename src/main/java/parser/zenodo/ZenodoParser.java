@@ -1,16 +1,17 @@
 package parser.zenodo;
 
 import eosc.eu.ActionError;
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import io.smallrye.mutiny.tuples.Tuple2;
-import org.eclipse.microprofile.rest.client.RestClientBuilder;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.mutiny.core.http.HttpClient;
 import org.eclipse.microprofile.rest.client.RestClientDefinitionException;
 import org.jboss.logging.Logger;
 import org.jboss.resteasy.reactive.RestHeader;
 
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
@@ -21,11 +22,16 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import static javax.ws.rs.core.HttpHeaders.*;
 
+import eosc.eu.Deadline;
+import eosc.eu.HttpClients;
+import eosc.eu.JsonArrayStream;
 import eosc.eu.ParsersConfig;
 import eosc.eu.ParsersConfig.ParserConfig;
 import eosc.eu.ParserService;
+import eosc.eu.ParseContext;
 import eosc.eu.TransferServiceException;
 import eosc.eu.model.*;
+import parser.zenodo.model.ZenodoFile;
 
 
 
@@ -35,11 +41,15 @@ import eosc.eu.model.*;
 public class ZenodoParser implements ParserService {
 
     private static final Logger LOG = Logger.getLogger(ZenodoParser.class);
+    private static final Pattern doiPattern = Pattern.compile("^https?://([\\w\\.]+)/([\\w\\.]+)/zenodo\\.(\\d+).*", Pattern.CASE_INSENSITIVE);
+    private static final Set<String> routingKeys = Set.of("10.5281", "zenodo");
 
     private String name;
+    private String host;
     private int timeout;
-    private String recordId;
-    private static Zenodo parser;
+    private URL url;
+    private Zenodo parser;
+    private HttpClient streamingClient;
 
 
     /***
@@ -57,11 +67,6 @@ public class ZenodoParser implements ParserService {
         this.name = serviceConfig.name();
         this.timeout = serviceConfig.timeout();
 
-        if (null != this.parser)
-            return true;
-
-        LOG.debug("Obtaining REST client for Zenodo");
-
         // Check if base URL is valid
         URL urlParserService;
         try {
@@ -71,10 +76,16 @@ public class ZenodoParser implements ParserService {
             return false;
         }
 
+        this.url = urlParserService;
+        this.host = urlParserService.getHost();
+
+        this.streamingClient = HttpClients.createStreamingClient(urlParserService, serviceConfig.http(), this.name);
+
+        LOG.debugf("Obtaining REST client for Zenodo at %s", serviceConfig.url());
+
         try {
             // Create the REST client for the parser service
-            this.parser = RestClientBuilder.newBuilder()
-                            .baseUrl(urlParserService)
+            this.parser = HttpClients.restClientBuilder(urlParserService, serviceConfig.http())
                             .build(Zenodo.class);
 
             return true;
@@ -93,57 +104,78 @@ public class ZenodoParser implements ParserService {
     public String getParserName() { return this.name; }
 
     /***
-     * Get the Id of the source record.
-     * @return Source record Id.
+     * Get the keys under which the DOI router indexes this parser.
+     * @return Routing keys, Zenodo DOI prefix and namespace.
      */
-    public String getSourceId() { return this.recordId; }
+    public Set<String> getRoutingKeys() { return routingKeys; }
 
     /***
      * Checks if the parser service understands this DOI.
      * @param doi The DOI for a data set.
-     * @return Return true if the parser service can parse this DOI.
+     * @return The context needed to parse this DOI, null if this is not a Zenodo DOI.
      */
-    public boolean canParseDOI(String doi) {
+    public ParseContext matchDOI(String doi) {
         if(null == this.parser)
-            return false;
+            return null;
 
         // Validate DOI
-        boolean isValid = null != doi && !doi.isEmpty();
-        if(isValid) {
-            Pattern p = Pattern.compile("^https?://([\\w\\.]+)/([\\w\\.]+)/zenodo\\.(\\d+).*", Pattern.CASE_INSENSITIVE);
-            Matcher m = p.matcher(doi);
-            isValid = m.matches();
+        if(null == doi || doi.isEmpty())
+            return null;
 
-            this.recordId = isValid ? m.group(3) : null;
-        }
+        Matcher m = doiPattern.matcher(doi);
+        if(!m.matches())
+            return null;
 
-        return isValid;
+        return new ParseContext(doi, m.group(3), this.host);
     }
 
     /**
      * Parse the DOI and return a set of files in the data set.
      * @param auth The access token needed to call the service.
-     * @param doi The DOI for a data set.
+     * @param context The context returned by matchDOI().
      * @return List of files in the data set.
      */
-    public Uni<StorageContent> parseDOI(String auth, String doi) {
+    public Uni<StorageContent> parseDOI(String auth, ParseContext context) {
+        return revalidateDOI(auth, context, null)
+            .map(parsed -> parsed.content);
+    }
+
+    /**
+     * Parse the DOI again, unless the Zenodo record did not change since it was last parsed.
+     * Uses a conditional request, with the entity tag (or modification date) of the record when it was last parsed.
+     * @param auth The access token needed to call the service.
+     * @param context The context returned by matchDOI().
+     * @param previous The result of the last parse, null if never parsed.
+     * @return The files in the data set, the previous result if the record did not change.
+     */
+    public Uni<ParsedContent> revalidateDOI(String auth, ParseContext context, ParsedContent previous) {
         if(null == this.parser)
             return Uni.createFrom().failure(new TransferServiceException("invalidConfig"));
 
-        if(null == this.recordId || this.recordId.isEmpty())
+        final String recordId = (null != context) ? context.sourceId : null;
+        if(null == recordId || recordId.isEmpty())
             return Uni.createFrom().failure(new TransferServiceException("noRecordId"));
 
-        Uni<StorageContent> result = Uni.createFrom().nullItem()
+        final String etag = (null != previous) ? previous.etag : null;
+        final String modifiedSince = (null != previous && null == etag) ? previous.lastModified : null;
+
+        Uni<ParsedContent> result = Uni.createFrom().nullItem()
 
-            .ifNoItem()
-                .after(Duration.ofMillis(this.timeout))
-                .failWith(new TransferServiceException("parseDOITimeout"))
             .chain(unused -> {
-                // Get Zenodo record details
-                return this.parser.getRecordsAsync(this.recordId);
+                // Get Zenodo record details, unless not changed,
+                // the call may be shared by several requests, see DoiCache
+                return Deadline.limit(this.parser.getRecordIfChangedAsync(recordId, etag, modifiedSince),
+                                      this.timeout, "parseDOITimeout");
             })
-            .chain(record -> {
+            .chain(response -> {
+                if(Response.Status.NOT_MODIFIED.getStatusCode() == response.getStatus() && null != previous) {
+                    // Record did not change
+                    LOG.infof("Zenodo record %s did not change", recordId);
+                    return Uni.createFrom().item(new ParsedContent(previous));
+                }
+
                 // Got Zenodo record
+                var record = response.getEntity();
                 LOG.infof("Got Zenodo record %s", record.id);
 
                 // Build list of source files
@@ -155,7 +187,9 @@ public class ZenodoParser implements ParserService {
                 srcFiles.count = srcFiles.elements.size();
 
                 // Success
-                return Uni.createFrom().item(srcFiles);
+                return Uni.createFrom().item(new ParsedContent(srcFiles,
+                                                               response.getHeaderString(ETAG),
+                                                               response.getHeaderString(LAST_MODIFIED)));
             })
             .onFailure().invoke(e -> {
                 LOG.error(e);
@@ -164,4 +198,40 @@ public class ZenodoParser implements ParserService {
         return result;
     }
 
+    /**
+     * Parse the DOI and return the files in the data set, as soon as each is available.
+     * The files of the Zenodo record are parsed incrementally from the response,
+     * so the record is never held in memory as a whole.
+     * @param auth The access token needed to call the service.
+     * @param context The context returned by matchDOI().
+     * @return The files in the data set.
+     */
+    @Override
+    public Multi<StorageElement> streamDOI(String auth, ParseContext context) {
+        if(null == this.streamingClient)
+            return Multi.createFrom().failure(new TransferServiceException("invalidConfig"));
+
+        final String recordId = (null != context) ? context.sourceId : null;
+        if(null == recordId || recordId.isEmpty())
+            return Multi.createFrom().failure(new TransferServiceException("noRecordId"));
+
+        var options = new RequestOptions()
+                            .setHost(this.url.getHost())
+                            .setPort(this.url.getPort() > 0 ? this.url.getPort() : this.url.getDefaultPort())
+                            .setSsl("https".equalsIgnoreCase(this.url.getProtocol()))
+                            .setURI(this.url.getPath().replaceAll("/+$", "") + "/api/records/" + recordId)
+                            .putHeader(ACCEPT, MediaType.APPLICATION_JSON);
+
+        Multi<StorageElement> result = Deadline.bound(JsonArrayStream.get(this.streamingClient, options, "files", ZenodoFile.class),
+                                                      this.timeout, "parseDOITimeout")
+            .map(file -> {
+                // Got source file
+                return new StorageElement(file);
+            })
+            .onFailure().invoke(e -> {
+                LOG.error(e);
+            });
+
+        return result;
+    }
 }
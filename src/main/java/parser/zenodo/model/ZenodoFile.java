@@ -11,9 +11,12 @@ import java.util.regex.Pattern;
 /**
  * Details of a file from a Zenodo record
  */
-//@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonIgnoreProperties(ignoreUnknown = true)
 public class ZenodoFile {
 
+    private static final Pattern extensionPattern = Pattern.compile(".*\\.([a-z0-9]+)$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern compressedPattern = Pattern.compile("[^\\.]+\\.([a-z0-9]+)\\.gz$", Pattern.CASE_INSENSITIVE);
+
     public String id;
     public String checksum;
     public String filename;
@@ -26,15 +29,16 @@ public class ZenodoFile {
     public ZenodoFile() {}
 
     public String getMediaType() {
-        if(null == this.type || this.type.isEmpty()) {
-            Pattern p = Pattern.compile(".*\\.([a-z0-9]+)$", Pattern.CASE_INSENSITIVE);
-            Matcher m = p.matcher(this.filename);
+        if((null == this.type || this.type.isEmpty()) && null != this.filename) {
+            Matcher m = extensionPattern.matcher(this.filename);
             if(m.matches())
                 this.type = m.group(1);
         }
-        if(this.type.equals("gz")) {
-            Pattern p = Pattern.compile("[^\\.]+\\.([a-z0-9]+)\\.gz$", Pattern.CASE_INSENSITIVE);
-            Matcher m = p.matcher(this.filename);
+        if(null == this.type)
+            return null;
+
+        if(this.type.equals("gz") && null != this.filename) {
+            Matcher m = compressedPattern.matcher(this.filename);
             if(m.matches())
                 this.type = m.group(1);
         }
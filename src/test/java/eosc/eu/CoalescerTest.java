@@ -0,0 +1,143 @@
+package eosc.eu;
+
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.UniEmitter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import eosc.eu.model.TransferInfoExtended;
+import egi.fts.model.JobInfoExtended;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/***
+ * Tests that concurrent identical calls share one upstream call
+ */
+public class CoalescerTest {
+
+    private static final int CALLERS = 100;
+
+    private Coalescer coalescer;
+    private StubTransferService ts;
+    private final List<UniEmitter<? super TransferInfoExtended>> upstream = new CopyOnWriteArrayList<>();
+
+
+    @BeforeEach
+    void setUp() {
+        this.coalescer = new Coalescer("Stub Transfer Service");
+        this.ts = new StubTransferService();
+
+        // Upstream calls only complete when the test says so
+        this.upstream.clear();
+        this.ts.transferInfo = jobId -> Uni.createFrom().emitter(this.upstream::add);
+    }
+
+    private Uni<TransferInfoExtended> getTransferInfo(String auth, String jobId) {
+        return this.coalescer.coalesce("getTransferInfo", auth, jobId, this.ts.getTransferInfo(auth, jobId));
+    }
+
+    private static TransferInfoExtended transfer(String jobId) {
+        var transferInfo = new TransferInfoExtended(new JobInfoExtended());
+        transferInfo.jobId = jobId;
+        return transferInfo;
+    }
+
+    @Test
+    void concurrentIdenticalCallsMakeOneUpstreamCall() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch subscribed = new CountDownLatch(CALLERS);
+        List<CompletableFuture<TransferInfoExtended>> results = new ArrayList<>();
+
+        try {
+            for(int i = 0; i < CALLERS; i++) {
+                var result = new CompletableFuture<TransferInfoExtended>();
+                results.add(result);
+                executor.submit(() -> {
+                    start.await();
+                    getTransferInfo("Bearer token", "job-1").subscribe().with(result::complete, result::completeExceptionally);
+                    subscribed.countDown();
+                    return null;
+                });
+            }
+
+            // Call from all threads at once
+            start.countDown();
+            assertTrue(subscribed.await(10, TimeUnit.SECONDS));
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1, this.ts.calls.get());
+        assertEquals(1, this.upstream.size());
+
+        this.upstream.get(0).complete(transfer("job-1"));
+        for(var result : results)
+            assertEquals("job-1", result.join().jobId);
+    }
+
+    @Test
+    void callsAreNotSharedBetweenCallersOrArguments() {
+        getTransferInfo("Bearer token", "job-1").subscribe().with(item -> {});
+        getTransferInfo("Bearer other", "job-1").subscribe().with(item -> {});
+        getTransferInfo("Bearer token", "job-2").subscribe().with(item -> {});
+
+        assertEquals(3, this.ts.calls.get());
+    }
+
+    @Test
+    void resultsAreNotCachedAfterCompletion() {
+        var first = getTransferInfo("Bearer token", "job-1").subscribeAsCompletionStage();
+        this.upstream.get(0).complete(transfer("job-1"));
+        assertEquals("job-1", first.join().jobId);
+
+        // Arrives after the first call completed, calls the service again
+        var second = getTransferInfo("Bearer token", "job-1").subscribeAsCompletionStage();
+        assertEquals(2, this.ts.calls.get());
+        this.upstream.get(1).complete(transfer("job-1"));
+        assertEquals("job-1", second.join().jobId);
+    }
+
+    @Test
+    void upstreamIsCanceledWhenAllCallersLeft() {
+        var first = getTransferInfo("Bearer token", "job-1").subscribe().with(item -> {});
+        var second = getTransferInfo("Bearer token", "job-1").subscribe().with(item -> {});
+        assertEquals(1, this.upstream.size());
+
+        // One caller gave up, the other one still waits
+        first.cancel();
+        assertFalse(this.upstream.get(0).isCancelled());
+
+        second.cancel();
+        assertTrue(this.upstream.get(0).isCancelled());
+
+        // Arrives after the call was abandoned, calls the service again
+        getTransferInfo("Bearer token", "job-1").subscribe().with(item -> {});
+        assertEquals(2, this.ts.calls.get());
+    }
+
+    @Test
+    void failuresAreShared() {
+        var first = getTransferInfo("Bearer token", "job-1");
+        var second = getTransferInfo("Bearer token", "job-1");
+        var firstResult = first.subscribeAsCompletionStage();
+        var secondResult = second.subscribeAsCompletionStage();
+
+        this.upstream.get(0).fail(new TransferServiceException("transferNotFound"));
+
+        assertEquals(1, this.ts.calls.get());
+        assertThrows(Exception.class, () -> firstResult.join());
+        assertThrows(Exception.class, () -> secondResult.join());
+    }
+}
@@ -0,0 +1,120 @@
+package eosc.eu;
+
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.UniEmitter;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import eosc.eu.ConcurrencyLimiter.Priority;
+import eosc.eu.TransfersConfig.ConcurrencyLimitConfig;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/***
+ * Tests how the concurrency limit adapts to the outcome of calls, and which calls are shed
+ */
+public class ConcurrencyLimiterTest {
+
+    private final List<UniEmitter<? super String>> inFlight = new CopyOnWriteArrayList<>();
+
+
+    private static ConcurrencyLimiter limiter(String service, int initialLimit, int maxQueueSize) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("initialLimit", initialLimit);
+        values.put("minLimit", 1);
+        values.put("maxLimit", 100);
+        values.put("maxQueueSize", maxQueueSize);
+        return new ConcurrencyLimiter(service, ConfigStubs.of(ConcurrencyLimitConfig.class, values));
+    }
+
+    /***
+     * Make a call that only completes when the test says so.
+     */
+    private CompletableFuture<String> call(ConcurrencyLimiter limiter, Priority priority) {
+        Uni<String> call = Uni.createFrom().emitter(this.inFlight::add);
+        return limiter.call(priority, call).subscribeAsCompletionStage().toCompletableFuture();
+    }
+
+    private static String failureOf(CompletableFuture<?> result) {
+        var e = assertThrows(CompletionException.class, result::join);
+        return ((TransferServiceException)e.getCause()).getId();
+    }
+
+    @Test
+    void limitGrowsWhileCallsCompleteQuickly() {
+        var limiter = limiter("Growing Service", 4, 100);
+
+        for(int round = 0; round < 20; round++) {
+            // Use the whole limit, then complete all calls
+            this.inFlight.clear();
+            List<CompletableFuture<String>> results = new ArrayList<>();
+            for(int i = 0; i < limiter.getLimit(); i++)
+                results.add(call(limiter, Priority.STATUS));
+
+            for(var emitter : this.inFlight)
+                emitter.complete("done");
+            for(var result : results)
+                assertEquals("done", result.join());
+        }
+
+        assertTrue(limiter.getLimit() > 4);
+    }
+
+    @Test
+    void limitShrinksWhenCallsFail() {
+        var limiter = limiter("Failing Service", 10, 100);
+
+        var result = call(limiter, Priority.STATUS);
+        this.inFlight.get(0).fail(new TransferServiceException("internalError"));
+        assertEquals("internalError", failureOf(result));
+        assertEquals(9, limiter.getLimit());
+
+        // Calls shed by the service itself say nothing about its load
+        result = call(limiter, Priority.STATUS);
+        this.inFlight.get(1).fail(new TransferServiceException("serviceUnavailable"));
+        assertEquals("serviceUnavailable", failureOf(result));
+        assertEquals(9, limiter.getLimit());
+    }
+
+    @Test
+    void lowerPrioritiesAreShedFirst() {
+        var limiter = limiter("Saturated Service", 1, 2);
+
+        // Holds the only slot
+        var running = call(limiter, Priority.STATUS);
+        assertEquals(1, this.inFlight.size());
+
+        // Fill the queue
+        var submission = call(limiter, Priority.SUBMISSION);
+        var storage = call(limiter, Priority.STORAGE);
+
+        // Status reads make room by shedding the lowest priority first
+        var status1 = call(limiter, Priority.STATUS);
+        assertEquals("serviceUnavailable", failureOf(submission));
+        assertFalse(storage.isDone());
+
+        var status2 = call(limiter, Priority.STATUS);
+        assertEquals("serviceUnavailable", failureOf(storage));
+
+        // Nothing of lower priority left, the new call is shed
+        var status3 = call(limiter, Priority.STATUS);
+        assertEquals("serviceUnavailable", failureOf(status3));
+
+        // Waiting calls proceed in order as the slot frees up
+        this.inFlight.get(0).complete("done");
+        assertEquals("done", running.join());
+        assertEquals(2, this.inFlight.size());
+        this.inFlight.get(1).complete("first");
+        assertEquals("first", status1.join());
+        this.inFlight.get(2).complete("second");
+        assertEquals("second", status2.join());
+    }
+}
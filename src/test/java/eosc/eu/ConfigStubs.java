@@ -0,0 +1,80 @@
+package eosc.eu;
+
+import io.smallrye.config.WithDefault;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+
+/***
+ * Builds configuration mappings for tests, without starting the application.
+ * Each method returns the value given for its name, else the value of its @WithDefault,
+ * and configuration groups are stubbed the same way (from a nested map of values).
+ */
+public class ConfigStubs {
+
+    /***
+     * Stub a configuration mapping.
+     * @param type The interface of the mapping.
+     * @param values The values to return, indexed by method name.
+     * @return Configuration mapping.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T of(Class<T> type, Map<String, Object> values) {
+        return (T)Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            if(Object.class == method.getDeclaringClass()) {
+                switch(method.getName()) {
+                    case "equals": return proxy == args[0];
+                    case "hashCode": return System.identityHashCode(proxy);
+                    default: return type.getSimpleName() + values;
+                }
+            }
+
+            var value = values.get(method.getName());
+            var returnType = method.getReturnType();
+            if(isGroup(returnType))
+                return of(returnType, (null != value) ? (Map<String, Object>)value : Map.of());
+
+            if(null != value)
+                return value;
+
+            var defaultValue = method.getAnnotation(WithDefault.class);
+            if(null != defaultValue)
+                return convert(defaultValue.value(), returnType);
+
+            if(Map.class == returnType)
+                return Map.of();
+            if(List.class == returnType)
+                return List.of();
+            if(Optional.class == returnType)
+                return Optional.empty();
+
+            return null;
+        });
+    }
+
+    /***
+     * Check if a type is a configuration group.
+     */
+    private static boolean isGroup(Class<?> type) {
+        return type.isInterface() && !type.getName().startsWith("java.");
+    }
+
+    /***
+     * Convert a default value to the return type of its method.
+     */
+    private static Object convert(String value, Class<?> type) {
+        if(int.class == type || Integer.class == type)
+            return Integer.parseInt(value);
+        if(long.class == type || Long.class == type)
+            return Long.parseLong(value);
+        if(double.class == type || Double.class == type)
+            return Double.parseDouble(value);
+        if(boolean.class == type || Boolean.class == type)
+            return Boolean.parseBoolean(value);
+
+        return value;
+    }
+}
@@ -0,0 +1,111 @@
+package eosc.eu;
+
+import io.smallrye.mutiny.Uni;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.Response;
+
+import eosc.eu.ConcurrencyLimiter.Priority;
+import eosc.eu.RateLimiter.TokenBucket;
+import eosc.eu.TransfersConfig.BucketConfig;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/***
+ * Tests the token buckets, and how requests over budget are queued and served
+ */
+public class RateLimiterTest {
+
+    private static TokenBucket bucket(int capacity, double rate) {
+        return new TokenBucket(ConfigStubs.of(BucketConfig.class, Map.of("capacity", capacity, "rate", rate)));
+    }
+
+    /***
+     * Build a rate limiter where each user has plenty of budget, but all users together
+     * get one request per interval (after the first one).
+     */
+    private static RateLimiter limiter(double sharedRate, int maxQueuedPerUser, long maxQueueWait) {
+        var limiter = new RateLimiter();
+        limiter.config = ConfigStubs.of(TransfersConfig.class, Map.of(
+                            "rateLimit", Map.of(
+                                "status", Map.of("capacity", 100, "rate", 1000.0),
+                                "shared", Map.of("capacity", 1, "rate", sharedRate),
+                                "maxQueuedPerUser", maxQueuedPerUser,
+                                "maxQueueWait", maxQueueWait)));
+        limiter.init();
+        return limiter;
+    }
+
+    private static Uni<Response> request(RateLimiter limiter, String identity) {
+        return limiter.admit(Priority.STATUS, identity, limiter.bucketOf(identity, Priority.STATUS));
+    }
+
+    @Test
+    void bucketAllowsBurstsUpToItsCapacity() throws InterruptedException {
+        var bucket = bucket(3, 20);
+        for(int i = 0; i < 3; i++)
+            assertEquals(0, bucket.tryAcquire());
+
+        long wait = bucket.tryAcquire();
+        assertTrue(wait > 0);
+        assertTrue(wait <= bucket.interval);
+        assertEquals(0, bucket.remaining());
+
+        // Refunded tokens can be taken again
+        bucket.refund();
+        assertEquals(0, bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire() > 0);
+
+        // Refills at its rate, but never beyond its capacity
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(bucket.interval) + 10);
+        assertEquals(0, bucket.tryAcquire());
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(10 * bucket.interval));
+        assertEquals(3, bucket.remaining());
+        assertEquals(0, bucket.untilFull());
+    }
+
+    @Test
+    void waitingUsersAreServedRoundRobin() {
+        var limiter = limiter(10, 10, 5000);
+        List<String> served = new CopyOnWriteArrayList<>();
+
+        // First request passes, the others wait for the shared budget
+        assertNull(request(limiter, "a").await().indefinitely());
+
+        List<CompletableFuture<Response>> waiting = List.of(
+            request(limiter, "a").invoke(() -> served.add("a2")).subscribeAsCompletionStage().toCompletableFuture(),
+            request(limiter, "a").invoke(() -> served.add("a3")).subscribeAsCompletionStage().toCompletableFuture(),
+            request(limiter, "b").invoke(() -> served.add("b1")).subscribeAsCompletionStage().toCompletableFuture());
+
+        for(var response : waiting)
+            assertNull(response.orTimeout(2, TimeUnit.SECONDS).join());
+
+        // User "b" did not have to wait for all requests of user "a"
+        assertEquals(List.of("a2", "b1", "a3"), served);
+    }
+
+    @Test
+    void requestsOverTheQueueLimitAreRejected() {
+        var limiter = limiter(0.001, 2, 200);
+
+        assertNull(request(limiter, "a").await().indefinitely());
+        var second = request(limiter, "a").subscribeAsCompletionStage();
+        var third = request(limiter, "a").subscribeAsCompletionStage();
+
+        // Queue of the user is full
+        var rejected = request(limiter, "a").await().atMost(Duration.ofMillis(100));
+        assertEquals(429, rejected.getStatus());
+
+        // Other users still get queued, and requests that wait too long are rejected
+        assertEquals(429, request(limiter, "b").await().atMost(Duration.ofSeconds(2)).getStatus());
+        assertEquals(429, second.toCompletableFuture().orTimeout(2, TimeUnit.SECONDS).join().getStatus());
+        assertEquals(429, third.toCompletableFuture().orTimeout(2, TimeUnit.SECONDS).join().getStatus());
+    }
+}
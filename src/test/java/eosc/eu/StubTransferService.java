@@ -0,0 +1,98 @@
+package eosc.eu;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import javax.ws.rs.core.Response;
+
+import eosc.eu.model.*;
+import eosc.eu.TransfersConfig.TransferServiceConfig;
+
+
+/***
+ * Transfer service for tests, counts how often it is initialized and called.
+ * Only the calls set by the test do something (getTransferInfo, startTransfer, findTransfers,
+ * getTransfersInfo, cancelTransfer), all other calls fail.
+ */
+public class StubTransferService implements TransferService {
+
+    public static final AtomicInteger initialized = new AtomicInteger();
+
+    public final AtomicInteger calls = new AtomicInteger();
+    public Function<String, Uni<TransferInfoExtended>> transferInfo = jobId -> notSupported();
+    public Function<Transfer, Uni<TransferInfo>> start = transfer -> notSupported();
+    public Supplier<Uni<TransferList>> found = () -> notSupported();
+    public Function<List<String>, Uni<TransferStatusList>> transfersInfo = jobIds -> notSupported();
+    public Function<String, Uni<TransferInfoExtended>> cancel = jobId -> notSupported();
+
+    private String name;
+
+
+    /***
+     * Constructor
+     */
+    public StubTransferService() {}
+
+    public boolean initService(TransferServiceConfig config) {
+        this.name = config.name();
+        initialized.incrementAndGet();
+        return true;
+    }
+
+    public String getServiceName() { return this.name; }
+
+    public boolean canBrowseStorage() { return true; }
+
+    public String translateTransferInfoFieldName(String genericFieldName) { return genericFieldName; }
+
+    public Uni<UserInfo> getUserInfo(String auth) { return notSupported(); }
+
+    public Uni<TransferInfo> startTransfer(String auth, Transfer transfer) { return this.start.apply(transfer); }
+
+    public Uni<TransferList> findTransfers(String auth, String fields, int limit,
+                                           String timeWindow, String stateIn,
+                                           String srcStorageElement, String dstStorageElement,
+                                           String delegationId, String voName, String userDN) {
+        return this.found.get();
+    }
+
+    public Multi<TransferInfoExtended> streamTransfers(String auth, String fields, int limit,
+                                                       String timeWindow, String stateIn,
+                                                       String srcStorageElement, String dstStorageElement,
+                                                       String delegationId, String voName, String userDN) {
+        return Multi.createFrom().failure(new TransferServiceException("notSupported"));
+    }
+
+    public Uni<TransferInfoExtended> getTransferInfo(String auth, String jobId) {
+        return Uni.createFrom().deferred(() -> {
+            this.calls.incrementAndGet();
+            return this.transferInfo.apply(jobId);
+        });
+    }
+
+    public Uni<TransferStatusList> getTransfersInfo(String auth, List<String> jobIds) { return this.transfersInfo.apply(jobIds); }
+
+    public Uni<Response> getTransferInfoField(String auth, String jobId, String fieldName) { return notSupported(); }
+
+    public Uni<TransferInfoExtended> cancelTransfer(String auth, String jobId) { return this.cancel.apply(jobId); }
+
+    public Uni<StorageContent> listFolderContent(String auth, String folderUrl) { return notSupported(); }
+
+    public Uni<StorageElement> getStorageElementInfo(String auth, String seUrl) { return notSupported(); }
+
+    public Uni<String> createFolder(String auth, String folderUrl) { return notSupported(); }
+
+    public Uni<String> deleteFolder(String auth, String folderUrl) { return notSupported(); }
+
+    public Uni<String> deleteFile(String auth, String fileUrl) { return notSupported(); }
+
+    public Uni<String> renameStorageElement(String auth, String seOld, String seNew) { return notSupported(); }
+
+    private static <T> Uni<T> notSupported() {
+        return Uni.createFrom().failure(new TransferServiceException("notSupported"));
+    }
+}
@@ -0,0 +1,181 @@
+package eosc.eu;
+
+import io.smallrye.mutiny.Uni;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import eosc.eu.model.*;
+import eosc.eu.TransfersConfig.TransferServiceConfig;
+import egi.fts.model.JobInfo;
+import egi.fts.model.JobInfoExtended;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/***
+ * Tests the splitting of large transfers into jobs, and how such transfers are reported
+ */
+public class TransferPlannerTest {
+
+    private static final int MAX_JOB_FILES = 2;
+
+    private StubTransferService ts;
+    private TransferPlanner planner;
+    private final List<Transfer> submitted = new CopyOnWriteArrayList<>();
+    private final Map<String, Map<String, String>> metadata = new ConcurrentHashMap<>(); // Indexed by job ID
+
+
+    @BeforeEach
+    void setUp() {
+        this.ts = new StubTransferService();
+        this.planner = new TransferPlanner(this.ts);
+        this.planner.initService(ConfigStubs.of(TransferServiceConfig.class, Map.of(
+                            "name", "Stub Transfer Service",
+                            "maxJobFiles", MAX_JOB_FILES,
+                            "maxJobs", 50,
+                            "submitConcurrency", 4)));
+
+        // Each submission becomes a job, remembered with its metadata
+        this.submitted.clear();
+        this.metadata.clear();
+        this.ts.start = transfer -> {
+            var ji = new JobInfo();
+            ji.job_id = "job-" + this.submitted.size();
+            this.submitted.add(transfer);
+            this.metadata.put(ji.job_id, (null != transfer.params && null != transfer.params.jobMetadata) ?
+                                                transfer.params.jobMetadata : Map.of());
+            return Uni.createFrom().item(new TransferInfo(ji));
+        };
+    }
+
+    private static Transfer transfer(int files) {
+        var transfer = new Transfer();
+        for(int i = 0; i < files; i++) {
+            var payload = new TransferPayload();
+            payload.sources.add("https://source.example.org/file" + i);
+            payload.destinations.add("https://dcache.example.org/file" + i);
+            transfer.files.add(payload);
+        }
+
+        return transfer;
+    }
+
+    private static TransferInfoExtended job(String jobId, String state, Map<String, String> metadata) {
+        var jie = new JobInfoExtended();
+        jie.job_id = jobId;
+        jie.job_state = state;
+        jie.job_metadata = metadata;
+        return new TransferInfoExtended(jie);
+    }
+
+    /***
+     * Answer bulk status requests with the submitted jobs, in the given states.
+     */
+    private void jobStates(Map<String, String> states) {
+        this.ts.transfersInfo = jobIds -> {
+            var transfers = new TransferStatusList();
+            for(var jobId : jobIds)
+                transfers.add(job(jobId, states.get(jobId), this.metadata.get(jobId)));
+
+            return Uni.createFrom().item(transfers);
+        };
+    }
+
+    @Test
+    void largeTransfersAreSplitIntoJobs() {
+        var transferInfo = this.planner.startTransfer("Bearer token", transfer(5)).await().indefinitely();
+
+        assertTrue(TransferPlanner.isComposite(transferInfo.jobId));
+        assertEquals(3, this.submitted.size());
+        assertEquals(List.of(2, 2, 1), List.of(this.submitted.get(0).files.size(),
+                                                 this.submitted.get(1).files.size(),
+                                                 this.submitted.get(2).files.size()));
+
+        // All jobs tagged as parts of the same transfer, the last one knows the count
+        var group = this.metadata.get("job-0").get("multi_job");
+        assertNotNull(group);
+        assertEquals(group, this.metadata.get("job-2").get("multi_job"));
+        assertEquals("1", this.metadata.get("job-0").get("multi_job_part"));
+        assertEquals("3/3", this.metadata.get("job-2").get("multi_job_part"));
+    }
+
+    @Test
+    void smallTransfersAreNotSplit() {
+        var transferInfo = this.planner.startTransfer("Bearer token", transfer(MAX_JOB_FILES)).await().indefinitely();
+
+        assertEquals("job-0", transferInfo.jobId);
+        assertEquals(1, this.submitted.size());
+        assertTrue(this.metadata.get("job-0").isEmpty());
+    }
+
+    @Test
+    void compositeIdsResolveToTheirJobs() {
+        var jobId = this.planner.startTransfer("Bearer token", transfer(5)).await().indefinitely().jobId;
+        jobStates(Map.of("job-0", "ACTIVE", "job-1", "ACTIVE", "job-2", "SUBMITTED"));
+
+        var transferInfo = this.planner.getTransferInfo("Bearer token", jobId).await().indefinitely();
+        assertEquals(jobId, transferInfo.jobId);
+        assertEquals(List.of("job-0", "job-1", "job-2"),
+                     List.of(transferInfo.parts.get(0).jobId, transferInfo.parts.get(1).jobId, transferInfo.parts.get(2).jobId));
+        assertEquals("ACTIVE", transferInfo.jobState);
+
+        // Invalid composite IDs are reported, not sent to the transfer service
+        var transfers = this.planner.getTransfersInfo("Bearer token", List.of("multi-!")).await().indefinitely();
+        assertEquals(0, transfers.count);
+        assertEquals("invalidJobId", transfers.errors.get("multi-!").id);
+    }
+
+    @Test
+    void aggregateStateReflectsFailedParts() {
+        var jobId = this.planner.startTransfer("Bearer token", transfer(5)).await().indefinitely().jobId;
+
+        // Not done while any part is still running
+        jobStates(Map.of("job-0", "FINISHED", "job-1", "FAILED", "job-2", "ACTIVE"));
+        assertEquals("ACTIVE", this.planner.getTransferInfo("Bearer token", jobId).await().indefinitely().jobState);
+
+        // Some parts failed
+        jobStates(Map.of("job-0", "FINISHED", "job-1", "FAILED", "job-2", "FINISHED"));
+        assertEquals("FINISHEDDIRTY", this.planner.getTransferInfo("Bearer token", jobId).await().indefinitely().jobState);
+
+        // All parts failed
+        jobStates(Map.of("job-0", "FAILED", "job-1", "FAILED", "job-2", "FAILED"));
+        assertEquals("FAILED", this.planner.getTransferInfo("Bearer token", jobId).await().indefinitely().jobState);
+    }
+
+    @Test
+    void foundPartsAreRegroupedOnlyWhenAllMatched() {
+        List<TransferInfoExtended> jobs = new ArrayList<>();
+        jobs.add(job("a-1", "ACTIVE", Map.of("multi_job", "a", "multi_job_part", "1")));
+        jobs.add(job("a-2", "ACTIVE", Map.of("multi_job", "a", "multi_job_part", "2/2")));
+        jobs.add(job("b-1", "ACTIVE", Map.of("multi_job", "b", "multi_job_part", "1")));
+        jobs.add(job("single", "FINISHED", new HashMap<>()));
+
+        var found = new TransferList(List.of());
+        found.transfers = new ArrayList<>(jobs);
+        found.count = jobs.size();
+        this.ts.found = () -> Uni.createFrom().item(found);
+
+        var transfers = this.planner.findTransfers("Bearer token", "jobMetadata", 100,
+                                                   null, null, null, null, null, null, null).await().indefinitely();
+
+        // Transfer "a" is complete, transfer "b" misses its last part
+        assertEquals(3, transfers.count);
+        var composite = transfers.transfers.stream().filter(t -> TransferPlanner.isComposite(t.jobId)).findFirst();
+        assertTrue(composite.isPresent());
+        assertEquals(2, composite.get().parts.size());
+        assertTrue(transfers.transfers.stream().anyMatch(t -> "b-1".equals(t.jobId)));
+        assertTrue(transfers.transfers.stream().anyMatch(t -> "single".equals(t.jobId)));
+
+        // The list found by the transfer service (possibly shared with other callers) is left untouched
+        assertNotSame(found, transfers);
+        assertEquals(4, found.count);
+        assertEquals(jobs, found.transfers);
+    }
+}
@@ -0,0 +1,115 @@
+package eosc.eu;
+
+import io.smallrye.mutiny.Uni;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import eosc.eu.model.TransferInfoExtended;
+import egi.fts.model.JobInfoExtended;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/***
+ * Tests the lookup of transfer services by destination and by storage element URL
+ */
+public class TransferServiceRegistryTest {
+
+    private TransferServiceRegistry registry;
+
+
+    @BeforeEach
+    void buildRegistry() {
+        StubTransferService.initialized.set(0);
+
+        var service = Map.<String, Object>of(
+                            "name", "Stub Transfer Service",
+                            "url", List.of("https://fts.example.org:8446"),
+                            "className", StubTransferService.class.getName());
+
+        this.registry = new TransferServiceRegistry();
+        this.registry.config = ConfigStubs.of(TransfersConfig.class, Map.of(
+                            "destinations", Map.of("dcache", "stub", "storm", "stub", "broken", "missing"),
+                            "services", Map.of("stub", ConfigStubs.of(TransfersConfig.TransferServiceConfig.class, service)),
+                            "routes", Map.of("https://dcache.example.org", "dcache", "storm.example.org:8443", "storm")));
+        this.registry.init();
+    }
+
+    @Test
+    void servicesAreCreatedOnceAtStartup() {
+        var dcache = this.registry.getService("dcache");
+        assertNotNull(dcache);
+        assertEquals("Stub Transfer Service", dcache.getServiceName());
+
+        // Destinations of the same transfer service share its instance
+        assertSame(dcache, this.registry.getService("storm"));
+        assertEquals(1, StubTransferService.initialized.get());
+    }
+
+    @Test
+    void unknownDestinationsHaveNoService() {
+        assertNull(this.registry.getService("broken"));
+        assertNull(this.registry.getService("unknown"));
+        assertNull(this.registry.getService(null));
+    }
+
+    @Test
+    void lookupsDoNotCreateServices() {
+        final var expected = this.registry.getService("dcache");
+        for(int i = 0; i < 10; i++)
+            assertSame(expected, this.registry.getService((0 == i % 2) ? "dcache" : "storm"));
+
+        // The services were only initialized when the registry was built
+        assertEquals(1, StubTransferService.initialized.get());
+    }
+
+    @Test
+    void storageElementsAreRoutedByUrl() {
+        var route = this.registry.route("https://dcache.example.org/pnfs/data/file.txt");
+        assertNotNull(route);
+        assertEquals("dcache", route.getItem1());
+        assertSame(this.registry.getService("dcache"), route.getItem2());
+
+        // Matches by host and port regardless of scheme
+        route = this.registry.route("davs://STORM.example.org:8443/data/");
+        assertNotNull(route);
+        assertEquals("storm", route.getItem1());
+
+        // Other ports, hosts and invalid URLs are not routed
+        assertNull(this.registry.route("https://storm.example.org/data/"));
+        assertNull(this.registry.route("https://other.example.org/data/"));
+        assertNull(this.registry.route("not a url"));
+        assertNull(this.registry.route(null));
+    }
+
+    @Test
+    void routedTransfersReachTheirDestination() {
+        var dcache = new StubTransferService();
+        var storm = new StubTransferService();
+        storm.transferInfo = jobId -> {
+            var transferInfo = new TransferInfoExtended(new JobInfoExtended());
+            transferInfo.jobId = jobId;
+            return Uni.createFrom().item(transferInfo);
+        };
+
+        var services = Map.<String, TransferService>of("dcache", dcache, "storm", storm);
+        var router = new TransferRouter(dcache, services::get);
+
+        // Queried through another destination than the one it was routed to
+        var jobId = TransferRouter.routedId("storm", "job-1");
+        assertTrue(TransferRouter.isRouted(jobId));
+        var transferInfo = router.getTransferInfo("Bearer token", jobId).await().indefinitely();
+        assertEquals(jobId, transferInfo.jobId);
+        assertEquals("storm", transferInfo.destination);
+        assertEquals(1, storm.calls.get());
+        assertEquals(0, dcache.calls.get());
+
+        // Unknown destinations and invalid IDs are rejected
+        var unknown = TransferRouter.routedId("unknown", "job-1");
+        assertThrows(TransferServiceException.class, () -> router.getTransferInfo("Bearer token", unknown).await().indefinitely());
+        assertThrows(TransferServiceException.class, () -> router.getTransferInfo("Bearer token", "route-!").await().indefinitely());
+    }
+}
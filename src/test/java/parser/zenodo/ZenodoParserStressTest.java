@@ -0,0 +1,120 @@
+package parser.zenodo;
+
+import com.sun.net.httpserver.HttpServer;
+import io.quarkus.test.junit.QuarkusTest;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.tuples.Tuple2;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eosc.eu.ConfigStubs;
+import eosc.eu.ParsersConfig.ParserConfig;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/***
+ * Runs many DOIs in parallel through one shared Zenodo parser, against a local Zenodo stand-in.
+ * Each DOI must come back with the files of its own record.
+ */
+@QuarkusTest
+public class ZenodoParserStressTest {
+
+    private static final int RECORDS = 500;
+    private static final int CONCURRENCY = 64;
+
+    private HttpServer zenodo;
+    private ExecutorService executor;
+    private final AtomicInteger requests = new AtomicInteger();
+    private ZenodoParser parser;
+
+
+    @BeforeEach
+    void startZenodo() throws IOException {
+        // Serve /api/records/{id} with one file named after the record
+        this.zenodo = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.zenodo.createContext("/api/records/", exchange -> {
+            this.requests.incrementAndGet();
+            var recordId = exchange.getRequestURI().getPath().replaceAll("^.*/", "");
+            var body = String.format("{\"id\":\"%1$s\",\"files\":[{\"id\":\"f%1$s\",\"filename\":\"record-%1$s.csv\"," +
+                                     "\"filesize\":%1$s,\"links\":{\"download\":\"https://zenodo.example.org/files/%1$s\"}}]}",
+                                     recordId).getBytes(StandardCharsets.UTF_8);
+
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try(var out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+
+        this.executor = Executors.newFixedThreadPool(16);
+        this.zenodo.setExecutor(this.executor);
+        this.zenodo.start();
+
+        var url = String.format("http://localhost:%d", this.zenodo.getAddress().getPort());
+        this.parser = new ZenodoParser();
+        assertTrue(this.parser.initParser(ConfigStubs.of(ParserConfig.class, Map.of(
+                                                "name", "Zenodo stand-in",
+                                                "url", url,
+                                                "timeout", 30000,
+                                                "http", Map.of("maxPoolSize", CONCURRENCY)))));
+    }
+
+    @AfterEach
+    void stopZenodo() {
+        this.zenodo.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    void parsesManyDoisConcurrently() {
+        var results = Multi.createFrom().range(0, RECORDS)
+            .onItem().transformToUni(i -> {
+                var recordId = String.valueOf(1000 + i);
+                var context = this.parser.matchDOI("https://doi.org/10.5281/zenodo." + recordId);
+                assertNotNull(context);
+                return this.parser.parseDOI(null, context).map(content -> Tuple2.of(recordId, content));
+            })
+            .merge(CONCURRENCY)
+            .collect().asList()
+            .await().atMost(Duration.ofSeconds(60));
+
+        assertEquals(RECORDS, results.size());
+        assertEquals(RECORDS, this.requests.get());
+        for(var result : results) {
+            // No DOI got the files of another DOI
+            var content = result.getItem2();
+            assertEquals(1, content.count);
+            assertEquals("record-" + result.getItem1() + ".csv", content.elements.get(0).name);
+            assertEquals(Long.parseLong(result.getItem1()), content.elements.get(0).size);
+        }
+    }
+
+    @Test
+    void streamsManyDoisConcurrently() {
+        var names = Multi.createFrom().range(0, RECORDS)
+            .onItem().transformToMulti(i -> {
+                var context = this.parser.matchDOI("https://doi.org/10.5281/zenodo." + (5000 + i));
+                return this.parser.streamDOI(null, context);
+            })
+            .merge(CONCURRENCY)
+            .map(file -> file.name)
+            .collect().asSet()
+            .await().atMost(Duration.ofSeconds(60));
+
+        assertEquals(RECORDS, names.size());
+        for(int i = 0; i < RECORDS; i++)
+            assertTrue(names.contains("record-" + (5000 + i) + ".csv"));
+    }
+}